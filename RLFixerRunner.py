@@ -3,7 +3,9 @@ Front-end for the Resource-Leak fixing post-processor
 
 '''
 import os
+import glob
 import argparse
+from Constants import COMPILED_CLASSES_FOLDER
 
 
 class Warning:
@@ -60,12 +62,15 @@ p.add_argument("--output", help="Location to place output files")
 p.add_argument("--skip", help="List of benchmarks to skip")
 p.add_argument("--debug_output", help="Location to place debug files")
 p.add_argument("--wpioutdir", help="Location of the wpi-out directory from running the CF RLC inference")
+p.add_argument("--batch", help="File listing '<results file>\\t<wpi-out dir>' lines; analyzes all of them in one JVM")
+p.add_argument("--shards", type=int, default=1, help="Number of worker processes that split the warnings of a benchmark")
 args = p.parse_args()
 TOOL = args.tool
 RESULT_LOCATION = args.results
 BENCHMARKS_FOLDER = args.benchmarks
 OUTPUT_FOLDER = args.output
 WPI_OUT_DIR = args.wpioutdir
+BATCH_LIST = args.batch
 
 # String Constants
 CHECKERFRAMEWORK = "checkerframework"
@@ -74,11 +79,18 @@ RLFIXER_ROOT = os.path.abspath(os.path.join(HERE, "rlfixer"))
 
 COMPILED_FOLDER = f"{RLFIXER_ROOT}/wala/classes/"
 DRIVER_CLASS = "main.Main"
+BATCH_DRIVER_CLASS = "main.BatchMain"
+SHARDED_DRIVER_CLASS = "main.ShardedMain"
+# column order of a main.BatchMain batch file
+BATCH_FIELDS = ["name", "classpath", "libClasspath", "appClasses", "srcFiles",
+                "projectDir", "warnings", "wpiOutDir", "debugOutput", "outputFile"]
 WALA_CORE_JAR = f"{RLFIXER_ROOT}/lib/com.ibm.wala.core-1.5.7.jar"
 WALA_SHRIKE_JAR = f"{RLFIXER_ROOT}/lib/com.ibm.wala.shrike-1.5.7.jar"
 WALA_UTIL_JAR = f"{RLFIXER_ROOT}/lib/com.ibm.wala.util-1.5.7.jar"
 JAVAPARSER_JAR = f"{RLFIXER_ROOT}/lib/javaparser-core-3.24.7.jar"
 RLFIXER_JARS_ROOT = f"{RLFIXER_ROOT}/lib"
+# cache of the resource type index for the JDK and lib jars, keyed by jar hash
+RESOURCE_INDEX_DIR = f"{RLFIXER_ROOT}/resource-index"
 FILE_WITH_APP_CLASSES = "info/classes"
 FILE_WITH_SRCS= "info/sources"
 
@@ -87,71 +99,124 @@ class_path_string = f'{RLFIXER_JARS_ROOT}/*:{COMPILED_FOLDER}'
 os.environ["CLASSPATH"] = class_path_string
 
 
-results_file = RESULT_LOCATION
-if (os.stat(results_file).st_size == 0):
-    exit(0)
-warnings_list = None
-if TOOL == CHECKERFRAMEWORK:
-    warnings_list = get_checkerframework_warnings(results_file, BENCHMARKS_FOLDER)
-
-# construct the warning string parameter
-warnings_string = ""
-for warning in warnings_list:
-    # remove the project name from the file name
-    shortened_filename_array = warning.filename.split("/")[3:]
-    shortened_filename = "/".join(shortened_filename_array)
-    # create a comma and # separated string representing all warnings
-    warnings_string += f'{shortened_filename},{warning.line_number},{warning.method},{str(warning.is_owning_overwrite).strip()}#'
-    # print(warnings_string)
-
-
-# skip completed benchmarks
-benchmark_name = os.path.basename(results_file.rstrip('/'))[:-4]
-
-benchmark_path = os.path.join(BENCHMARKS_FOLDER,benchmark_name) 
-
-
-#Get jar file
-jarfile = ''
-for file in os.listdir(os.path.join(benchmark_path,"jarfile")):
-    if file.endswith(".jar"):
-        jarfile = file
-jarfile_path = os.path.join(benchmark_path,("jarfile/" + jarfile))
-
-
-#get file with application classes list
-appclasses_file = os.path.join(benchmark_path,FILE_WITH_APP_CLASSES)
-srcs_file = os.path.join(benchmark_path,FILE_WITH_SRCS)
-# construct the commands
-wala_command = ("java"
-    # + " " + "-agentlib:jdwp=transport=dt_socket,server=y,suspend=y,address=5005" 
-    + " " + DRIVER_CLASS
-    + " -classpath"
-    + " " + jarfile_path
-    + " -warnings"
-    + " \"" + warnings_string
-    + "\" -appClasses"
-    + " " + appclasses_file
-    + " -projectDir"
-    + " " + benchmark_path 
-    + " -srcFiles"
-    + " " + srcs_file
-    + " -debugOutput"
-    + " " + args.debug_output + "/" + benchmark_name + ".txt"
-    + " -wpiOutDir"
-    + " " + WPI_OUT_DIR
-    + " > " +  OUTPUT_FOLDER + "/" + benchmark_name + ".txt"
-)
-empty_file_command = ("touch "
-    +  OUTPUT_FOLDER
-    + "/" + benchmark_name + ".txt"
-)
-
-# execute the right command based on whether there are any errors.
-if len(warnings_list) > 0:
-    os.system(wala_command)
+def get_project_arguments(results_file, wpi_out_dir):
+    """Collects the RLFixer arguments for one benchmark, None if there is nothing to analyze."""
+    warnings_list = None
+    if TOOL == CHECKERFRAMEWORK:
+        warnings_list = get_checkerframework_warnings(results_file, BENCHMARKS_FOLDER)
+
+    # construct the warning string parameter
+    warnings_string = ""
+    for warning in warnings_list:
+        # remove the project name from the file name
+        shortened_filename_array = warning.filename.split("/")[3:]
+        shortened_filename = "/".join(shortened_filename_array)
+        # create a comma and # separated string representing all warnings
+        warnings_string += f'{shortened_filename},{warning.line_number},{warning.method},{str(warning.is_owning_overwrite).strip()}#'
+        # print(warnings_string)
+
+    # skip completed benchmarks
+    benchmark_name = os.path.basename(results_file.rstrip('/'))[:-4]
+
+    benchmark_path = os.path.join(BENCHMARKS_FOLDER,benchmark_name) 
+
+    # Get the classpath. Prefer the compiled classes folder (application loader)
+    # plus the lib jars (extension loader); fall back to the old fat jar.
+    compiled_classes_path = os.path.join(benchmark_path, COMPILED_CLASSES_FOLDER)
+    lib_classpath = ''
+    if os.path.isdir(compiled_classes_path):
+        app_classpath = compiled_classes_path
+        lib_folder = os.path.join(benchmark_path, "lib")
+        if os.path.isdir(lib_folder):
+            lib_entries = [lib_folder] + sorted(glob.glob(os.path.join(lib_folder, "*.jar")))
+            lib_classpath = ":".join(lib_entries)
+    else:
+        jarfile = ''
+        for file in os.listdir(os.path.join(benchmark_path,"jarfile")):
+            if file.endswith(".jar"):
+                jarfile = file
+        app_classpath = os.path.join(benchmark_path,("jarfile/" + jarfile))
+
+    return {
+        "name": benchmark_name,
+        "classpath": app_classpath,
+        "libClasspath": lib_classpath,
+        #get file with application classes list
+        "appClasses": os.path.join(benchmark_path,FILE_WITH_APP_CLASSES),
+        "srcFiles": os.path.join(benchmark_path,FILE_WITH_SRCS),
+        "projectDir": benchmark_path,
+        "warnings": warnings_string,
+        "wpiOutDir": wpi_out_dir,
+        "debugOutput": args.debug_output + "/" + benchmark_name + ".txt",
+        "outputFile": OUTPUT_FOLDER + "/" + benchmark_name + ".txt",
+        "hasWarnings": len(warnings_list) > 0,
+    }
+
+
+def run_single(results_file, wpi_out_dir):
+    if (os.stat(results_file).st_size == 0):
+        exit(0)
+    a = get_project_arguments(results_file, wpi_out_dir)
+    # with shards, main.ShardedMain runs main.Main once per shard and merges the outputs
+    driver = DRIVER_CLASS
+    if args.shards > 1:
+        shard_dir = os.path.join(OUTPUT_FOLDER, a["name"] + ".shards")
+        driver = f"{SHARDED_DRIVER_CLASS} -shards {args.shards} -shardDir {shard_dir}"
+    # construct the commands
+    wala_command = ("java"
+        # + " " + "-agentlib:jdwp=transport=dt_socket,server=y,suspend=y,address=5005" 
+        + " " + driver
+        + " -classpath"
+        + " " + a["classpath"]
+        + ((" -libClasspath " + a["libClasspath"]) if a["libClasspath"] else "")
+        + " -warnings"
+        + " \"" + a["warnings"]
+        + "\" -appClasses"
+        + " " + a["appClasses"]
+        + " -projectDir"
+        + " " + a["projectDir"]
+        + " -srcFiles"
+        + " " + a["srcFiles"]
+        + " -debugOutput"
+        + " " + a["debugOutput"]
+        + " -wpiOutDir"
+        + " " + a["wpiOutDir"]
+        + " -resourceIndexDir"
+        + " " + RESOURCE_INDEX_DIR
+        + " > " +  a["outputFile"]
+    )
+    empty_file_command = ("touch "
+        + a["outputFile"]
+    )
+
+    # execute the right command based on whether there are any errors.
+    if a["hasWarnings"]:
+        os.system(wala_command)
+    else:
+        os.system(empty_file_command)
+
+
+def run_batch(batch_list_file):
+    """Runs RLFixer on all the benchmarks of the list in one JVM (main.BatchMain).
+    Each line of the list is: <results file><TAB><wpi-out directory>"""
+    batch_file = os.path.join(OUTPUT_FOLDER, "rlfixer-batch.tsv")
+    with open(batch_list_file) as fp, open(batch_file, "w") as out:
+        for line in fp:
+            if not line.strip():
+                continue
+            results_file, wpi_out_dir = line.rstrip("\n").split("\t")
+            if os.stat(results_file).st_size == 0:
+                continue
+            a = get_project_arguments(results_file, wpi_out_dir)
+            if not a["hasWarnings"]:
+                os.system(f"touch {a['outputFile']}")
+                continue
+            fields = [a[k] for k in BATCH_FIELDS]
+            out.write("\t".join(fields) + "\n")
+    os.system(f"java {BATCH_DRIVER_CLASS} -batchFile {batch_file} -resourceIndexDir {RESOURCE_INDEX_DIR}")
+
+
+if BATCH_LIST is not None:
+    run_batch(BATCH_LIST)
 else:
-    os.system(empty_file_command)
-
-
-
+    run_single(RESULT_LOCATION, WPI_OUT_DIR)
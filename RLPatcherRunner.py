@@ -1,3 +1,4 @@
+import hashlib
 import json
 import logging
 import os
@@ -167,18 +168,40 @@ def match_fixes_to_warnings(fix_suggestions: List[dict], cf_warnings: List[dict]
     return matched
 
 
-def build_prompt_json(cf_warning_block: str, rlfixer_hint_block: str) -> str:
+def build_prompt_json(cf_warning_blocks: List[str], rlfixer_hint_blocks: List[str]) -> str:
     """
     Build JSON exactly as PromptParser expects:
       {"CF Leaks":[...], "RLFixer hint":[...]}
+    The i-th hint belongs to the i-th CF leak.
     """
     obj = {
-        "CF Leaks": [cf_warning_block],
-        "RLFixer hint": [rlfixer_hint_block],
+        "CF Leaks": list(cf_warning_blocks),
+        "RLFixer hint": list(rlfixer_hint_blocks),
     }
     return json.dumps(obj, indent=2)
 
 
+# Longest patch name, in bytes, leaving room for ".patch" within the usual
+# 255-byte file name limit
+MAX_PATCH_NAME = 200
+
+
+def patch_name(project_name: str, relpath: str, leak_lines: List[int]) -> str:
+    """
+    patch-<project>-<relpath>-L<first leak line>-<number of leaks>, with the
+    relpath's separators replaced by "_". A longer name is cut and ends with
+    a hash of the full name instead. The lines of all the leaks are in the
+    "lines" column of summary.tsv.
+    """
+    safe_rel = relpath.replace("/", "_").replace("\\", "_")
+    name = f"patch-{project_name}-{safe_rel}-L{leak_lines[0]}-{len(leak_lines)}"
+    encoded = name.encode()
+    if len(encoded) > MAX_PATCH_NAME:
+        digest = hashlib.sha1(encoded).hexdigest()[:12]
+        name = encoded[:MAX_PATCH_NAME - len(digest) - 1].decode(errors="ignore") + "-" + digest
+    return name
+
+
 # -------------------------
 # Runner
 # -------------------------
@@ -191,6 +214,7 @@ def run_rlpatcher_for_project(
     out_dir: str,
     success_text: str = "Patch applied successfully",
     keep_temp_json: bool = False,
+    jobs: Optional[int] = None,
 ) -> None:
     """
     End-to-end:
@@ -198,10 +222,15 @@ def run_rlpatcher_for_project(
       - read RLFixer fixes/debug from rlfixer_results_folder/{fixes,debug}/<project>.txt
       - filter to fixable leaks using debug table (when available)
       - match fixes <-> CF warnings by (abs filepath, line)
-      - for each matched leak:
-          create temp JSON -> java -jar RLPatcher.jar --prompt temp.json
-          move rlfixer.patch -> out_dir/patch-<project>-<relpath>-L<line>.patch
-          delete temp JSON
+      - write one prompt per leak file (all its matched leaks, of any patch
+        type) to a temp JSONL file
+      - java -jar RLPatcher.jar --incremental --jobs N --batch prompts.jsonl --out out_dir
+          (one JVM and one baseline compile for all leaks, files patched on
+          N threads, one per CPU by default; writes
+          out_dir/<patch_name(...)>.patch and out_dir/summary.tsv)
+      - delete temp JSONL
+
+    success_text is unused since the batch summary reports the status of each leak.
     """
     jar_path = Path(rlpatcher_jar)
     if not jar_path.is_file():
@@ -246,55 +275,68 @@ def run_rlpatcher_for_project(
     tmp_dir = out_path / "_tmp_prompts"
     tmp_dir.mkdir(parents=True, exist_ok=True)
 
+    # Group the leaks by file: RLPatcher applies all leaks of one file in a
+    # single pass (mixed patch types included) and validates them with one compile
+    by_file: Dict[str, List[Tuple[dict, dict]]] = {}
+    for fix, warn in matched:
+        by_file.setdefault(fix["filepath"], []).append((fix, warn))
+
+    # One JSONL line per leak file; "name" is the patch file name
+    prompts_path = tmp_dir / f"prompts-{project_name}.jsonl"
+    with prompts_path.open("w") as f:
+        for pairs in by_file.values():
+            prompt = json.loads(build_prompt_json(
+                cf_warning_blocks=[warn["message"] for _, warn in pairs],
+                rlfixer_hint_blocks=[fix["suggestion"] for fix, _ in pairs]
+            ))
+            prompt["name"] = patch_name(project_name, pairs[0][0]["relpath"],
+                                        [fix["line_number"] for fix, _ in pairs])
+            f.write(json.dumps(prompt) + "\n")
+
+    # Run jar once for the whole project (one JVM, one baseline compile);
+    # --incremental recompiles only the patched file to validate a patch
+    # --jobs patches different files in parallel
+    jobs = jobs or os.cpu_count() or 1
+    cmd = ["java", "-jar", str(jar_path), "--incremental", "--jobs", str(jobs),
+           "--batch", str(prompts_path), "--out", str(out_path)]
+    # A summary left by an earlier run would be read as this run's if the
+    # jar dies before writing its own
+    summary_path = out_path / "summary.tsv"
+    summary_path.unlink(missing_ok=True)
+    logging.info(f"[RLPatcher] ▶ {' '.join(cmd)}")
+    result = subprocess.run(cmd, capture_output=True, text=True)
+
+    if result.stdout:
+        logging.info(f"[RLPatcher] stdout:\n{result.stdout.strip()}")
+    if result.stderr:
+        logging.info(f"[RLPatcher] stderr:\n{result.stderr.strip()}")
+
     success = 0
     failure = 0
+    if summary_path.is_file():
+        for row in summary_path.read_text().splitlines()[1:]:
+            cols = row.split("\t")
+            name, status = cols[:2]
+            dropped = cols[3] if len(cols) > 3 else ""
+            lines = cols[4] if len(cols) > 4 else ""
+            if status == "SUCCESS":
+                success += 1
+                logging.info(f"[RLPatcher] ✔ {name}" + (f" (dropped CF line(s) {dropped})" if dropped else ""))
+            else:
+                failure += 1
+                logging.info(f"[RLPatcher] ✖ {name} ({status.lower()}, CF line(s) {lines})")
+    else:
+        failure = len(by_file)
+        logging.warning(f"[RLPatcher] No batch summary written (exit code {result.returncode}).")
+
+    # Remove temp prompts
+    if keep_temp_json:
+        logging.info(f"[RLPatcher] keeping temp prompts: {prompts_path}")
+    else:
+        try:
+            prompts_path.unlink(missing_ok=True)
+        except Exception:
+            pass
 
-    for idx, (fix, warn) in enumerate(matched, start=1):
-        # Build JSON prompt
-        prompt_json = build_prompt_json(
-            cf_warning_block=warn["message"],
-            rlfixer_hint_block=fix["suggestion"]
-        )
-
-        # Temp JSON path
-        safe_rel = fix["relpath"].replace("/", "_").replace("\\", "_")
-        temp_json_path = tmp_dir / f"prompt-{project_name}-{safe_rel}-L{fix['line_number']}-{idx:04d}.json"
-        temp_json_path.write_text(prompt_json)
-
-        # Run jar
-        cmd = ["java", "-jar", str(jar_path), "--prompt", str(temp_json_path)]
-        logging.info(f"[RLPatcher] ▶ {' '.join(cmd)}")
-        result = subprocess.run(cmd, capture_output=True, text=True)
-
-        if result.stdout:
-            logging.info(f"[RLPatcher] stdout:\n{result.stdout.strip()}")
-        if result.stderr:
-            logging.info(f"[RLPatcher] stderr:\n{result.stderr.strip()}")
-
-        ok = bool(result.stdout and success_text in result.stdout)
-
-        # Move produced patch if present
-        produced = Path("rlfixer.patch")
-        if produced.exists():
-            target = out_path / f"patch-{project_name}-{safe_rel}-L{fix['line_number']}.patch"
-            target.write_bytes(produced.read_bytes())
-            produced.unlink()
-            logging.info(f"[RLPatcher] ↪ moved patch → {target}")
-
-        # Remove temp json
-        if keep_temp_json:
-            logging.info(f"[RLPatcher] keeping temp JSON: {temp_json_path}")
-        else:
-            try:
-                temp_json_path.unlink(missing_ok=True)
-            except Exception:
-                pass
-
-        if ok:
-            success += 1
-            logging.info(f"[RLPatcher] [{idx:04d}] ✔ success")
-        else:
-            failure += 1
-            logging.info(f"[RLPatcher] [{idx:04d}] ✖ failed")
-
-    logging.info(f"[RLPatcher] Done — matched: {len(matched)}, success: {success}, failed: {failure}")
+    logging.info(f"[RLPatcher] Done — matched: {len(matched)} in {len(by_file)} file(s), "
+                 f"success: {success}, failed: {failure}")
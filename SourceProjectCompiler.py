@@ -11,41 +11,97 @@ logging.basicConfig(
     datefmt="%Y-%m-%d %H:%M:%S"
 )
 
+# Written into the compiled classes folder after every successful compile,
+# so the next run can tell whether the classes are older than the sources.
+# It lists the compiled sources, so that deleting or renaming one also
+# triggers a recompile.
+COMPILE_STAMP = ".compile-stamp"
+
+
 class SourceProjectCompiler:
     @staticmethod
     def compile_benchmark_if_patched(source_project_path):
-        """Recompile the benchmark jar if patches are detected."""
-        if True or any(file.endswith(".patch") for file in os.listdir(f"{source_project_path}/src")):
-            logging.info("Recompiling benchmark jar...")
-            SourceProjectCompiler.compile_benchmark_and_generate_jar(source_project_path)
+        """Recompile the benchmark classes if any source or lib jar changed since the last compile.
+        Returns False if the compile failed."""
+        if SourceProjectCompiler.classes_up_to_date(source_project_path):
+            logging.info("Compiled classes are up to date, reusing them.")
+            return True
+        logging.info("Recompiling benchmark classes...")
+        # The old fat jar no longer matches the sources; don't let anyone fall back to it.
+        jarfile_path = SourceProjectCompiler.jarfile_path(source_project_path)
+        if os.path.exists(jarfile_path):
+            logging.info(f"Removing stale jar {jarfile_path}")
+            os.remove(jarfile_path)
+        return SourceProjectCompiler.compile_benchmark(source_project_path) is not None
 
     @staticmethod
-    def compile_benchmark_and_generate_jar(source_project_path):
-        compiled_classes_path = os.path.join(source_project_path, COMPILED_CLASSES_FOLDER)
-        if not os.path.exists(compiled_classes_path):
-            os.mkdir(compiled_classes_path)
+    def source_files(source_project_path):
+        return sorted(glob.glob(os.path.join(source_project_path, "src", "**", "*.java"), recursive=True))
 
-        find_srcs_command = f'find {source_project_path}/src -name "*.java" > {SRC_FILES}'
-        os.system(find_srcs_command)
+    @staticmethod
+    def classes_up_to_date(source_project_path):
+        stamp = os.path.join(source_project_path, COMPILED_CLASSES_FOLDER, COMPILE_STAMP)
+        if not os.path.exists(stamp):
+            return False
+        with open(stamp) as f:
+            compiled_sources = f.read().splitlines()
+        sources = SourceProjectCompiler.source_files(source_project_path)
+        if compiled_sources != sources:
+            return False
+        stamp_time = os.path.getmtime(stamp)
+        inputs = sources + glob.glob(os.path.join(source_project_path, "lib", "*.jar"))
+        return all(os.path.getmtime(f) <= stamp_time for f in inputs)
 
+    @staticmethod
+    def lib_classpath_entries(source_project_path):
         lib_folder = os.path.join(source_project_path, "lib")
         jars = []
         if os.path.exists(lib_folder):
             jars = glob.glob(os.path.join(lib_folder, "*.jar"))
-        classpath_entries = [lib_folder] + jars
-        classpath = ":".join(classpath_entries)
-        
+        return [lib_folder] + jars
+
+    @staticmethod
+    def jarfile_path(source_project_path):
         jarfile = os.path.basename(source_project_path) + ".jar"
-        jarfile_path = os.path.join(source_project_path, "jarfile", jarfile)
+        return os.path.join(source_project_path, "jarfile", jarfile)
+
+    @staticmethod
+    def compile_benchmark(source_project_path):
+        """Compile the benchmark into its compiled classes folder. Returns that folder, or None if javac failed."""
+        compiled_classes_path = os.path.join(source_project_path, COMPILED_CLASSES_FOLDER)
+        # Start from an empty folder, so no classes of deleted or renamed sources are left behind.
+        if os.path.exists(compiled_classes_path):
+            shutil.rmtree(compiled_classes_path)
+        os.mkdir(compiled_classes_path)
+
+        sources = SourceProjectCompiler.source_files(source_project_path)
+        with open(SRC_FILES, "w") as f:
+            f.write("".join(src + "\n" for src in sources))
+
+        classpath = ":".join(SourceProjectCompiler.lib_classpath_entries(source_project_path))
 
         javac_command = (
             f"{JAVAC_WITH_FLAGS} -g -d {compiled_classes_path} "
             f"-cp {classpath} "
             f"@{SRC_FILES}"
         )
-        
-        
-        os.system(javac_command)
+
+        if os.system(javac_command) != 0:
+            logging.error(f"Benchmark {os.path.basename(source_project_path)} failed to compile.")
+            return None
+        with open(os.path.join(compiled_classes_path, COMPILE_STAMP), "w") as f:
+            f.write("".join(src + "\n" for src in sources))
+        logging.info(f"Benchmark {os.path.basename(source_project_path)} compiled successfully.")
+        return compiled_classes_path
+
+    @staticmethod
+    def compile_benchmark_and_generate_jar(source_project_path):
+        compiled_classes_path = SourceProjectCompiler.compile_benchmark(source_project_path)
+        if compiled_classes_path is None:
+            return
+        lib_folder = os.path.join(source_project_path, "lib")
+
+        jarfile_path = SourceProjectCompiler.jarfile_path(source_project_path)
 
         temp_dir = os.path.join(source_project_path, "temp")
         os.makedirs(temp_dir, exist_ok=True)
@@ -58,7 +114,7 @@ class SourceProjectCompiler:
 
         shutil.rmtree(temp_dir)
 
-        logging.info(f"Benchmark {os.path.basename(source_project_path)} compiled successfully.")
+        logging.info(f"Benchmark {os.path.basename(source_project_path)} jar generated.")
 
 if __name__ == "__main__":
     import sys
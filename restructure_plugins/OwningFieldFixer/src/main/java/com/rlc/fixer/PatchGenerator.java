@@ -112,23 +112,17 @@ public class PatchGenerator {
     }
 
     /**
-     * Generates a unified diff between the original and modified files.
+     * Generates a unified diff between the original and modified files, in
+     * memory (see {@link UnifiedDiff}). Both sides are labelled with the
+     * original path, since the modified file is only a temporary copy.
      *
      * @param original the path to the original file
      * @param modified the path to the modified file
      * @return a list of diff lines
-     * @throws IOException if an I/O error occurs during diff generation
+     * @throws IOException if an I/O error occurs while reading the files
      */
     public static List<String> generateUnifiedDiff(String original, String modified) throws IOException {
-        ProcessBuilder pb = new ProcessBuilder("diff", "-u", original, modified);
-        Process process = pb.start();
-        List<String> diffLines = new ArrayList<>();
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                diffLines.add(line);
-            }
-        }
-        return diffLines;
+        return UnifiedDiff.diff(original, original,
+                Files.readString(Paths.get(original)), Files.readString(Paths.get(modified)));
     }
 }
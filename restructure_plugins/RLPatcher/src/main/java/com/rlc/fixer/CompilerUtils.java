@@ -3,18 +3,485 @@ package com.rlc.fixer;
 import java.io.*;
 import java.nio.file.*;
 import java.util.*;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import com.github.javaparser.ParseProblemException;
+import com.github.javaparser.StaticJavaParser;
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.body.BodyDeclaration;
+import com.github.javaparser.ast.body.CallableDeclaration;
+import com.github.javaparser.ast.body.EnumDeclaration;
+import com.github.javaparser.ast.body.FieldDeclaration;
+import com.github.javaparser.ast.body.InitializerDeclaration;
+import com.github.javaparser.ast.body.TypeDeclaration;
+import com.github.javaparser.ast.nodeTypes.modifiers.NodeWithPrivateModifier;
 
 public class CompilerUtils {
+
+    /**
+     * Output of an in-process compilation: the diagnostics in javac's
+     * "file:line: error: message" format, plus the number of errors the
+     * compiler reported. A List of the lines, like the javac process output
+     * that the transformers were written for.
+     */
+    public static class CompileOutput extends ArrayList<String> {
+        private static final long serialVersionUID = 1L;
+
+        public final int errorCount;
+
+        CompileOutput(int errorCount) {
+            this.errorCount = errorCount;
+        }
+    }
+
+    /**
+     * When set, compileChanged recompiles only the changed file (and the files
+     * that use it, if its API changed) against the baseline's classes instead
+     * of the whole project. Only for a baseline without errors; see
+     * compileChanged.
+     */
+    public static boolean incremental = false;
+
+    private static final String BASELINE_HEADER = "# rlpatcher baseline v2";
+    // Written to compiled_classes by baseline(); holds the hash of the tree the classes are from
+    private static final String BASELINE_MARKER = ".rlpatcher-baseline";
+
+    /**
+     * Where baseline() caches the compiler output of unpatched projects, in one
+     * directory per project: the rlpatcher.cacheDir system property, or
+     * ~/.cache/rlpatcher. Outside the projects, so that the benchmark trees
+     * are left as they are.
+     */
+    static Path cacheDir = Paths.get(System.getProperty("rlpatcher.cacheDir",
+            Paths.get(System.getProperty("user.home"), ".cache", "rlpatcher").toString()));
+
+    // In-process compiler, null when running on a JRE without javac
+    private static final JavaCompiler COMPILER = ToolProvider.getSystemJavaCompiler();
+    // One per thread, so that compilations can run in parallel; reused across
+    // the compilations of a thread so that the lib jars are only opened once
+    private static final ThreadLocal<StandardJavaFileManager> FILE_MANAGER = ThreadLocal
+            .withInitial(() -> COMPILER.getStandardFileManager(null, null, null));
+
+    /**
+     * The compiler output of the unpatched project. It is cached in
+     * {@link #cacheDir}, keyed by a hash of the source tree, the lib classpath
+     * and the compiler, so that later runs on the same tree skip the baseline
+     * compile. In incremental mode the cache is only used if compiled_classes
+     * still holds the classes of that tree.
+     */
+    public static List<String> baseline(String projectRoot) throws IOException, InterruptedException {
+        String hash = treeHash(projectRoot);
+        Path entry = projectCacheDir(projectRoot).resolve("baseline-" + hash + ".txt");
+        Path marker = Paths.get(projectRoot, "compiled_classes", BASELINE_MARKER);
+        boolean classesValid = !incremental || (Files.exists(marker) && Files.readString(marker).equals(hash));
+        if (classesValid && Files.exists(entry)) {
+            List<String> cached = readBaseline(entry);
+            if (cached != null) {
+                System.out.println("Using cached baseline compile: " + entry);
+                return cached;
+            }
+        }
+
+        List<String> output = compile(projectRoot);
+        Files.writeString(marker, hash);
+        writeBaseline(entry, output);
+        return output;
+    }
+
+    /** The cache directory of one project: its name and a hash of its path. */
+    private static Path projectCacheDir(String projectRoot) {
+        Path root = Paths.get(projectRoot).toAbsolutePath().normalize();
+        MessageDigest md = sha256();
+        md.update(root.toString().getBytes(StandardCharsets.UTF_8));
+        String name = root.getFileName() == null ? "root" : root.getFileName().toString();
+        return cacheDir.resolve(name + "-" + hex(md.digest()).substring(0, 16));
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * SHA-256 of the project root, the compiler, the paths and contents of the
+     * sources and the paths, sizes and modification times of the lib entries.
+     */
+    private static String treeHash(String projectRoot) throws IOException {
+        MessageDigest md = sha256();
+        Path root = Paths.get(projectRoot).toAbsolutePath().normalize();
+        md.update((root + "\n" + System.getProperty("java.version") + "\n" + (COMPILER != null) + "\n")
+                .getBytes(StandardCharsets.UTF_8));
+        for (Path p : sortedFiles(root.resolve("src"))) {
+            if (!p.toString().endsWith(".java"))
+                continue;
+            byte[] content = Files.readAllBytes(p);
+            md.update((root.relativize(p) + "\n" + content.length + "\n").getBytes(StandardCharsets.UTF_8));
+            md.update(content);
+        }
+        for (Path p : sortedFiles(root.resolve("lib"))) {
+            md.update((root.relativize(p) + "\n" + Files.size(p) + "\n" + Files.getLastModifiedTime(p).toMillis() + "\n")
+                    .getBytes(StandardCharsets.UTF_8));
+        }
+        return hex(md.digest());
+    }
+
+    private static List<Path> sortedFiles(Path dir) throws IOException {
+        if (!Files.isDirectory(dir))
+            return Collections.emptyList();
+        try (Stream<Path> s = Files.walk(dir)) {
+            return s.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+    }
+
+    /*
+     * Cache entry format: the header, "errors <n>" (-1 for javac process
+     * output), and the compiler output lines.
+     */
+    private static void writeBaseline(Path entry, List<String> output) throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add(BASELINE_HEADER);
+        if (output instanceof CompileOutput) {
+            CompileOutput o = (CompileOutput) output;
+            lines.add("errors " + ((CompileOutput) output).errorCount);
+        } else {
+            lines.add("errors -1");
+        }
+        lines.addAll(output);
+
+        // Entries of older trees are of no use any more. Not the .tmp files,
+        // which a concurrent run may be about to rename, nor this tree's entry,
+        // which the rename replaces.
+        Files.createDirectories(entry.getParent());
+        try (Stream<Path> s = Files.list(entry.getParent())) {
+            for (Path old : s.filter(p -> isBaselineEntry(p) && !p.equals(entry)).collect(Collectors.toList())) {
+                Files.deleteIfExists(old);
+            }
+        }
+        // Write and rename, so that a concurrent run never reads half an entry
+        Path tmp = Files.createTempFile(entry.getParent(), "baseline-", ".tmp");
+        Files.write(tmp, lines);
+        Files.move(tmp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static boolean isBaselineEntry(Path p) {
+        String name = p.getFileName().toString();
+        return name.startsWith("baseline-") && name.endsWith(".txt");
+    }
+
+    /** Returns null if the entry is not in the expected format. */
+    private static List<String> readBaseline(Path entry) throws IOException {
+        List<String> lines = Files.readAllLines(entry);
+        if (lines.size() < 2 || !lines.get(0).equals(BASELINE_HEADER) || !lines.get(1).startsWith("errors "))
+            return null;
+        int errorCount = Integer.parseInt(lines.get(1).substring("errors ".length()));
+        List<String> output = lines.subList(2, lines.size());
+        if (errorCount < 0) {
+            return new ArrayList<>(output);
+        }
+        CompileOutput cached = new CompileOutput(errorCount);
+        cached.addAll(output);
+        return cached;
+    }
+
     public static List<String> compile(String projectRoot) throws IOException, InterruptedException {
-        String srcListPath = projectRoot + "/src-files.txt";
         String libPath = projectRoot + "/lib";
         String compiledOut = projectRoot + "/compiled_classes";
         Files.createDirectories(Paths.get(compiledOut));
+        // From now on the classes are not (only) the baseline's
+        Files.deleteIfExists(Paths.get(compiledOut, BASELINE_MARKER));
+
+        List<File> sources = projectSources(projectRoot);
+        if (COMPILER == null) {
+            return compileWithJavac(projectRoot, sources, libPath, compiledOut);
+        }
+        return compileInProcess(sources, libPath, compiledOut, null, null);
+    }
+
+    /** All Java source files of the project. */
+    private static List<File> projectSources(String projectRoot) throws IOException {
+        try (Stream<Path> s = Files.walk(Paths.get(projectRoot, "src"))) {
+            return s.filter(p -> p.toString().endsWith(".java") && Files.isRegularFile(p))
+                    .map(Path::toFile)
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Compiles the project with {@code changedFile}, whose content is
+     * {@code original}, replaced by {@code patched}. Neither the file nor the
+     * project's compiled_classes are written: the compiler reads the patched
+     * source from memory and its class files are discarded, so that patches of
+     * different files can be validated concurrently. Without the in-process
+     * compiler the patched source is written to the file for the javac run and
+     * then restored, one compilation at a time.
+     *
+     * Without {@link #incremental} this is a full compile. In incremental mode
+     * the project's compiled_classes, written by the baseline compile, are used
+     * as the classpath and only the changed file is recompiled. If the
+     * non-private declarations of the file changed, the files that mention its
+     * types are recompiled with it. This needs a baseline without errors:
+     * javac writes no classes when there are errors, so compiled_classes
+     * could be incomplete. A baseline with errors falls back to a full
+     * compile, so any error of an incremental compile is one the patch
+     * introduced.
+     */
+    public static List<String> compileChanged(String projectRoot, List<String> baselineOutput, Path changedFile,
+            List<String> original, String patched) throws IOException, InterruptedException {
+        Path changed = changedFile.toAbsolutePath().normalize();
+        if (COMPILER == null) {
+            synchronized (CompilerUtils.class) {
+                Files.write(changed, patched.getBytes());
+                try {
+                    return compile(projectRoot);
+                } finally {
+                    Files.write(changed, original);
+                }
+            }
+        }
+
+        if (!incremental || !(baselineOutput instanceof CompileOutput)
+                || ((CompileOutput) baselineOutput).errorCount != 0) {
+            return compileInProcess(projectSources(projectRoot), projectRoot + "/lib", null, changed, patched);
+        }
+
+        List<File> sources = new ArrayList<>();
+        sources.add(changed.toFile());
+        String before = apiSignature(String.join("\n", original));
+        String after = apiSignature(patched);
+        if (before == null || !before.equals(after)) {
+            sources.addAll(dependents(projectRoot, changed, typeNames(String.join("\n", original), changed)));
+        }
+
+        return compileInProcess(sources,
+                projectRoot + "/compiled_classes" + File.pathSeparator + projectRoot + "/lib", null, changed, patched);
+    }
 
-        // Collect all Java source files
-        new ProcessBuilder("bash", "-c", "find " + projectRoot + "/src -name \"*.java\" > " + srcListPath)
-                .inheritIO().start().waitFor();
+    /** Whether compileChanged can run on several threads at once. */
+    public static boolean compilesConcurrently() {
+        return COMPILER != null;
+    }
+
+    /**
+     * The non-private declarations of a compilation unit: types, method and
+     * constructor signatures, fields (with the initializers of final fields,
+     * which may be inlined into other classes) and enum constants. Null if it
+     * doesn't parse.
+     */
+    private static String apiSignature(String code) {
+        CompilationUnit cu;
+        try {
+            cu = StaticJavaParser.parse(code);
+        } catch (ParseProblemException e) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder();
+        cu.getPackageDeclaration().ifPresent(pd -> sb.append(pd.getNameAsString()).append('\n'));
+        for (TypeDeclaration<?> t : cu.findAll(TypeDeclaration.class)) {
+            if (t.isPrivate())
+                continue;
+            sb.append(t.getModifiers()).append(' ').append(t.getFullyQualifiedName().orElse(t.getNameAsString()));
+            t.toClassOrInterfaceDeclaration().ifPresent(c -> sb.append(c.getTypeParameters())
+                    .append(c.getExtendedTypes()).append(c.getImplementedTypes()));
+            if (t instanceof EnumDeclaration) {
+                ((EnumDeclaration) t).getEntries().forEach(e -> sb.append(' ').append(e.getNameAsString()));
+            }
+            sb.append('\n');
+            for (BodyDeclaration<?> m : t.getMembers()) {
+                if (m instanceof TypeDeclaration || m instanceof InitializerDeclaration)
+                    continue;
+                if (m instanceof NodeWithPrivateModifier && ((NodeWithPrivateModifier<?>) m).isPrivate())
+                    continue;
+                if (m instanceof CallableDeclaration) {
+                    sb.append(((CallableDeclaration<?>) m).getDeclarationAsString(true, true, false));
+                } else if (m instanceof FieldDeclaration) {
+                    FieldDeclaration f = (FieldDeclaration) m;
+                    sb.append(f.getModifiers());
+                    f.getVariables().forEach(v -> sb.append(' ').append(v.getType())
+                            .append(' ').append(f.isFinal() ? v.toString() : v.getNameAsString()));
+                } else {
+                    sb.append(m);
+                }
+                sb.append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    /** The top-level type names of a compilation unit, or its file name if it doesn't parse. */
+    private static Set<String> typeNames(String code, Path file) {
+        Set<String> names = new HashSet<>();
+        try {
+            StaticJavaParser.parse(code).getTypes().forEach(t -> names.add(t.getNameAsString()));
+        } catch (ParseProblemException e) {
+            // fall through
+        }
+        if (names.isEmpty()) {
+            String fileName = file.getFileName().toString();
+            names.add(fileName.substring(0, fileName.length() - ".java".length()));
+        }
+        return names;
+    }
+
+    /** The other source files of the project that mention one of the given type names. */
+    private static List<File> dependents(String projectRoot, Path changed, Set<String> typeNames) throws IOException {
+        Pattern mention = Pattern.compile("\\b(" + typeNames.stream().map(Pattern::quote)
+                .collect(Collectors.joining("|")) + ")\\b");
+        List<File> dependents = new ArrayList<>();
+        try (Stream<Path> s = Files.walk(Paths.get(projectRoot, "src"))) {
+            for (Path p : s.filter(p -> p.toString().endsWith(".java") && Files.isRegularFile(p))
+                    .collect(Collectors.toList())) {
+                if (p.toAbsolutePath().normalize().equals(changed))
+                    continue;
+                // Identifiers are ASCII here, so any byte-preserving charset will do
+                String text = new String(Files.readAllBytes(p), StandardCharsets.ISO_8859_1);
+                if (mention.matcher(text).find())
+                    dependents.add(p.toFile());
+            }
+        }
+        return dependents;
+    }
+
+    private static String key(File source) {
+        return source.toPath().toAbsolutePath().normalize().toString();
+    }
+
+    /**
+     * Compiles {@code sources} with the in-process compiler. If {@code changed}
+     * is set, its content is taken to be {@code overlay} instead of what is on
+     * disk. With {@code outDir} null the class files are discarded.
+     */
+    private static CompileOutput compileInProcess(List<File> sources, String classpath, String outDir,
+            Path changed, String overlay) {
+        StandardJavaFileManager standard = FILE_MANAGER.get();
+        List<JavaFileObject> units = new ArrayList<>();
+        for (File f : sources) {
+            if (changed != null && key(f).equals(changed.toString())) {
+                units.add(new SourceOverlay(changed, overlay));
+            } else {
+                standard.getJavaFileObjects(f).forEach(units::add);
+            }
+        }
+        JavaFileManager fileManager = outDir == null ? new DiscardingFileManager(standard) : standard;
+
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        List<String> options = outDir == null
+                ? Arrays.asList("-g", "-cp", classpath)
+                : Arrays.asList("-g", "-d", outDir, "-cp", classpath);
+        StringWriter out = new StringWriter();
+        if (!units.isEmpty()) {
+            COMPILER.getTask(out, fileManager, diagnostics, options, null, units).call();
+        }
+
+        CompileOutput output = new CompileOutput(diagnostics.getDiagnostics().stream()
+                .mapToInt(d -> d.getKind() == Diagnostic.Kind.ERROR ? 1 : 0).sum());
+        for (Diagnostic<? extends JavaFileObject> d : diagnostics.getDiagnostics()) {
+            output.addAll(Arrays.asList(format(d).split("\n")));
+        }
+        for (String line : out.toString().split("\n")) {
+            if (!line.isEmpty())
+                output.add(line);
+        }
+        return output;
+    }
+
+    /** A source file whose content is given in memory; diagnostics still name the file. */
+    private static final class SourceOverlay extends SimpleJavaFileObject {
+        private final String content;
+
+        SourceOverlay(Path file, String content) {
+            super(file.toUri(), Kind.SOURCE);
+            this.content = content;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return content;
+        }
+    }
+
+    /** Hands the compiler outputs that go nowhere. */
+    private static final class DiscardingFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+        DiscardingFileManager(StandardJavaFileManager fileManager) {
+            super(fileManager);
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind,
+                FileObject sibling) {
+            return new Discarded(className.replace('.', '/') + kind.extension, kind);
+        }
+
+        @Override
+        public FileObject getFileForOutput(Location location, String packageName, String relativeName,
+                FileObject sibling) {
+            return new Discarded(packageName.replace('.', '/') + "/" + relativeName, JavaFileObject.Kind.OTHER);
+        }
+    }
+
+    private static final class Discarded extends SimpleJavaFileObject {
+        Discarded(String path, Kind kind) {
+            super(Paths.get("/discarded", path).toUri(), kind);
+        }
+
+        @Override
+        public OutputStream openOutputStream() {
+            return OutputStream.nullOutputStream();
+        }
+    }
+
+    private static String format(Diagnostic<? extends JavaFileObject> d) {
+        String kind;
+        switch (d.getKind()) {
+            case ERROR:
+                kind = "error";
+                break;
+            case WARNING:
+            case MANDATORY_WARNING:
+                kind = "warning";
+                break;
+            default:
+                kind = "note";
+        }
+        String message = d.getMessage(null);
+        if (d.getSource() == null) {
+            return kind + ": " + message;
+        }
+        return d.getSource().getName() + ":" + d.getLineNumber() + ": " + kind + ": " + message;
+    }
+
+    /** Fallback when there is no in-process compiler: run javac and keep its output. */
+    private static List<String> compileWithJavac(String projectRoot, List<File> sources, String libPath,
+            String compiledOut) throws IOException, InterruptedException {
+        String srcListPath = projectRoot + "/src-files.txt";
+        Files.write(Paths.get(srcListPath),
+                sources.stream().map(File::getPath).collect(Collectors.toList()));
 
         // Compile using javac
         ProcessBuilder pb = new ProcessBuilder("javac", "-g", "-d", compiledOut, "-cp", libPath, "@" + srcListPath);
@@ -34,6 +501,14 @@ public class CompilerUtils {
     }
 
     public static boolean outputsDiffer(List<String> baseline, List<String> patched) {
+        // Both compiled in-process: compare the compiler's own error counts. An
+        // incremental compile only runs on a baseline with 0 errors, so the
+        // counts compare the same way.
+        if (baseline instanceof CompileOutput && patched instanceof CompileOutput) {
+            return ((CompileOutput) baseline).errorCount != ((CompileOutput) patched).errorCount;
+        }
+
+        // Fallback for javac process output
         // return !baseline.equals(patched);
         Pattern errorLine = Pattern.compile("^[^:]+:\\d+: error: .*");
         int baselineErrors = 0, patchedErrors = 0;
@@ -0,0 +1,197 @@
+package com.rlc.fixer;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.Node;
+import com.github.javaparser.ast.body.CallableDeclaration;
+import com.github.javaparser.ast.body.VariableDeclarator;
+import com.github.javaparser.ast.expr.AssignExpr;
+import com.github.javaparser.ast.expr.NameExpr;
+import com.github.javaparser.ast.stmt.BlockStmt;
+import com.github.javaparser.ast.stmt.Statement;
+import com.github.javaparser.ast.stmt.TryStmt;
+
+/**
+ * Indexes a parsed file in one traversal, so that the transformers can
+ * resolve the targets of all leaks of a batch (owner method, try statement,
+ * container block, leaked variable) without searching the whole tree again
+ * for each leak.
+ * <p>
+ * The index is built from the parse, before any edit, and line lookups use
+ * the line ranges of the parse. JavaParser keeps those ranges on nodes that
+ * are moved and gives new nodes none, so the lookups stay valid while a
+ * batch is being edited. Targets are resolved to node references up front
+ * and the edits go through those references.
+ */
+public class EditPlanner {
+
+    /** What a callable contains, in the pre-order of {@code findAll}. */
+    private static final class Members {
+        final List<TryStmt> tries = new ArrayList<>();
+        final List<BlockStmt> blocks = new ArrayList<>();
+        final Map<String, VariableDeclarator> firstDeclarator = new HashMap<>();
+        final Map<String, Integer> lastUseLine = new HashMap<>();
+    }
+
+    private final CompilationUnit cu;
+    private final List<CallableDeclaration<?>> callables = new ArrayList<>();
+    private final Map<CallableDeclaration<?>, Members> members = new IdentityHashMap<>();
+    private final Map<String, List<VariableDeclarator>> declaratorsByName = new HashMap<>();
+    private final Map<Integer, List<VariableDeclarator>> declaratorsByLine = new HashMap<>();
+    private final Map<String, List<AssignExpr>> assignsByTarget = new HashMap<>();
+    private final Map<Integer, List<AssignExpr>> assignsByLine = new HashMap<>();
+
+    public EditPlanner(CompilationUnit cu) {
+        this.cu = cu;
+        index(cu, new ArrayList<>());
+    }
+
+    public CompilationUnit getCompilationUnit() {
+        return cu;
+    }
+
+    // A node belongs to every callable it is nested in, as with owner.findAll(...)
+    private void index(Node n, List<Members> owners) {
+        boolean isCallable = n instanceof CallableDeclaration;
+        if (isCallable) {
+            Members m = new Members();
+            callables.add((CallableDeclaration<?>) n);
+            members.put((CallableDeclaration<?>) n, m);
+            owners.add(m);
+        }
+
+        if (n instanceof TryStmt) {
+            for (Members m : owners)
+                m.tries.add((TryStmt) n);
+        } else if (n instanceof BlockStmt) {
+            for (Members m : owners)
+                m.blocks.add((BlockStmt) n);
+        } else if (n instanceof VariableDeclarator) {
+            VariableDeclarator v = (VariableDeclarator) n;
+            String name = v.getNameAsString();
+            for (Members m : owners)
+                m.firstDeclarator.putIfAbsent(name, v);
+            declaratorsByName.computeIfAbsent(name, k -> new ArrayList<>()).add(v);
+            v.getBegin().ifPresent(p -> declaratorsByLine.computeIfAbsent(p.line, k -> new ArrayList<>()).add(v));
+        } else if (n instanceof AssignExpr) {
+            AssignExpr a = (AssignExpr) n;
+            if (a.getTarget().isNameExpr()) {
+                assignsByTarget.computeIfAbsent(a.getTarget().asNameExpr().getNameAsString(),
+                        k -> new ArrayList<>()).add(a);
+            }
+            a.getBegin().ifPresent(p -> assignsByLine.computeIfAbsent(p.line, k -> new ArrayList<>()).add(a));
+        } else if (n instanceof NameExpr) {
+            int line = endLine(n) == Integer.MIN_VALUE ? -1 : endLine(n);
+            for (Members m : owners)
+                m.lastUseLine.merge(((NameExpr) n).getNameAsString(), line, Math::max);
+        }
+
+        for (Node child : n.getChildNodes())
+            index(child, owners);
+
+        if (isCallable)
+            owners.remove(owners.size() - 1);
+    }
+
+    // ---------- lookups ----------
+
+    /** The first callable, in source order, whose lines span {@code line}. */
+    public Optional<CallableDeclaration<?>> ownerAt(int line) {
+        for (CallableDeclaration<?> c : callables) {
+            if (beginLine(c) <= line && line <= endLine(c))
+                return Optional.of(c);
+        }
+        return Optional.empty();
+    }
+
+    public List<TryStmt> tries(CallableDeclaration<?> owner) {
+        return members(owner).tries;
+    }
+
+    /** The smallest block of {@code owner} whose lines span [startLine, endLine]. */
+    public Optional<BlockStmt> smallestBlock(CallableDeclaration<?> owner, int startLine, int endLine) {
+        return members(owner).blocks.stream()
+                .filter(b -> beginLine(b) <= startLine && endLine <= endLine(b))
+                .min(Comparator.comparingInt(b -> endLine(b) - beginLine(b)));
+    }
+
+    /** The first declarator of {@code name} in {@code owner}. */
+    public Optional<VariableDeclarator> declarator(CallableDeclaration<?> owner, String name) {
+        return Optional.ofNullable(members(owner).firstDeclarator.get(name));
+    }
+
+    /** The last line on which {@code name} is used in {@code owner}, or -1. */
+    public int lastUseLine(CallableDeclaration<?> owner, String name) {
+        return members(owner).lastUseLine.getOrDefault(name, -1);
+    }
+
+    /**
+     * The name of the variable that holds the leaked resource of a leak at
+     * {@code line}. See {@link OnlyFinallyTransformer#extractLeakedVariableName}.
+     */
+    public Optional<String> leakedVariableName(int line, String allocationExprText) {
+        // Case 1: CF reported a variable name (identifier), e.g., "stream"
+        if (allocationExprText != null && allocationExprText.matches("[A-Za-z_$][A-Za-z0-9_$]*")) {
+            String ident = allocationExprText;
+
+            // Variable declaration with that name, whose enclosing statement spans the leak line
+            for (VariableDeclarator v : declaratorsByName.getOrDefault(ident, List.of())) {
+                if (stmtSpans(v, line))
+                    return Optional.of(ident);
+            }
+            // Assignment to that variable on the leak line/span
+            for (AssignExpr a : assignsByTarget.getOrDefault(ident, List.of())) {
+                if (stmtSpans(a, line))
+                    return Optional.of(ident);
+            }
+        }
+        // Case 2: match initializer/value text (e.g., "new Foo(...)" or "conn.getX()")
+        for (VariableDeclarator v : declaratorsByLine.getOrDefault(line, List.of())) {
+            if (v.getInitializer().isPresent() && v.getInitializer().get().toString().replace(" ", "")
+                    .equals(allocationExprText.replace(" ", "")))
+                return Optional.of(v.getNameAsString());
+        }
+        for (AssignExpr a : assignsByLine.getOrDefault(line, List.of())) {
+            if (a.getValue().toString().replace(" ", "").equals(allocationExprText.replace(" ", ""))
+                    && a.getTarget().isNameExpr())
+                return Optional.of(a.getTarget().asNameExpr().getNameAsString());
+        }
+        return Optional.empty();
+    }
+
+    // ---------- helpers ----------
+
+    private Members members(CallableDeclaration<?> owner) {
+        Members m = members.get(owner);
+        if (m == null)
+            throw new IllegalArgumentException("Not a callable of the planned file: " + owner.getNameAsString());
+        return m;
+    }
+
+    private static boolean stmtSpans(Node n, int line) {
+        // The enclosing statement; findAncestor(Statement.class) is a generic varargs call
+        Node st = n.getParentNode().orElse(null);
+        while (st != null && !(st instanceof Statement)) {
+            st = st.getParentNode().orElse(null);
+        }
+        if (st != null && st.getBegin().isPresent() && st.getEnd().isPresent()) {
+            return st.getBegin().get().line <= line && line <= st.getEnd().get().line;
+        }
+        return n.getBegin().isPresent() && n.getBegin().get().line == line;
+    }
+
+    static int beginLine(Node n) {
+        return n.getRange().map(r -> r.begin.line).orElse(Integer.MAX_VALUE);
+    }
+
+    static int endLine(Node n) {
+        return n.getRange().map(r -> r.end.line).orElse(Integer.MIN_VALUE);
+    }
+}
@@ -0,0 +1,143 @@
+package com.rlc.fixer;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.github.javaparser.StaticJavaParser;
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.printer.lexicalpreservation.LexicalPreservingPrinter;
+
+/**
+ * Applies a batch of leaks of one file and, if their patches don't compile
+ * together, bisects the batch delta-debugging style instead of discarding it.
+ * <p>
+ * The failing batch is split in halves. Each half is tried together with the
+ * leaks already accepted, and a half that fails is split again, down to
+ * single leaks. A single leak that fails is a culprit and is dropped. With k
+ * culprits among n leaks this takes O(k log n) trials, and each trial compiles
+ * at most twice (try-with-resources, then classic try/finally). The leaks that
+ * compile together get one patch; the culprits are marked
+ * {@link PromptInfo#dropped} and reported.
+ */
+public class LeakBisector {
+
+    /** Applies the edits of some leaks to a parsed file, like the transformers' edit methods. */
+    interface Editor {
+        void edit(CompilationUnit cu, List<PromptInfo> infos, boolean tryWithResources);
+    }
+
+    private final Path src;
+    private final List<String> original;
+    private final Editor editor;
+    private final String projectRoot;
+    private final List<String> baselineOutput;
+    private final PreCheck preCheck;
+
+    // Leaks known to compile together, and the patched source for them
+    private List<PromptInfo> accepted = new ArrayList<>();
+    private String acceptedSource;
+    private final List<PromptInfo> dropped = new ArrayList<>();
+    private int trials;
+
+    private LeakBisector(Path src, List<String> original, Editor editor,
+            String projectRoot, List<String> baselineOutput) {
+        this.src = src;
+        this.original = original;
+        this.editor = editor;
+        this.projectRoot = projectRoot;
+        this.baselineOutput = baselineOutput;
+        this.preCheck = new PreCheck(String.join("\n", original));
+    }
+
+    /**
+     * Patches {@code infos}, all of the file {@code src}, whose content is
+     * {@code original}. Appends one patch for the leaks that compile together
+     * to {@link PatchUtils#patchFile()}; the file itself is left as it is.
+     * Returns true if any leak was patched.
+     */
+    static boolean apply(Path src, List<String> original, List<PromptInfo> infos, Editor editor,
+            String projectRoot, List<String> baselineOutput) throws IOException, InterruptedException {
+        LeakBisector b = new LeakBisector(src, original, editor, projectRoot, baselineOutput);
+
+        String patched = b.attempt(infos);
+        if (patched != null) {
+            b.accepted = new ArrayList<>(infos);
+            b.acceptedSource = patched;
+        } else if (infos.size() > 1) {
+            System.out.println("Batch of " + infos.size() + " leaks does not compile; bisecting...");
+            int mid = infos.size() / 2;
+            b.bisect(new ArrayList<>(infos.subList(0, mid)));
+            b.bisect(new ArrayList<>(infos.subList(mid, infos.size())));
+            System.out.println("Bisection kept " + b.accepted.size() + " of " + infos.size()
+                    + " leak(s) in " + b.trials + " trial(s)");
+        } else {
+            return false;
+        }
+
+        for (PromptInfo info : b.dropped) {
+            info.dropped = true;
+            System.out.println("❌ Dropped leak at CF line " + info.cfLeakLine + " (" + info.patchType
+                    + "): its patch does not compile with the others");
+        }
+        if (b.accepted.isEmpty())
+            return false;
+
+        // Emit one patch for the accepted leaks
+        List<String> diff = PatchUtils.diff(src, original, b.acceptedSource);
+        PatchUtils.writePatch(PatchUtils.patchFile(), diff);
+        return true;
+    }
+
+    private void bisect(List<PromptInfo> candidates) throws IOException, InterruptedException {
+        List<PromptInfo> trial = new ArrayList<>(accepted);
+        trial.addAll(candidates);
+        String patched = attempt(trial);
+        if (patched != null) {
+            accepted = trial;
+            acceptedSource = patched;
+            return;
+        }
+        if (candidates.size() == 1) {
+            dropped.add(candidates.get(0));
+            return;
+        }
+        int mid = candidates.size() / 2;
+        bisect(candidates.subList(0, mid));
+        bisect(candidates.subList(mid, candidates.size()));
+    }
+
+    /**
+     * Applies the given leaks to a fresh parse of the file, phase 1 and then
+     * phase 2, and returns the first patched source that compiles like the
+     * baseline, or null. A patch that {@link PreCheck} rejects is not
+     * compiled. The file itself is not written.
+     */
+    private String attempt(List<PromptInfo> infos) throws IOException, InterruptedException {
+        trials++;
+        for (boolean tryWithResources : new boolean[] { true, false }) {
+            String patched;
+            try {
+                CompilationUnit cu = LexicalPreservingPrinter.setup(StaticJavaParser.parse(src));
+                editor.edit(cu, infos, tryWithResources);
+                patched = LexicalPreservingPrinter.print(cu);
+            } catch (RuntimeException e) {
+                System.err.println("⚠️ Edit failed (" + e + "); treating the leaks as not compiling");
+                continue;
+            }
+
+            String rejected = preCheck.reject(patched);
+            if (rejected != null) {
+                System.out.println("⏭ Not compiling " + (tryWithResources ? "try-with-resources" : "try/finally")
+                        + " patch: " + rejected);
+                continue;
+            }
+
+            List<String> output = CompilerUtils.compileChanged(projectRoot, baselineOutput, src, original, patched);
+            if (!CompilerUtils.outputsDiffer(baselineOutput, output))
+                return patched;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,54 @@
+package com.rlc.fixer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import com.github.javaparser.ast.CompilationUnit;
+
+/**
+ * Applies leaks of different patch types in one file in a single pass: one
+ * AST session and one validation compile per phase for all of them, instead
+ * of one transformer run (and compile) per leak.
+ * <p>
+ * Edits that change statements in place go first: PRE_CLOSE_FIELD_BEFORE
+ * guards (inserted before an anchor statement), then ONLY_FINALLY (which
+ * edits an existing try). TRY_WRAP_AND_FINALLY wraps go last. A wrap moves
+ * the original statement nodes into a new try, so earlier edits move along
+ * with them. The in-place edits find their targets by the line ranges of the
+ * parse, and a new try has none.
+ * <p>
+ * As in the single-type transformers, phase 1 uses try-with-resources and
+ * phase 2 classic try/finally. If neither phase compiles, {@link LeakBisector}
+ * keeps the subset of leaks that compile together.
+ */
+public class MixedPatchTransformer {
+
+    public static boolean apply(List<PromptInfo> infos,
+            String projectRoot,
+            List<String> baselineOutput)
+            throws IOException, InterruptedException {
+        if (infos == null || infos.isEmpty())
+            return false;
+
+        Path src = Paths.get(infos.get(0).leakSourceFile);
+        return LeakBisector.apply(src, Files.readAllLines(src), infos, MixedPatchTransformer::edit,
+                projectRoot, baselineOutput);
+    }
+
+    static void edit(CompilationUnit cu, List<PromptInfo> infos, boolean tryWithResources) {
+        // One index of the parse for all three; its line lookups stay valid
+        // across the edits of the earlier ones
+        EditPlanner plan = new EditPlanner(cu);
+        PreCloseFieldBeforeTransformer.edit(plan, ofType(infos, PatchType.PRE_CLOSE_FIELD_BEFORE));
+        OnlyFinallyTransformer.edit(plan, ofType(infos, PatchType.ONLY_FINALLY), tryWithResources);
+        TryWrapAndFinallyTransformer.edit(plan, ofType(infos, PatchType.TRY_WRAP_AND_FINALLY), tryWithResources);
+    }
+
+    private static List<PromptInfo> ofType(List<PromptInfo> infos, PatchType type) {
+        return infos.stream().filter(pi -> pi.patchType == type).collect(Collectors.toList());
+    }
+}
@@ -16,14 +16,6 @@ import java.util.Optional;
 
 public class OnlyFinallyTransformer {
 
-    private static int beginLine(Node n) {
-        return n.getRange().map(r -> r.begin.line).orElse(Integer.MAX_VALUE);
-    }
-
-    private static int endLine(Node n) {
-        return n.getRange().map(r -> r.end.line).orElse(Integer.MIN_VALUE);
-    }
-
     public static boolean apply(List<PromptInfo> infos,
             String projectRoot,
             List<String> baselineOutput)
@@ -37,115 +29,71 @@ public class OnlyFinallyTransformer {
         java.nio.file.Path src = java.nio.file.Paths.get(infos.get(0).leakSourceFile);
         java.util.List<String> original = java.nio.file.Files.readAllLines(src);
 
-        // -------- Phase 1: Try-with-resources for all leaks --------
-        {
-            com.github.javaparser.ast.CompilationUnit cu = com.github.javaparser.printer.lexicalpreservation.LexicalPreservingPrinter
-                    .setup(
-                            com.github.javaparser.StaticJavaParser.parse(src));
-
-            // Pre-resolve target try statements in a list parallel to infos
-            // java.util.List<com.github.javaparser.ast.stmt.TryStmt> tryList =
-            // resolveTryStmts(cu, infos);
-
-            // Apply TWR edits using pre-bound try nodes
-            for (int i = 0; i < infos.size(); i++) {
-                PromptInfo info = infos.get(i);
-
-                // Re-locate owner method fresh (ranges may shift as we edit)
-                java.util.Optional<com.github.javaparser.ast.body.CallableDeclaration> ownerOpt = cu.findFirst(
-                        com.github.javaparser.ast.body.CallableDeclaration.class,
-                        m -> beginLine(m) <= info.cfLeakLine && info.cfLeakLine <= endLine(m));
-                if (ownerOpt.isEmpty())
-                    continue;
-
-                com.github.javaparser.ast.body.CallableDeclaration<?> owner = ownerOpt.get();
-
-                com.github.javaparser.ast.stmt.TryStmt targetTry = findTargetTryStmt(owner, info.cfLeakLine,
-                        info.finallyInsertLine).orElse(null);
-                if (targetTry == null)
-                    continue; // nothing to do for this leak
+        // Phase 1: try-with-resources for all leaks, phase 2: classic try–finally.
+        // If neither compiles, bisect the batch and keep the leaks that compile.
+        return LeakBisector.apply(src, original, infos, OnlyFinallyTransformer::edit,
+                projectRoot, baselineOutput);
+    }
 
-                // Use the overload that accepts a pre-resolved TryStmt
-                applyTryWithResources(cu, owner, info, targetTry);
-            }
+    /**
+     * Applies the edits of the given leaks to {@code cu} without writing or
+     * compiling it: try-with-resources headers if {@code tryWithResources},
+     * otherwise classic try–finally blocks.
+     */
+    static void edit(com.github.javaparser.ast.CompilationUnit cu, List<PromptInfo> infos,
+            boolean tryWithResources) {
+        edit(new EditPlanner(cu), infos, tryWithResources);
+    }
 
-            // Write, compile, check against baseline
-            java.nio.file.Files.write(src,
-                    com.github.javaparser.printer.lexicalpreservation.LexicalPreservingPrinter.print(cu).getBytes());
-            java.util.List<String> patched = CompilerUtils.compile(projectRoot);
-
-            if (!CompilerUtils.outputsDiffer(baselineOutput, patched)) {
-                // Success → emit single patch and restore original file
-                java.nio.file.Path backup = java.nio.file.Files.createTempFile("orig-", ".java");
-                java.nio.file.Files.write(backup, original);
-                java.util.List<String> diff = PatchUtils.diff(backup.toString(), src.toString());
-                PatchUtils.writePatch(java.nio.file.Paths.get("rlfixer.patch"), diff);
-                java.nio.file.Files.copy(backup, src, java.nio.file.StandardCopyOption.REPLACE_EXISTING);
-                java.nio.file.Files.deleteIfExists(backup);
-                return true;
-            } else {
-                // Revert to pristine and proceed to Phase 2
-                java.nio.file.Files.write(src, original);
-            }
+    /** As {@link #edit(CompilationUnit, List, boolean)}, on the file indexed by {@code plan}. */
+    static void edit(EditPlanner plan, List<PromptInfo> infos, boolean tryWithResources) {
+        // Resolve every leak's owner method, try statement and variable first,
+        // then edit through those node references
+        List<Target> targets = new java.util.ArrayList<>();
+        for (PromptInfo info : infos) {
+            Optional<CallableDeclaration<?>> ownerOpt = plan.ownerAt(info.cfLeakLine);
+            if (ownerOpt.isEmpty())
+                continue;
+            CallableDeclaration<?> owner = ownerOpt.get();
+
+            TryStmt targetTry = findTargetTryStmt(plan.tries(owner), info.cfLeakLine, info.finallyInsertLine)
+                    .orElse(null);
+            if (targetTry == null)
+                continue; // nothing to do for this leak
+
+            targets.add(new Target(info, owner, targetTry,
+                    plan.leakedVariableName(info.cfLeakLine, info.allocationExprText)));
         }
 
-        // -------- Phase 2: Classic try–finally for all leaks --------
-        {
-            com.github.javaparser.ast.CompilationUnit cu = com.github.javaparser.printer.lexicalpreservation.LexicalPreservingPrinter
-                    .setup(
-                            com.github.javaparser.StaticJavaParser.parse(src));
-
-            // IMPORTANT: Re-resolve try statements on the fresh AST
-            // java.util.List<com.github.javaparser.ast.stmt.TryStmt> tryList = new
-            // ArrayList<>();
-            // for (PromptInfo info : infos) {
-            // tryList.add(findTargetTryStmt(cu, info.cfLeakLine, info.finallyInsertLine));
-            // }
-
-            for (int i = 0; i < infos.size(); i++) {
-                PromptInfo info = infos.get(i);
-                // com.github.javaparser.ast.stmt.TryStmt targetTry = tryList.get(i);
-                // if (targetTry == null)
-                // continue;
-
-                java.util.Optional<com.github.javaparser.ast.body.CallableDeclaration> ownerOpt = cu.findFirst(
-                        com.github.javaparser.ast.body.CallableDeclaration.class,
-                        m -> beginLine(m) <= info.cfLeakLine && info.cfLeakLine <= endLine(m));
-                if (ownerOpt.isEmpty())
-                    continue;
-                com.github.javaparser.ast.body.CallableDeclaration<?> owner = ownerOpt.get();
-
-                com.github.javaparser.ast.stmt.TryStmt targetTry = findTargetTryStmt(owner, info.cfLeakLine,
-                        info.finallyInsertLine).orElse(null);
-                if (targetTry == null)
-                    continue; // nothing to do for this leak
-
-                applyTryFinally(cu, owner, info, targetTry);
-            }
+        // Descending by CF line, so that statements inserted for one leak come
+        // after the ones already in place for the leaks above it
+        targets.sort((a, b) -> Integer.compare(b.info.cfLeakLine, a.info.cfLeakLine));
+        for (Target t : targets) {
+            if (tryWithResources)
+                applyTryWithResources(plan, t);
+            else
+                applyTryFinally(plan, t);
+        }
+    }
 
-            java.nio.file.Files.write(src,
-                    com.github.javaparser.printer.lexicalpreservation.LexicalPreservingPrinter.print(cu).getBytes());
-            java.util.List<String> patched = CompilerUtils.compile(projectRoot);
-
-            if (!CompilerUtils.outputsDiffer(baselineOutput, patched)) {
-                java.nio.file.Path backup = java.nio.file.Files.createTempFile("orig-", ".java");
-                java.nio.file.Files.write(backup, original);
-                java.util.List<String> diff = PatchUtils.diff(backup.toString(), src.toString());
-                PatchUtils.writePatch(java.nio.file.Paths.get("rlfixer.patch"), diff);
-                java.nio.file.Files.copy(backup, src, java.nio.file.StandardCopyOption.REPLACE_EXISTING);
-                java.nio.file.Files.deleteIfExists(backup);
-                return true;
-            } else {
-                // Final revert; overall failure
-                java.nio.file.Files.write(src, original);
-                return false;
-            }
+    /** A leak resolved to the nodes its edit goes through. */
+    private static final class Target {
+        final PromptInfo info;
+        final CallableDeclaration<?> owner;
+        final TryStmt targetTry;
+        final Optional<String> varName;
+
+        Target(PromptInfo info, CallableDeclaration<?> owner, TryStmt targetTry, Optional<String> varName) {
+            this.info = info;
+            this.owner = owner;
+            this.targetTry = targetTry;
+            this.varName = varName;
         }
     }
 
     // Finds the smallest TryStmt that spans cfLeakLine; if none, spans
     // finallyInsertLine.
-    private static Optional<TryStmt> findTargetTryStmt(CallableDeclaration<?> cd,
+    private static Optional<TryStmt> findTargetTryStmt(List<TryStmt> tries,
             int cfLeakLine,
             int finallyInsertLine) {
         // helper: pick the smallest (by line span)
@@ -155,7 +103,7 @@ public class OnlyFinallyTransformer {
 
         // Pass 1: try containing the CF leak line
         if (cfLeakLine > 0) {
-            Optional<TryStmt> byLeak = cd.findAll(TryStmt.class).stream()
+            Optional<TryStmt> byLeak = tries.stream()
                     .filter(ts -> ts.getBegin().isPresent() && ts.getEnd().isPresent())
                     .filter(ts -> {
                         int begin = ts.getBegin().get().line;
@@ -169,7 +117,7 @@ public class OnlyFinallyTransformer {
 
         // Pass 2: try containing the finally insert line
         if (finallyInsertLine > 0) {
-            Optional<TryStmt> byFinally = cd.findAll(TryStmt.class).stream()
+            Optional<TryStmt> byFinally = tries.stream()
                     .filter(ts -> ts.getBegin().isPresent() && ts.getEnd().isPresent())
                     .filter(ts -> {
                         int begin = ts.getBegin().get().line;
@@ -184,20 +132,17 @@ public class OnlyFinallyTransformer {
         return Optional.empty();
     }
 
-    private static boolean applyTryWithResources(CompilationUnit cu,
-            CallableDeclaration method,
-            PromptInfo info,
-            TryStmt targetTry) {
+    private static boolean applyTryWithResources(EditPlanner plan, Target t) {
+        PromptInfo info = t.info;
+        TryStmt targetTry = t.targetTry;
         // 1. Determine if allocation is already stored in a variable
-        Optional<String> varNameOpt = extractLeakedVariableName(cu, info.cfLeakLine, info.allocationExprText);
+        Optional<String> varNameOpt = t.varName;
         VariableDeclarationExpr resourceDecl;
         String resourceVarName;
 
         if (varNameOpt.isPresent()) {
             resourceVarName = varNameOpt.get();
-            VariableDeclarator vd = method.findAll(VariableDeclarator.class).stream()
-                    .filter(v -> v.getNameAsString().equals(resourceVarName))
-                    .findFirst().orElse(null);
+            VariableDeclarator vd = plan.declarator(t.owner, resourceVarName).orElse(null);
             if (vd == null)
                 return false;
             resourceDecl = (VariableDeclarationExpr) vd.getParentNode().get();
@@ -234,16 +179,12 @@ public class OnlyFinallyTransformer {
         return true;
     }
 
-    private static boolean applyTryFinally(CompilationUnit cu, CallableDeclaration method, PromptInfo info,
-            TryStmt targetTry) {
-        // Optional<TryStmt> tryOpt = findTargetTryStmt(method, info.cfLeakLine,
-        // info.finallyInsertLine);
-        // if (tryOpt.isEmpty())
-        // return false;
-        // TryStmt targetTry = tryOpt.get();
+    private static boolean applyTryFinally(EditPlanner plan, Target t) {
+        PromptInfo info = t.info;
+        TryStmt targetTry = t.targetTry;
 
         /* 1 ─ detect or create variable */
-        Optional<String> varOpt = extractLeakedVariableName(cu, info.cfLeakLine, info.allocationExprText);
+        Optional<String> varOpt = t.varName;
         String varName = varOpt.orElse("__arodnap_temp" + info.index);
 
         BlockStmt parentBlock = (BlockStmt) targetTry.getParentNode().orElse(null);
@@ -252,9 +193,7 @@ public class OnlyFinallyTransformer {
 
         if (varOpt.isPresent()) {
             // 2a ─ move existing declaration outside
-            VariableDeclarator vd = method.findAll(VariableDeclarator.class).stream()
-                    .filter(v -> v.getNameAsString().equals(varName))
-                    .findFirst().orElse(null);
+            VariableDeclarator vd = plan.declarator(t.owner, varName).orElse(null);
             if (vd == null)
                 return false;
 
@@ -369,68 +308,7 @@ public class OnlyFinallyTransformer {
     public static Optional<String> extractLeakedVariableName(CompilationUnit cu,
             int line,
             String allocationExprText) {
-        // Case 1: CF reported a variable name (identifier), e.g., "stream"
-        if (allocationExprText != null && allocationExprText.matches("[A-Za-z_$][A-Za-z0-9_$]*")) {
-            String ident = allocationExprText;
-
-            // Variable declaration with that name, whose enclosing statement spans the leak
-            // line
-            Optional<VariableDeclarator> byNameDecl = cu.findAll(VariableDeclarator.class).stream()
-                    .filter(v -> v.getNameAsString().equals(ident))
-                    .filter(v -> {
-                        Optional<Statement> st = v.findAncestor(Statement.class);
-                        if (st.isPresent() && st.get().getBegin().isPresent() && st.get().getEnd().isPresent()) {
-                            int b = st.get().getBegin().get().line;
-                            int e = st.get().getEnd().get().line;
-                            return b <= line && line <= e;
-                        }
-                        return v.getBegin().isPresent() && v.getBegin().get().line == line;
-                    })
-                    .findFirst();
-            if (byNameDecl.isPresent())
-                return Optional.of(ident);
-
-            // Assignment to that variable on the leak line/span
-            Optional<AssignExpr> byNameAssign = cu.findAll(AssignExpr.class).stream()
-                    .filter(a -> a.getTarget().isNameExpr()
-                            && a.getTarget().asNameExpr().getNameAsString().equals(ident))
-                    .filter(a -> {
-                        Optional<Statement> st = a.findAncestor(Statement.class);
-                        if (st.isPresent() && st.get().getBegin().isPresent() && st.get().getEnd().isPresent()) {
-                            int b = st.get().getBegin().get().line;
-                            int e = st.get().getEnd().get().line;
-                            return b <= line && line <= e;
-                        }
-                        return a.getBegin().isPresent() && a.getBegin().get().line == line;
-                    })
-                    .findFirst();
-            if (byNameAssign.isPresent())
-                return Optional.of(ident);
-        }
-        // Case 2: original behavior — match initializer/value text (e.g., "new
-        // Foo(...)" or "conn.getX()")
-        Optional<VariableDeclarator> directMatch = cu.findAll(VariableDeclarator.class).stream()
-                .filter(v -> v.getBegin().isPresent() && v.getBegin().get().line == line)
-                .filter(v -> v.getInitializer().isPresent())
-                .filter(v -> v.getInitializer().get().toString().replace(" ", "")
-                        .equals(allocationExprText.replace(" ", "")))
-                .findFirst();
-
-        if (directMatch.isPresent()) {
-            return Optional.of(directMatch.get().getNameAsString());
-        }
-
-        Optional<AssignExpr> assignExpr = cu.findAll(AssignExpr.class).stream()
-                .filter(a -> a.getBegin().isPresent() && a.getBegin().get().line == line)
-                .filter(a -> a.getValue().toString().replace(" ", "").equals(allocationExprText.replace(" ", "")))
-                .filter(a -> a.getTarget().isNameExpr())
-                .findFirst();
-
-        if (assignExpr.isPresent()) {
-            return Optional.of(assignExpr.get().getTarget().asNameExpr().getNameAsString());
-        }
-
-        return Optional.empty();
+        return new EditPlanner(cu).leakedVariableName(line, allocationExprText);
     }
 
     private static Statement getEnclosingStmt(Node n) {
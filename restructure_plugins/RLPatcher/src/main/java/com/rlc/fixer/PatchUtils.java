@@ -6,16 +6,31 @@ import java.util.*;
 
 public class PatchUtils {
 
-    /** Returns a List<String> with a unified diff between original and modified. */
-    public static List<String> diff(String original, String modified) throws IOException {
-        ProcessBuilder pb = new ProcessBuilder("diff", "-u", original, modified);
-        Process p = pb.start();
-        List<String> out = new ArrayList<>();
-        try (BufferedReader r = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
-            String line;
-            while ((line = r.readLine()) != null) out.add(line);
+    // Where the transformers write their patch. Per thread, so that the workers
+    // of a concurrent batch each write the patch of their own prompt.
+    private static final ThreadLocal<Path> PATCH_FILE = ThreadLocal.withInitial(() -> Paths.get("rlfixer.patch"));
+
+    /** The patch file of the current thread; rlfixer.patch in the working directory unless set. */
+    public static Path patchFile() {
+        return PATCH_FILE.get();
+    }
+
+    public static void setPatchFile(Path patchFile) {
+        PATCH_FILE.set(patchFile);
+    }
+
+    /**
+     * Returns a List<String> with a unified diff from {@code original}, the
+     * lines of {@code file} (as Files.write writes them back), to
+     * {@code patched}, without reading or writing the file. Both sides are
+     * labelled with the path of the file.
+     */
+    public static List<String> diff(Path file, List<String> original, String patched) {
+        StringBuilder originalText = new StringBuilder();
+        for (String line : original) {
+            originalText.append(line).append(System.lineSeparator());
         }
-        return out;
+        return UnifiedDiff.diff(file.toString(), file.toString(), originalText.toString(), patched);
     }
 
     /** Append diff lines to PATCH_FILE, creating it if necessary. */
@@ -0,0 +1,232 @@
+package com.rlc.fixer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.github.javaparser.ParseProblemException;
+import com.github.javaparser.StaticJavaParser;
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.Node;
+import com.github.javaparser.ast.NodeList;
+import com.github.javaparser.ast.body.BodyDeclaration;
+import com.github.javaparser.ast.body.CallableDeclaration;
+import com.github.javaparser.ast.body.FieldDeclaration;
+import com.github.javaparser.ast.body.Parameter;
+import com.github.javaparser.ast.body.TypeDeclaration;
+import com.github.javaparser.ast.body.VariableDeclarator;
+import com.github.javaparser.ast.expr.Expression;
+import com.github.javaparser.ast.expr.LambdaExpr;
+import com.github.javaparser.ast.expr.NameExpr;
+import com.github.javaparser.ast.expr.ObjectCreationExpr;
+import com.github.javaparser.ast.expr.VariableDeclarationExpr;
+import com.github.javaparser.ast.nodeTypes.SwitchNode;
+import com.github.javaparser.ast.stmt.BlockStmt;
+import com.github.javaparser.ast.stmt.CatchClause;
+import com.github.javaparser.ast.stmt.ExpressionStmt;
+import com.github.javaparser.ast.stmt.ForEachStmt;
+import com.github.javaparser.ast.stmt.ForStmt;
+import com.github.javaparser.ast.stmt.Statement;
+import com.github.javaparser.ast.stmt.SwitchEntry;
+import com.github.javaparser.ast.stmt.TryStmt;
+
+/**
+ * Cheap checks of a patched source, run before it is compiled, that reject
+ * edits that cannot compile for simple reasons:
+ * <ul>
+ * <li>the printed source does not parse;</li>
+ * <li>a finally block uses a local variable that is not in scope there,
+ * e.g. one declared inside the try or as a try-with-resources resource;</li>
+ * <li>a local variable is declared while one of the same name is in scope.</li>
+ * </ul>
+ * Only the callables the patch changed are checked, and only problems that
+ * the original callable doesn't have count, so code that was already broken
+ * is left to the compiler. The checks are conservative: a name that may be a
+ * field, or that is used inside a local or anonymous class, is never reported.
+ */
+public class PreCheck {
+
+    /** When cleared, every candidate goes to the compiler. */
+    public static boolean enabled = true;
+
+    private static final String TEMP_PREFIX = "__arodnap_temp";
+
+    private final List<String> originalCallables = new ArrayList<>();
+    private final List<CallableDeclaration<?>> originalNodes = new ArrayList<>();
+    private final Map<Integer, Set<String>> originalProblems = new HashMap<>();
+
+    /** {@code original} is the unpatched source. If it doesn't parse, nothing is checked. */
+    public PreCheck(String original) {
+        CompilationUnit cu = parse(original);
+        if (cu == null)
+            return;
+        for (CallableDeclaration<?> c : cu.findAll(CallableDeclaration.class)) {
+            originalNodes.add(c);
+            originalCallables.add(c.toString());
+        }
+    }
+
+    /** Returns why {@code patched} can't compile, or null if it may. */
+    public String reject(String patched) {
+        if (!enabled || originalNodes.isEmpty())
+            return null;
+        CompilationUnit cu = parse(patched);
+        if (cu == null)
+            return "the patched source does not parse";
+
+        List<CallableDeclaration<?>> callables = new ArrayList<>();
+        for (CallableDeclaration<?> c : cu.findAll(CallableDeclaration.class))
+            callables.add(c);
+        if (callables.size() != originalNodes.size())
+            return null; // the edits don't map onto the original callables; leave it to javac
+        for (int i = 0; i < callables.size(); i++) {
+            CallableDeclaration<?> c = callables.get(i);
+            if (c.toString().equals(originalCallables.get(i)))
+                continue;
+            Set<String> before = originalProblems.computeIfAbsent(i, k -> problems(originalNodes.get(k)));
+            for (String problem : problems(c)) {
+                if (!before.contains(problem))
+                    return problem + " in " + c.getNameAsString() + "()";
+            }
+        }
+        return null;
+    }
+
+    private static CompilationUnit parse(String code) {
+        try {
+            return StaticJavaParser.parse(code);
+        } catch (ParseProblemException e) {
+            return null;
+        }
+    }
+
+    // ---------- checks ----------
+
+    private static Set<String> problems(CallableDeclaration<?> callable) {
+        Set<String> problems = new LinkedHashSet<>();
+        Set<String> locals = new HashSet<>();
+        for (VariableDeclarator v : callable.findAll(VariableDeclarator.class)) {
+            if (v.getParentNode().orElse(null) instanceof VariableDeclarationExpr)
+                locals.add(v.getNameAsString());
+        }
+        callable.findAll(Parameter.class).forEach(p -> locals.add(p.getNameAsString()));
+        Set<String> fields = fieldNames(callable);
+
+        // Names used in finally blocks must be in scope there
+        for (TryStmt t : callable.findAll(TryStmt.class)) {
+            if (t.getFinallyBlock().isEmpty())
+                continue;
+            for (NameExpr n : t.getFinallyBlock().get().findAll(NameExpr.class)) {
+                String name = n.getNameAsString();
+                boolean generated = name.startsWith(TEMP_PREFIX);
+                if (!generated && (!locals.contains(name) || fields.contains(name)))
+                    continue; // may be a field, inherited or not
+                Set<String> inScope = localsInScope(n, callable);
+                if (inScope != null && !inScope.contains(name))
+                    problems.add("variable " + name + " is not in scope in a finally block");
+            }
+        }
+
+        // Locals may not redeclare a local or parameter in scope
+        for (VariableDeclarator v : callable.findAll(VariableDeclarator.class)) {
+            if (!(v.getParentNode().orElse(null) instanceof VariableDeclarationExpr))
+                continue;
+            Set<String> inScope = localsInScope(v.getParentNode().get(), callable);
+            if (inScope != null && inScope.contains(v.getNameAsString()))
+                problems.add("variable " + v.getNameAsString() + " is already defined");
+        }
+        return problems;
+    }
+
+    /** The fields declared in the file of {@code n}, by name. */
+    private static Set<String> fieldNames(Node n) {
+        Set<String> names = new HashSet<>();
+        Node root = n.findRootNode();
+        for (FieldDeclaration f : root.findAll(FieldDeclaration.class))
+            f.getVariables().forEach(v -> names.add(v.getNameAsString()));
+        return names;
+    }
+
+    /**
+     * The local variables and parameters in scope at {@code n} (declared
+     * before it in an enclosing block, or by an enclosing for, catch, try,
+     * lambda or the callable), or null if {@code n} is in a local or anonymous
+     * class, whose members may be in scope as well.
+     */
+    private static Set<String> localsInScope(Node n, CallableDeclaration<?> callable) {
+        Set<String> names = new HashSet<>();
+        Node child = n;
+        Node parent = n.getParentNode().orElse(null);
+        while (parent != null) {
+            if (parent instanceof BlockStmt) {
+                declaredBefore(((BlockStmt) parent).getStatements(), child, names);
+            } else if (parent instanceof SwitchEntry) {
+                declaredBefore(((SwitchEntry) parent).getStatements(), child, names);
+            } else if (parent instanceof SwitchNode) {
+                // Locals of earlier case groups are in scope in later ones
+                for (SwitchEntry e : ((SwitchNode) parent).getEntries()) {
+                    if (e == child)
+                        break;
+                    declaredBefore(e.getStatements(), null, names);
+                }
+            } else if (parent instanceof ForStmt) {
+                for (Expression init : ((ForStmt) parent).getInitialization()) {
+                    if (init == child)
+                        break;
+                    declaredIn(init, names);
+                }
+            } else if (parent instanceof ForEachStmt) {
+                ForEachStmt f = (ForEachStmt) parent;
+                if (child == f.getBody())
+                    declaredIn(f.getVariable(), names);
+            } else if (parent instanceof CatchClause) {
+                CatchClause c = (CatchClause) parent;
+                if (child == c.getBody())
+                    names.add(c.getParameter().getNameAsString());
+            } else if (parent instanceof TryStmt) {
+                // Resources are in scope in the try block and in later resources only
+                TryStmt t = (TryStmt) parent;
+                Node c = child;
+                boolean inResources = t.getResources().stream().anyMatch(r -> r == c);
+                if (child == t.getTryBlock() || inResources) {
+                    for (Expression r : t.getResources()) {
+                        if (r == child)
+                            break;
+                        declaredIn(r, names);
+                    }
+                }
+            } else if (parent instanceof LambdaExpr) {
+                ((LambdaExpr) parent).getParameters().forEach(p -> names.add(p.getNameAsString()));
+            } else if (parent instanceof CallableDeclaration) {
+                ((CallableDeclaration<?>) parent).getParameters().forEach(p -> names.add(p.getNameAsString()));
+                if (parent == callable)
+                    return names;
+            } else if (parent instanceof TypeDeclaration || parent instanceof BodyDeclaration
+                    || (parent instanceof ObjectCreationExpr && child instanceof BodyDeclaration)) {
+                return null;
+            }
+            child = parent;
+            parent = parent.getParentNode().orElse(null);
+        }
+        return names;
+    }
+
+    /** Adds the locals declared by the statements before {@code stop} (all of them if null). */
+    private static void declaredBefore(NodeList<Statement> statements, Node stop, Set<String> names) {
+        for (Statement s : statements) {
+            if (s == stop)
+                break;
+            if (s instanceof ExpressionStmt)
+                declaredIn(((ExpressionStmt) s).getExpression(), names);
+        }
+    }
+
+    private static void declaredIn(Expression e, Set<String> names) {
+        if (e instanceof VariableDeclarationExpr)
+            ((VariableDeclarationExpr) e).getVariables().forEach(v -> names.add(v.getNameAsString()));
+    }
+}
@@ -4,7 +4,6 @@ import com.github.javaparser.StaticJavaParser;
 import com.github.javaparser.ast.CompilationUnit;
 import com.github.javaparser.printer.lexicalpreservation.LexicalPreservingPrinter;
 import com.github.javaparser.ast.NodeList;
-import com.github.javaparser.ast.Node;
 import com.github.javaparser.ast.body.CallableDeclaration;
 import com.github.javaparser.ast.stmt.BlockStmt;
 import com.github.javaparser.ast.stmt.Statement;
@@ -13,7 +12,6 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -46,9 +44,6 @@ public class PreCloseFieldBeforeTransformer {
         if (work.isEmpty())
             return false;
 
-        // Sort by insertion line, earliest first (more natural ordering)
-        work.sort(Comparator.comparingInt(PreCloseFieldBeforeTransformer::effectiveInsertLine));
-
         // All infos are for the same file (per your grouping). Use the first path.
         Path src = Paths.get(work.get(0).leakSourceFile);
         List<String> original = Files.readAllLines(src);
@@ -56,18 +51,54 @@ public class PreCloseFieldBeforeTransformer {
         // Parse with lexical preservation
         CompilationUnit cu = LexicalPreservingPrinter.setup(StaticJavaParser.parse(src));
 
+        if (!edit(cu, work))
+            return false;
+
+        // Compile the patched source, compare to baseline
+        String patchedSource = LexicalPreservingPrinter.print(cu);
+        String rejected = new PreCheck(String.join("\n", original)).reject(patchedSource);
+        if (rejected != null) {
+            System.out.println("⏭ Not compiling patch: " + rejected);
+            return false;
+        }
+        List<String> patched = CompilerUtils.compileChanged(projectRoot, baselineOutput, src, original, patchedSource);
+
+        if (!CompilerUtils.outputsDiffer(baselineOutput, patched)) {
+            // Emit patch
+            List<String> diff = PatchUtils.diff(src, original, patchedSource);
+            PatchUtils.writePatch(PatchUtils.patchFile(), diff);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Inserts the close guards of the given PRE_CLOSE_FIELD_BEFORE leaks into
+     * {@code cu} without writing or compiling it. Returns false if none of them
+     * found a place to go.
+     */
+    static boolean edit(CompilationUnit cu, List<PromptInfo> infos) {
+        return edit(new EditPlanner(cu), infos);
+    }
+
+    /** As {@link #edit(CompilationUnit, List)}, on the file indexed by {@code plan}. */
+    static boolean edit(EditPlanner plan, List<PromptInfo> infos) {
+        // Sort by insertion line, earliest first (more natural ordering)
+        List<PromptInfo> work = infos.stream()
+                .filter(pi -> pi.patchType == PatchType.PRE_CLOSE_FIELD_BEFORE)
+                .sorted(Comparator.comparingInt(PreCloseFieldBeforeTransformer::effectiveInsertLine))
+                .collect(Collectors.toList());
+
         // Build plans (anchor-based)
         List<Plan> plans = new ArrayList<>();
         for (PromptInfo info : work) {
-            Optional<CallableDeclaration> ownerOpt = cu.findFirst(
-                    CallableDeclaration.class,
-                    m -> beginLine(m) <= effectiveInsertLine(info)
-                            && effectiveInsertLine(info) <= endLine(m));
+            Optional<CallableDeclaration<?>> ownerOpt = plan.ownerAt(effectiveInsertLine(info));
             if (ownerOpt.isEmpty())
                 continue;
             CallableDeclaration<?> owner = ownerOpt.get();
 
-            Optional<BlockStmt> containerOpt = smallestContainer(owner, effectiveInsertLine(info));
+            Optional<BlockStmt> containerOpt = plan.smallestBlock(owner, effectiveInsertLine(info),
+                    effectiveInsertLine(info));
             if (containerOpt.isEmpty())
                 continue;
             BlockStmt container = containerOpt.get();
@@ -103,24 +134,7 @@ public class PreCloseFieldBeforeTransformer {
                 stmts.add(idx, node);
             }
         }
-
-        // Write, compile, compare to baseline
-        Files.write(src, LexicalPreservingPrinter.print(cu).getBytes());
-        List<String> patched = CompilerUtils.compile(projectRoot);
-
-        if (!CompilerUtils.outputsDiffer(baselineOutput, patched)) {
-            // Emit patch & restore original file
-            Path backup = Files.createTempFile("orig-", ".java");
-            Files.write(backup, original);
-            List<String> diff = PatchUtils.diff(backup.toString(), src.toString());
-            PatchUtils.writePatch(Paths.get("rlfixer.patch"), diff);
-            Files.copy(backup, src, StandardCopyOption.REPLACE_EXISTING);
-            Files.deleteIfExists(backup);
-            return true;
-        } else {
-            Files.write(src, original);
-            return false;
-        }
+        return true;
     }
 
     // ------------------------- planning -------------------------
@@ -138,13 +152,6 @@ public class PreCloseFieldBeforeTransformer {
         }
     }
 
-    /** Smallest BlockStmt that covers the line. */
-    private static Optional<BlockStmt> smallestContainer(CallableDeclaration<?> owner, int line) {
-        return owner.findAll(BlockStmt.class).stream()
-                .filter(b -> beginLine(b) <= line && line <= endLine(b))
-                .min(Comparator.comparingInt(b -> endLine(b) - beginLine(b)));
-    }
-
     /**
      * First top-level statement in the container whose begin line >= insertLine.
      */
@@ -225,14 +232,6 @@ public class PreCloseFieldBeforeTransformer {
         return Math.max(info.cfLeakLine, 1);
     }
 
-    private static int beginLine(Node n) {
-        return n.getRange().map(r -> r.begin.line).orElse(Integer.MAX_VALUE);
-    }
-
-    private static int endLine(Node n) {
-        return n.getRange().map(r -> r.end.line).orElse(Integer.MIN_VALUE);
-    }
-
     private static boolean equalsNoSpace(String a, String b) {
         if (a == null || b == null)
             return false;
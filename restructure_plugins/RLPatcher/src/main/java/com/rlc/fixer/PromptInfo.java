@@ -27,4 +27,6 @@ public class PromptInfo {
 
     public int preInsertBeforeLine = -1;        // “before line: <n>”
     public String owningFieldName = null; // parsed from “field <name>” in CF
+
+    public boolean dropped;           // Set when its patch doesn't compile with the rest of its batch
 }
@@ -2,18 +2,48 @@ package com.rlc.fixer;
 
 import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
 public class RLPatcher {
+    private static final Path PATCH_PATH = Paths.get("rlfixer.patch");
+
     public static void main(String[] args) throws Exception {
+        // --incremental may come anywhere: validate patches by recompiling only the changed file
+        List<String> argList = new ArrayList<>(Arrays.asList(args));
+        CompilerUtils.incremental = argList.remove("--incremental");
+        // --no-precheck: send every candidate patch to the compiler
+        PreCheck.enabled = !argList.remove("--no-precheck");
+        args = argList.toArray(new String[0]);
+
+        // --jobs N: patch the prompts of different files of a batch on N threads
+        int jobs = 1;
+        int jobsAt = argList.indexOf("--jobs");
+        if (jobsAt >= 0 && jobsAt + 1 < argList.size()) {
+            jobs = Math.max(1, Integer.parseInt(argList.get(jobsAt + 1)));
+            argList.subList(jobsAt, jobsAt + 2).clear();
+            args = argList.toArray(new String[0]);
+        }
+
+        if (args.length >= 2 && args[0].equals("--batch")) {
+            Path outDir = Paths.get(args.length >= 4 && args[2].equals("--out") ? args[3] : ".");
+            runBatch(Paths.get(args[1]), outDir, jobs);
+            return;
+        }
         if (args.length < 2 || !args[0].equals("--prompt")) {
-            System.err.println("Usage: java -jar RLFixPatcher.jar --prompt path/to/prompt.(json|txt)");
+            System.err.println("Usage: java -jar RLFixPatcher.jar [--incremental] [--no-precheck] --prompt path/to/prompt.(json|txt)");
+            System.err.println("       java -jar RLFixPatcher.jar [--incremental] [--no-precheck] [--jobs N] --batch path/to/prompts.(jsonl|dir) [--out patch-dir]");
             System.exit(1);
         }
 
         // Remove existing patch to avoid confusion
-        Path patchPath = Paths.get("rlfixer.patch");
-        Files.deleteIfExists(patchPath);
+        Files.deleteIfExists(PatchUtils.patchFile());
 
         Path promptPath = Paths.get(args[1]);
         String promptText = Files.readString(promptPath);
@@ -24,14 +54,24 @@ public class RLPatcher {
             System.err.println("❌ Failed to parse prompt(s).");
             return;
         }
+        patchLeaks(infos, new HashMap<>());
+    }
 
+    /**
+     * Applies the patches of the leaks of one prompt. The baseline compile output
+     * of each project root is computed on first use and kept in {@code baselines}.
+     * Returns true if the patch compiled and was written to
+     * {@link PatchUtils#patchFile()}. Safe to call from several threads for
+     * leaks of different files.
+     */
+    static boolean patchLeaks(List<PromptInfo> infos, Map<Path, List<String>> baselines) throws Exception {
         // Basic sanity: all leaks should target the same file/method batch
         // (Your upstream Python already groups per method. We just assert same file.)
         String leakFile = infos.get(0).leakSourceFile;
         boolean sameFile = infos.stream().allMatch(pi -> leakFile.equals(pi.leakSourceFile));
         if (!sameFile) {
             System.err.println("❌ Parsed leaks refer to multiple files. Expected a single method batch.");
-            return;
+            return false;
         }
 
         // Log what we parsed
@@ -54,12 +94,21 @@ public class RLPatcher {
         }
         if (projectRoot == null) {
             System.err.println("❌ Could not determine project root from leak file.");
-            return;
+            return false;
         }
         projectRoot = projectRoot.getParent(); // one level up from /src
 
-        // Compile before patch (baseline)
-        List<String> baselineOutput = CompilerUtils.compile(projectRoot.toString());
+        // Compile before patch (baseline). The transformers restore the source
+        // file after each patch, so one baseline per project is enough; across
+        // runs it is cached on disk as long as the tree doesn't change.
+        List<String> baselineOutput;
+        synchronized (baselines) {
+            baselineOutput = baselines.get(projectRoot);
+            if (baselineOutput == null) {
+                baselineOutput = CompilerUtils.baseline(projectRoot.toString());
+                baselines.put(projectRoot, baselineOutput);
+            }
+        }
 
         // For now we only support ONLY_FINALLY in this version
         boolean allOnlyFinally = infos.stream().allMatch(pi -> pi.patchType == PatchType.ONLY_FINALLY);
@@ -76,9 +125,8 @@ public class RLPatcher {
             System.out.println("Applying PRE_CLOSE_FIELD_BEFORE patches...");
             success = PreCloseFieldBeforeTransformer.apply(infos, projectRoot.toString(), baselineOutput);
         } else {
-            System.err.println(
-                    "❌ Mixed patch types detected. Only ALL ONLY_FINALLY or ALL TRY_WRAP_AND_FINALLY is supported.");
-            return;
+            System.out.println("Applying mixed patches in one pass...");
+            success = MixedPatchTransformer.apply(infos, projectRoot.toString(), baselineOutput);
         }
 
         // Batch apply (single unified patch)
@@ -87,5 +135,185 @@ public class RLPatcher {
         } else {
             System.out.println("❌ Patch failed (compilation check failed): " + leakFile);
         }
+        return success;
+    }
+
+    // -------- Batch mode --------
+
+    /**
+     * Patches all the prompts of a project in this JVM.
+     *
+     * The input is either a JSONL file, one prompt object per line, or a
+     * directory of *.json prompt files. A prompt may carry a "name" field
+     * (JSONL) or takes its file name (directory); the patch of a successful
+     * prompt is written to {@code outDir/<name>.patch}. {@code outDir/summary.tsv}
+     * lists name, status (SUCCESS, FAILED or ERROR), leak file, the CF lines
+     * of the leaks dropped from the patch and the CF lines of all its leaks
+     * (both comma-separated) per prompt.
+     *
+     * With {@code jobs} > 1 the prompts are grouped by leak file and the groups
+     * run on that many threads. The prompts of one file run in input order on
+     * one thread. Patches are validated in memory (see
+     * {@link CompilerUtils#compileChanged}), so no source file is written while
+     * the others are compiled.
+     */
+    static void runBatch(Path input, Path outDir, int jobs) throws Exception {
+        Map<String, String> prompts = readBatch(input);
+        Files.createDirectories(outDir);
+        Map<Path, List<String>> baselines = new HashMap<>();
+        if (jobs > 1 && !CompilerUtils.compilesConcurrently()) {
+            System.err.println("⚠️ No in-process compiler; running the batch on one thread");
+            jobs = 1;
+        }
+
+        Map<String, String> rows = new ConcurrentHashMap<>();
+        if (jobs == 1) {
+            for (Map.Entry<String, String> prompt : prompts.entrySet()) {
+                rows.put(prompt.getKey(), runPrompt(prompt.getKey(), prompt.getValue(), outDir, baselines));
+            }
+        } else {
+            ExecutorService pool = Executors.newFixedThreadPool(jobs);
+            try {
+                List<Future<?>> groups = new ArrayList<>();
+                for (List<String> names : groupByLeakFile(prompts).values()) {
+                    groups.add(pool.submit(() -> {
+                        for (String name : names) {
+                            rows.put(name, runPrompt(name, prompts.get(name), outDir, baselines));
+                        }
+                        return null;
+                    }));
+                }
+                for (Future<?> group : groups) {
+                    group.get();
+                }
+            } finally {
+                pool.shutdown();
+            }
+        }
+
+        List<String> summary = new ArrayList<>();
+        summary.add("name\tstatus\tfile\tdropped\tlines");
+        int succeeded = 0, failed = 0, errors = 0;
+        for (String name : prompts.keySet()) {
+            String row = rows.get(name);
+            String status = row.split("\t")[1];
+            if (status.equals("SUCCESS")) {
+                succeeded++;
+            } else if (status.equals("FAILED")) {
+                failed++;
+            } else {
+                errors++;
+            }
+            summary.add(row);
+        }
+
+        Files.write(outDir.resolve("summary.tsv"), summary);
+        System.out.println("Batch done: " + prompts.size() + " prompt(s), " + succeeded + " succeeded, "
+                + failed + " failed, " + errors + " error(s), " + baselines.size() + " baseline compile(s)"
+                + (jobs > 1 ? ", " + jobs + " jobs" : ""));
+    }
+
+    /**
+     * Patches one prompt of a batch into {@code outDir/<name>.patch} and
+     * returns its summary.tsv row.
+     */
+    private static String runPrompt(String name, String promptText, Path outDir, Map<Path, List<String>> baselines)
+            throws Exception {
+        System.out.println("▶ [" + name + "]");
+
+        // Keep the leak file so that an exception in a transformer can't
+        // leave a half-patched file behind for the next prompts
+        Path patchFile = null;
+        String leakFile = null;
+        byte[] original = null;
+        List<PromptInfo> infos = List.of();
+        String status;
+        try {
+            // Inside the try: a name that makes no valid file (e.g. too long)
+            // is an ERROR of this prompt, not of the batch
+            patchFile = outDir.resolve(name + ".patch");
+            Files.deleteIfExists(patchFile);
+            PatchUtils.setPatchFile(patchFile);
+
+            infos = PromptParser.parseAll(promptText);
+            if (infos.isEmpty()) {
+                System.err.println("❌ Failed to parse prompt(s).");
+                status = "FAILED";
+            } else {
+                leakFile = infos.get(0).leakSourceFile;
+                original = Files.readAllBytes(Paths.get(leakFile));
+                status = patchLeaks(infos, baselines) ? "SUCCESS" : "FAILED";
+            }
+        } catch (Exception e) {
+            System.err.println("❌ Error while patching " + name + ": " + e);
+            if (original != null) {
+                Files.write(Paths.get(leakFile), original);
+            }
+            status = "ERROR";
+        } finally {
+            PatchUtils.setPatchFile(PATCH_PATH);
+        }
+
+        if (status.equals("SUCCESS") && !Files.exists(patchFile)) {
+            status = "FAILED"; // nothing to write
+        }
+        if (!status.equals("SUCCESS") && patchFile != null && Files.exists(patchFile)) {
+            Files.delete(patchFile);
+        }
+        String dropped = infos.stream().filter(pi -> pi.dropped)
+                .map(pi -> String.valueOf(pi.cfLeakLine)).collect(Collectors.joining(","));
+        String lines = infos.stream().map(pi -> String.valueOf(pi.cfLeakLine)).collect(Collectors.joining(","));
+        return name + "\t" + status + "\t" + (leakFile == null ? "" : leakFile) + "\t" + dropped + "\t" + lines;
+    }
+
+    /**
+     * The names of the prompts of a batch grouped by leak file, in input order.
+     * A prompt that doesn't parse is a group of its own.
+     */
+    private static Map<String, List<String>> groupByLeakFile(Map<String, String> prompts) {
+        Map<String, List<String>> groups = new LinkedHashMap<>();
+        for (Map.Entry<String, String> prompt : prompts.entrySet()) {
+            String key = "\0" + prompt.getKey();
+            try {
+                List<PromptInfo> infos = PromptParser.parseAll(prompt.getValue());
+                if (!infos.isEmpty()) {
+                    key = Paths.get(infos.get(0).leakSourceFile).toAbsolutePath().normalize().toString();
+                }
+            } catch (RuntimeException e) {
+                // reported when the prompt runs
+            }
+            groups.computeIfAbsent(key, k -> new ArrayList<>()).add(prompt.getKey());
+        }
+        return groups;
+    }
+
+    /** Reads the prompts of a batch, keyed by their patch name, in input order. */
+    private static Map<String, String> readBatch(Path input) throws Exception {
+        Map<String, String> prompts = new LinkedHashMap<>();
+        if (Files.isDirectory(input)) {
+            List<Path> files;
+            try (java.util.stream.Stream<Path> s = Files.list(input)) {
+                files = s.filter(p -> p.toString().endsWith(".json")).sorted().collect(Collectors.toList());
+            }
+            for (Path f : files) {
+                String fileName = f.getFileName().toString();
+                prompts.put(fileName.substring(0, fileName.length() - ".json".length()), Files.readString(f));
+            }
+            return prompts;
+        }
+
+        int lineNumber = 0;
+        for (String line : Files.readAllLines(input)) {
+            lineNumber++;
+            if (line.isBlank())
+                continue;
+            JsonObject obj = JsonParser.parseString(line).getAsJsonObject();
+            String name = obj.has("name") ? obj.get("name").getAsString() : String.format("patch-%04d", lineNumber);
+            if (prompts.containsKey(name)) {
+                name = name + "-" + lineNumber; // don't overwrite the patch of an earlier prompt
+            }
+            prompts.put(name, line);
+        }
+        return prompts;
     }
 }
@@ -2,7 +2,6 @@ package com.rlc.fixer;
 
 import com.github.javaparser.StaticJavaParser;
 import com.github.javaparser.ast.CompilationUnit;
-import com.github.javaparser.printer.lexicalpreservation.LexicalPreservingPrinter;
 import com.github.javaparser.ast.NodeList;
 import com.github.javaparser.ast.Node;
 import com.github.javaparser.ast.body.CallableDeclaration;
@@ -17,7 +16,6 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
@@ -43,105 +41,97 @@ public class TryWrapAndFinallyTransformer {
         Path src = Paths.get(infos.get(0).leakSourceFile);
         List<String> original = Files.readAllLines(src);
 
-        // -------- Phase 1: try-with-resources wrap for all leaks --------
-        CompilationUnit cu = LexicalPreservingPrinter.setup(StaticJavaParser.parse(src));
+        // Phase 1: try-with-resources wrap for all leaks, phase 2: classic
+        // try+finally. If neither compiles, bisect the batch and keep the leaks
+        // that compile.
+        return LeakBisector.apply(src, original, infos, TryWrapAndFinallyTransformer::edit,
+                projectRoot, baselineOutput);
+    }
+
+    /**
+     * Applies the window wraps of the given leaks to {@code cu} without writing
+     * or compiling it: try-with-resources if {@code tryWithResources}, otherwise
+     * classic try+finally.
+     */
+    static void edit(CompilationUnit cu, List<PromptInfo> infos, boolean tryWithResources) {
+        edit(new EditPlanner(cu), infos, tryWithResources);
+    }
 
+    /** As {@link #edit(CompilationUnit, List, boolean)}, on the file indexed by {@code plan}. */
+    static void edit(EditPlanner plan, List<PromptInfo> infos, boolean tryWithResources) {
+        // Resolve every leak's owner, window and variable first, then edit
+        // through those node references
+        List<Target> targets = new ArrayList<>();
         for (PromptInfo info : infos) {
             if (info.patchType != PatchType.TRY_WRAP_AND_FINALLY)
                 continue;
-
-            Optional<CallableDeclaration> ownerOpt = cu.findFirst(
-                    CallableDeclaration.class,
-                    m -> beginLine(m) <= safe(info.cfLeakLine, info.tryWrapStartLine)
-                            && safe(info.cfLeakLine, info.tryWrapStartLine) <= endLine(m));
-            if (ownerOpt.isEmpty())
-                continue;
-
-            CallableDeclaration<?> owner = ownerOpt.get();
-            applyTryWithResourcesWindow(cu, owner, info);
+            Target t = resolve(plan, info);
+            if (t != null)
+                targets.add(t);
         }
 
-        // Write, compile, compare to baseline
-        Files.write(src, LexicalPreservingPrinter.print(cu).getBytes());
-        List<String> patched = CompilerUtils.compile(projectRoot);
-
-        if (!CompilerUtils.outputsDiffer(baselineOutput, patched)) {
-            Path backup = Files.createTempFile("orig-", ".java");
-            Files.write(backup, original);
-            List<String> diff = PatchUtils.diff(backup.toString(), src.toString());
-            PatchUtils.writePatch(Paths.get("rlfixer.patch"), diff);
-            Files.copy(backup, src, StandardCopyOption.REPLACE_EXISTING);
-            Files.deleteIfExists(backup);
-            return true;
-        } else {
-            Files.write(src, original);
+        // Bottom-up by start line, like apply()
+        targets.sort((a, b) -> Integer.compare(b.startLine, a.startLine));
+        for (Target t : targets) {
+            if (tryWithResources)
+                applyTryWithResourcesWindow(plan, t);
+            else
+                applyTryFinallyWindow(plan, t);
         }
+    }
 
-        // -------- Phase 2: classic try+finally wrap (stub for now) --------
-        cu = LexicalPreservingPrinter.setup(StaticJavaParser.parse(src));
-
-        for (PromptInfo info : infos) {
-            if (info.patchType != PatchType.TRY_WRAP_AND_FINALLY)
-                continue;
-
-            Optional<CallableDeclaration> ownerOpt = cu.findFirst(
-                    CallableDeclaration.class,
-                    m -> beginLine(m) <= safe(info.cfLeakLine, info.tryWrapStartLine)
-                            && safe(info.cfLeakLine, info.tryWrapStartLine) <= endLine(m));
-            if (ownerOpt.isEmpty())
-                continue;
-
-            CallableDeclaration<?> owner = ownerOpt.get();
-            // TODO: implement classic try+finally window wrap fallback
-            // leave empty per request
-            applyTryFinallyWindow(cu, owner, info);
+    /** A leak resolved to the nodes and lines its wrap goes through. */
+    private static final class Target {
+        final PromptInfo info;
+        final CallableDeclaration<?> owner;
+        final BlockStmt container;
+        final int startLine, endLine;
+        final Optional<String> varName;
+
+        Target(PromptInfo info, CallableDeclaration<?> owner, BlockStmt container, int startLine, int endLine,
+                Optional<String> varName) {
+            this.info = info;
+            this.owner = owner;
+            this.container = container;
+            this.startLine = startLine;
+            this.endLine = endLine;
+            this.varName = varName;
         }
-
-        Files.write(src, LexicalPreservingPrinter.print(cu).getBytes());
-        patched = CompilerUtils.compile(projectRoot);
-
-        if (!CompilerUtils.outputsDiffer(baselineOutput, patched)) {
-            Path backup = Files.createTempFile("orig-", ".java");
-            Files.write(backup, original);
-            List<String> diff = PatchUtils.diff(backup.toString(), src.toString());
-            PatchUtils.writePatch(Paths.get("rlfixer.patch"), diff);
-            Files.copy(backup, src, StandardCopyOption.REPLACE_EXISTING);
-            Files.deleteIfExists(backup);
-            return true;
-        } else {
-            Files.write(src, original);
-        }
-        return false; // no changes made
     }
 
-    // ---------- TWR window wrap ----------
-    private static boolean applyTryWithResourcesWindow(CompilationUnit cu,
-            CallableDeclaration<?> owner,
-            PromptInfo info) {
+    /** Returns the wrap target of a leak, or null if it has no coherent window. */
+    private static Target resolve(EditPlanner plan, PromptInfo info) {
+        Optional<CallableDeclaration<?>> ownerOpt = plan.ownerAt(safe(info.cfLeakLine, info.tryWrapStartLine));
+        if (ownerOpt.isEmpty())
+            return null;
+        CallableDeclaration<?> owner = ownerOpt.get();
+
         int startLine = info.tryWrapStartLine > 0 ? info.tryWrapStartLine : info.cfLeakLine;
         int initEndLine = info.tryWrapEndLine > 0 ? info.tryWrapEndLine : info.finallyInsertLine;
 
-        // 1) Find smallest BlockStmt spanning [startLine, endLine]
-        Optional<BlockStmt> containerOpt = owner.findAll(BlockStmt.class).stream()
-                .filter(b -> beginLine(b) <= startLine && initEndLine <= endLine(b))
-                .min(Comparator.comparingInt(b -> endLine(b) - beginLine(b)));
+        // 1) Smallest block spanning [startLine, endLine]
+        Optional<BlockStmt> containerOpt = plan.smallestBlock(owner, startLine, initEndLine);
         if (containerOpt.isEmpty())
-            return false;
-        BlockStmt container = containerOpt.get();
-
-        // TEST
-        // after computing initial startLine/endLine from RLFixer and picking initial
-        // 'container'
-        int endLine = expandEndLineForEscapingLocals(container, owner, startLine, initEndLine, info.linesToDelete);
-        Optional<BlockStmt> maybe = owner.findAll(BlockStmt.class).stream()
-                .filter(b -> beginLine(b) <= startLine && endLine <= endLine(b))
-                .min(Comparator.comparingInt(b -> endLine(b) - beginLine(b)));
-
-        if (maybe.isEmpty())
-            return false; // can’t form a coherent window
-        BlockStmt container2 = maybe.get();
-        if (container2 != container)
-            container = container2;
+            return null;
+
+        // Grow the window to the last use of the locals declared in it, and
+        // re-pick the block for the grown window
+        int endLine = expandEndLineForEscapingLocals(containerOpt.get(), plan, owner, startLine, initEndLine,
+                info.linesToDelete);
+        Optional<BlockStmt> container = plan.smallestBlock(owner, startLine, endLine);
+        if (container.isEmpty())
+            return null; // can’t form a coherent window
+
+        return new Target(info, owner, container.get(), startLine, endLine,
+                plan.leakedVariableName(info.cfLeakLine, info.allocationExprText));
+    }
+
+    // ---------- TWR window wrap ----------
+    private static boolean applyTryWithResourcesWindow(EditPlanner plan, Target t) {
+        PromptInfo info = t.info;
+        CallableDeclaration<?> owner = t.owner;
+        BlockStmt container = t.container;
+        int startLine = t.startLine, endLine = t.endLine;
 
         // 2) Select contiguous top-level statements intersecting [startLine, endLine]
         NodeList<Statement> stmts = container.getStatements();
@@ -178,17 +168,14 @@ public class TryWrapAndFinallyTransformer {
 
         // 4) Resource header: use existing variable if available; otherwise synthesize
         // temp
-        Optional<String> varNameOpt = OnlyFinallyTransformer
-                .extractLeakedVariableName(cu, info.cfLeakLine, info.allocationExprText);
+        Optional<String> varNameOpt = t.varName;
 
         VariableDeclarationExpr resourceDecl;
         String resourceVarName;
         List<Statement> notToAddOnTryBody = new ArrayList<>();
         if (varNameOpt.isPresent()) {
             resourceVarName = varNameOpt.get();
-            VariableDeclarator vd = owner.findAll(VariableDeclarator.class).stream()
-                    .filter(v -> v.getNameAsString().equals(resourceVarName))
-                    .findFirst().orElse(null);
+            VariableDeclarator vd = plan.declarator(owner, resourceVarName).orElse(null);
             if (vd == null)
                 return false;
 
@@ -318,41 +305,11 @@ public class TryWrapAndFinallyTransformer {
         return out;
     }
 
-    private static int lastUseLineOf(CallableDeclaration<?> owner, String varName) {
-        return owner.findAll(com.github.javaparser.ast.expr.NameExpr.class).stream()
-                .filter(n -> n.getNameAsString().equals(varName))
-                .map(n -> n.getRange().map(r -> r.end.line).orElse(-1))
-                .max(Integer::compare)
-                .orElse(-1);
-    }
-
-    private static boolean applyTryFinallyWindow(CompilationUnit cu,
-            CallableDeclaration<?> owner,
-            PromptInfo info) {
-        int startLine = info.tryWrapStartLine > 0 ? info.tryWrapStartLine : info.cfLeakLine;
-        int initEndLine = info.tryWrapEndLine > 0 ? info.tryWrapEndLine : info.finallyInsertLine;
-
-        // 1) Smallest container spanning [startLine, endLine]
-        Optional<BlockStmt> containerOpt = owner.findAll(BlockStmt.class).stream()
-                .filter(b -> beginLine(b) <= startLine && initEndLine <= endLine(b))
-                .min(Comparator.comparingInt(b -> endLine(b) - beginLine(b)));
-        if (containerOpt.isEmpty())
-            return false;
-        BlockStmt container = containerOpt.get();
-
-        // TEST
-        // after computing initial startLine/endLine from RLFixer and picking initial
-        // 'container'
-        int endLine = expandEndLineForEscapingLocals(container, owner, startLine, initEndLine, info.linesToDelete);
-        Optional<BlockStmt> maybe = owner.findAll(BlockStmt.class).stream()
-                .filter(b -> beginLine(b) <= startLine && endLine <= endLine(b))
-                .min(Comparator.comparingInt(b -> endLine(b) - beginLine(b)));
-
-        if (maybe.isEmpty())
-            return false; // can’t form a coherent window
-        BlockStmt container2 = maybe.get();
-        if (container2 != container)
-            container = container2;
+    private static boolean applyTryFinallyWindow(EditPlanner plan, Target t) {
+        PromptInfo info = t.info;
+        CallableDeclaration<?> owner = t.owner;
+        BlockStmt container = t.container;
+        int startLine = t.startLine, endLine = t.endLine;
 
         // 2) Find contiguous slice [from, to]
         NodeList<Statement> stmts = container.getStatements();
@@ -384,8 +341,7 @@ public class TryWrapAndFinallyTransformer {
             sliceNodes.add(stmts.get(i));
 
         // Decide resource variable
-        Optional<String> varNameOpt = OnlyFinallyTransformer
-                .extractLeakedVariableName(cu, info.cfLeakLine, info.allocationExprText);
+        Optional<String> varNameOpt = t.varName;
         String varName = varNameOpt.orElse("__arodnap_temp" + info.index);
 
         // 3) Build try/finally
@@ -415,9 +371,7 @@ public class TryWrapAndFinallyTransformer {
 
         // 3a) If named resource
         if (varNameOpt.isPresent()) {
-            VariableDeclarator vd = owner.findAll(VariableDeclarator.class).stream()
-                    .filter(v -> v.getNameAsString().equals(varName))
-                    .findFirst().orElse(null);
+            VariableDeclarator vd = plan.declarator(owner, varName).orElse(null);
             if (vd != null) {
                 Statement declStmt = vd.findAncestor(Statement.class).orElse(null);
                 if (declStmt != null) {
@@ -523,6 +477,7 @@ public class TryWrapAndFinallyTransformer {
     }
 
     private static int expandEndLineForEscapingLocals(BlockStmt container,
+            EditPlanner plan,
             CallableDeclaration<?> owner,
             int startLine,
             int endLine,
@@ -540,7 +495,7 @@ public class TryWrapAndFinallyTransformer {
             // 2) extend to the last use of each declared variable
             for (VariableDeclarator vd : decls) {
                 String name = vd.getNameAsString();
-                int lastUse = lastUseLineOf(owner, name);
+                int lastUse = plan.lastUseLine(owner, name);
                 if (lastUse > maxEnd)
                     maxEnd = lastUse;
             }
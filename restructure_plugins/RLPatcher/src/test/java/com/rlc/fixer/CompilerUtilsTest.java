@@ -0,0 +1,111 @@
+package com.rlc.fixer;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompilerUtilsTest {
+
+    @TempDir
+    Path tempDir;
+    Path projectRoot, savedCacheDir;
+    boolean savedIncremental;
+
+    @BeforeEach
+    void setup() throws Exception {
+        projectRoot = tempDir.resolve("proj");
+        Files.createDirectories(projectRoot.resolve("src/demo"));
+        Files.writeString(projectRoot.resolve("src/demo/Demo.java"), String.join("\n",
+                "package demo;",
+                "public class Demo {",
+                "    public int value() { return 1; }",
+                "}",
+                ""));
+        savedCacheDir = CompilerUtils.cacheDir;
+        CompilerUtils.cacheDir = tempDir.resolve("cache");
+        savedIncremental = CompilerUtils.incremental;
+    }
+
+    @AfterEach
+    void restore() {
+        CompilerUtils.cacheDir = savedCacheDir;
+        CompilerUtils.incremental = savedIncremental;
+    }
+
+    List<String> cacheFiles() throws Exception {
+        try (Stream<Path> s = Files.walk(CompilerUtils.cacheDir)) {
+            return s.filter(Files::isRegularFile).map(p -> p.getFileName().toString()).sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    @Test
+    void baseline_prunesOlderEntriesButNotTempFiles() throws Exception {
+        CompilerUtils.baseline(projectRoot.toString());
+        Path projectCache;
+        try (Stream<Path> s = Files.list(CompilerUtils.cacheDir)) {
+            projectCache = s.findFirst().orElseThrow();
+        }
+        String first = cacheFiles().get(0);
+
+        // Another run's entry being written, and a new tree
+        Path otherRunsTemp = Files.createFile(projectCache.resolve("baseline-123.tmp"));
+        Files.writeString(projectRoot.resolve("src/demo/Demo.java"), "package demo;\npublic class Demo {}\n");
+        CompilerUtils.baseline(projectRoot.toString());
+
+        List<String> files = cacheFiles();
+        assertFalse(files.contains(first), "the entry of the old tree is pruned: " + files);
+        assertTrue(Files.exists(otherRunsTemp), "a .tmp file may be renamed by another run: " + files);
+        assertEquals(1, files.stream().filter(f -> f.endsWith(".txt")).count(), files.toString());
+    }
+
+    /** Adds User, which calls Demo.value(), and compiles the incremental baseline. */
+    List<String> incrementalBaseline() throws Exception {
+        Files.writeString(projectRoot.resolve("src/demo/User.java"), String.join("\n",
+                "package demo;",
+                "public class User {",
+                "    int twice() { return new Demo().value() * 2; }",
+                "}",
+                ""));
+        CompilerUtils.incremental = true;
+        List<String> baseline = CompilerUtils.baseline(projectRoot.toString());
+        assertEquals(0, ((CompilerUtils.CompileOutput) baseline).errorCount, baseline.toString());
+        return baseline;
+    }
+
+    List<String> compileDemo(List<String> baseline, String patched) throws Exception {
+        Path demo = projectRoot.resolve("src/demo/Demo.java");
+        return CompilerUtils.compileChanged(projectRoot.toString(), baseline, demo, Files.readAllLines(demo), patched);
+    }
+
+    @Test
+    void compileChanged_signatureChange_reportsTheBreakInADependent() throws Exception {
+        List<String> baseline = incrementalBaseline();
+        String patched = Files.readString(projectRoot.resolve("src/demo/Demo.java"))
+                .replace("public int value() { return 1; }", "public String value() { return \"1\"; }");
+
+        List<String> output = compileDemo(baseline, patched);
+        assertTrue(CompilerUtils.outputsDiffer(baseline, output), output.toString());
+        assertTrue(output.stream().anyMatch(l -> l.contains("User.java") && l.contains("error")), output.toString());
+    }
+
+    @Test
+    void compileChanged_bodyChange_recompilesOnlyTheChangedFile() throws Exception {
+        List<String> baseline = incrementalBaseline();
+        String patched = Files.readString(projectRoot.resolve("src/demo/Demo.java")).replace("return 1;", "return 2;");
+        // Broken on disk after the baseline: only seen if User is recompiled
+        Files.writeString(projectRoot.resolve("src/demo/User.java"), "package demo;\npublic class User { Demo broken }\n");
+
+        List<String> output = compileDemo(baseline, patched);
+        assertFalse(CompilerUtils.outputsDiffer(baseline, output), output.toString());
+        assertEquals(0, ((CompilerUtils.CompileOutput) output).errorCount, output.toString());
+        // The same edit with a signature change does recompile User
+        List<String> apiChange = compileDemo(baseline, patched.replace("public int value()", "public long value()"));
+        assertTrue(apiChange.stream().anyMatch(l -> l.contains("User.java")), apiChange.toString());
+    }
+}
@@ -0,0 +1,84 @@
+package com.rlc.fixer;
+
+import org.junit.jupiter.api.*;
+
+import com.github.javaparser.StaticJavaParser;
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.body.CallableDeclaration;
+import com.github.javaparser.ast.stmt.BlockStmt;
+import com.github.javaparser.ast.stmt.Statement;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EditPlannerTest {
+
+    CompilationUnit cu;
+    EditPlanner plan;
+
+    @BeforeEach
+    void setup() {
+        String code = String.join("\n",
+                "import java.io.*;",
+                "public class Demo {",
+                "    private InputStream field;",
+                "    public void a(String p) throws IOException {",
+                "        FileInputStream in = new FileInputStream(p);", // 5
+                "        try {",
+                "            in.read();",
+                "        } finally {",
+                "            System.out.println();",
+                "        }",
+                "        in.read();", // 11: last use of "in"
+                "    }",
+                "    public Demo() throws IOException {",
+                "        field = new FileInputStream(\"x\");", // 14
+                "        Reader r = new StringReader(\"\");", // 15
+                "        r.read();",
+                "    }",
+                "}");
+        cu = StaticJavaParser.parse(code);
+        plan = new EditPlanner(cu);
+    }
+
+    @Test
+    void ownerAt_findsMethodsAndConstructors() {
+        assertEquals("a", plan.ownerAt(5).map(CallableDeclaration::getNameAsString).orElse(null));
+        assertEquals("Demo", plan.ownerAt(14).map(CallableDeclaration::getNameAsString).orElse(null));
+        assertTrue(plan.ownerAt(3).isEmpty(), "a field is not in a callable");
+    }
+
+    @Test
+    void membersOfOwner() {
+        CallableDeclaration<?> a = plan.ownerAt(5).get();
+        assertEquals(1, plan.tries(a).size());
+        assertEquals(11, plan.lastUseLine(a, "in"));
+        assertEquals(-1, plan.lastUseLine(a, "r"), "r is used in another callable");
+        assertTrue(plan.declarator(a, "in").isPresent());
+        assertEquals(6, plan.smallestBlock(a, 7, 7).get().getBegin().get().line, "the try body spans line 7");
+    }
+
+    @Test
+    void leakedVariableName_byNameOrByAllocation() {
+        assertEquals("in", plan.leakedVariableName(5, "in").orElse(null));
+        assertEquals("in", plan.leakedVariableName(5, "new FileInputStream(p)").orElse(null));
+        assertEquals("field", plan.leakedVariableName(14, "new FileInputStream(\"x\")").orElse(null));
+        assertEquals("r", plan.leakedVariableName(15, "new StringReader(\"\")").orElse(null));
+        assertTrue(plan.leakedVariableName(5, "new Socket()").isEmpty());
+    }
+
+    @Test
+    void lookupsSurviveEdits() {
+        CallableDeclaration<?> a = plan.ownerAt(5).get();
+        // Move the first statement of a() into a new block, as a wrap does
+        BlockStmt body = plan.smallestBlock(a, 5, 11).get();
+        Statement first = body.getStatement(0);
+        first.remove();
+        BlockStmt wrapper = new BlockStmt();
+        wrapper.addStatement(first);
+        body.addStatement(0, wrapper);
+
+        assertSame(a, plan.ownerAt(5).get());
+        assertEquals("in", plan.leakedVariableName(5, "new FileInputStream(p)").orElse(null));
+        assertSame(body, plan.smallestBlock(a, 5, 11).get(), "the new block has no range and is not picked");
+    }
+}
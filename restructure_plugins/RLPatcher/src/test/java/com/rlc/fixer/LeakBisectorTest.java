@@ -0,0 +1,101 @@
+package com.rlc.fixer;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.*;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LeakBisectorTest {
+
+    @TempDir
+    Path tempDir;
+    Path projectRoot, srcFile;
+    List<String> originalSource, baseline;
+
+    @BeforeEach
+    void setup() throws Exception {
+        projectRoot = tempDir.resolve("proj");
+        srcFile = projectRoot.resolve("src/demo/Sockets.java");
+        Files.createDirectories(srcFile.getParent());
+
+        String code = String.join("\n",
+                "package demo;",
+                "import java.io.IOException;",
+                "import java.net.Socket;",
+                "public class Sockets {",
+                "    public Sockets a() throws IOException {",
+                "        Socket s0 = new Socket(\"localhost\", 80);", // 6
+                "        return this;",
+                "    }",
+                "    public Sockets b() throws IOException {",
+                "        Socket s1 = new Socket(\"localhost\", 81);", // 10
+                "        return this;",
+                "    }",
+                "    public Sockets c() {",
+                "        Object s2 = new Object();", // 14: not closeable, so its patch can't compile
+                "        return this;",
+                "    }",
+                "    public Sockets d() throws IOException {",
+                "        Socket s3 = new Socket(\"localhost\", 83);", // 18
+                "        return this;",
+                "    }",
+                "}");
+        Files.writeString(srcFile, code);
+        originalSource = Files.readAllLines(srcFile);
+
+        // compile baseline
+        baseline = CompilerUtils.compile(projectRoot.toString());
+
+        // delete patch file if present
+        Path patch = Paths.get("rlfixer.patch");
+        if (Files.exists(patch))
+            Files.delete(patch);
+    }
+
+    private PromptInfo wrap(int line, String var, int index) {
+        PromptInfo p = new PromptInfo();
+        p.patchType = PatchType.TRY_WRAP_AND_FINALLY;
+        p.leakSourceFile = srcFile.toString();
+        p.resourceType = line == 14 ? "java.lang.Object" : "java.net.Socket";
+        p.allocationExprText = var;
+        p.cfLeakLine = line;
+        p.tryWrapStartLine = line;
+        p.tryWrapEndLine = line;
+        p.finallyInsertLine = line;
+        p.index = index;
+        return p;
+    }
+
+    @Test
+    void failingBatch_keepsCompilingSubset() throws Exception {
+        List<PromptInfo> leaks = new ArrayList<>(Arrays.asList(
+                wrap(6, "s0", 0), wrap(10, "s1", 1), wrap(14, "s2", 2), wrap(18, "s3", 3)));
+
+        boolean ok = TryWrapAndFinallyTransformer.apply(leaks, projectRoot.toString(), baseline);
+        assertTrue(ok, "the leaks that compile should still be patched");
+
+        String diff = Files.readString(Paths.get("rlfixer.patch"));
+        assertTrue(diff.contains("try (Socket s0 = new Socket(\"localhost\", 80))"));
+        assertTrue(diff.contains("try (Socket s1 = new Socket(\"localhost\", 81))"));
+        assertTrue(diff.contains("try (Socket s3 = new Socket(\"localhost\", 83))"));
+        assertFalse(diff.contains("s2.close()") || diff.contains("Object s2 = new Object())"),
+                "the culprit is left out of the patch");
+
+        for (PromptInfo p : leaks)
+            assertEquals(p.cfLeakLine == 14, p.dropped, "only the culprit is marked dropped (line " + p.cfLeakLine + ")");
+
+        assertEquals(originalSource, Files.readAllLines(srcFile), "source restored to original after patch emission");
+    }
+
+    @Test
+    void singleFailingLeak_isNotBisected() throws Exception {
+        boolean ok = TryWrapAndFinallyTransformer.apply(
+                new ArrayList<>(Collections.singletonList(wrap(14, "s2", 0))), projectRoot.toString(), baseline);
+        assertFalse(ok, "a single leak that does not compile fails as before");
+        assertFalse(Files.exists(Paths.get("rlfixer.patch")));
+        assertEquals(originalSource, Files.readAllLines(srcFile));
+    }
+}
@@ -0,0 +1,122 @@
+package com.rlc.fixer;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.*;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MixedPatchTransformerTest {
+
+    @TempDir
+    Path tempDir;
+    Path projectRoot, srcFile;
+    List<String> originalSource, baseline;
+
+    @BeforeEach
+    void setup() throws Exception {
+        projectRoot = tempDir.resolve("proj");
+        srcFile = projectRoot.resolve("src/demo/Mixed.java");
+        Files.createDirectories(srcFile.getParent());
+
+        String code = String.join("\n",
+                "package demo;",
+                "import java.io.*;",
+                "import java.net.Socket;",
+                "public class Mixed {",
+                "    private InputStream field;",
+                "    public void reset(String p) throws IOException {",
+                "        field = new FileInputStream(p);", // PRE_CLOSE_FIELD_BEFORE → 7
+                "    }",
+                "    public void read(String p) {",
+                "        try {",
+                "            FileInputStream in = new FileInputStream(p);", // ONLY_FINALLY → 11
+                "            in.read();",
+                "        } catch (IOException e) {",
+                "            e.printStackTrace();",
+                "        }", // finally below → 15
+                "    }",
+                "    public Mixed connect() throws IOException {",
+                "        Socket socket = new Socket(\"localhost\", 80);", // TRY_WRAP_AND_FINALLY → 18
+                "        return this;",
+                "    }",
+                "}");
+        Files.writeString(srcFile, code);
+        originalSource = Files.readAllLines(srcFile);
+
+        // compile baseline
+        baseline = CompilerUtils.compile(projectRoot.toString());
+
+        // delete patch file if present
+        Path patch = Paths.get("rlfixer.patch");
+        if (Files.exists(patch))
+            Files.delete(patch);
+    }
+
+    private PromptInfo preClose(int line, String field, int index) {
+        PromptInfo p = new PromptInfo();
+        p.patchType = PatchType.PRE_CLOSE_FIELD_BEFORE;
+        p.leakSourceFile = srcFile.toString();
+        p.cfLeakLine = line;
+        p.preInsertBeforeLine = line;
+        p.owningFieldName = field;
+        p.index = index;
+        return p;
+    }
+
+    private List<PromptInfo> mixedLeaks() {
+        PromptInfo onlyFinally = new PromptInfo();
+        onlyFinally.patchType = PatchType.ONLY_FINALLY;
+        onlyFinally.leakSourceFile = srcFile.toString();
+        onlyFinally.resourceType = "java.io.FileInputStream";
+        onlyFinally.allocationExprText = "new FileInputStream(p)";
+        onlyFinally.cfLeakLine = 11;
+        onlyFinally.finallyInsertLine = 15;
+        onlyFinally.index = 1;
+
+        PromptInfo tryWrap = new PromptInfo();
+        tryWrap.patchType = PatchType.TRY_WRAP_AND_FINALLY;
+        tryWrap.leakSourceFile = srcFile.toString();
+        tryWrap.resourceType = "java.net.Socket";
+        tryWrap.allocationExprText = "socket";
+        tryWrap.cfLeakLine = 18;
+        tryWrap.tryWrapStartLine = 18;
+        tryWrap.tryWrapEndLine = 18;
+        tryWrap.finallyInsertLine = 18;
+        tryWrap.index = 2;
+
+        return new ArrayList<>(Arrays.asList(preClose(7, "field", 0), onlyFinally, tryWrap));
+    }
+
+    @Test
+    void mixedTypes_onePatch() throws Exception {
+        boolean ok = MixedPatchTransformer.apply(mixedLeaks(), projectRoot.toString(), baseline);
+        assertTrue(ok, "mixed patch should succeed");
+
+        String diff = Files.readString(Paths.get("rlfixer.patch"));
+        assertTrue(diff.contains("this.field.close()"), "diff closes the field before it is overwritten");
+        assertTrue(diff.contains("try (FileInputStream in = new FileInputStream(p))"), "diff adds TWR to the existing try");
+        assertTrue(diff.contains("try (Socket socket = new Socket(\"localhost\", 80))"), "diff wraps the socket in TWR");
+
+        assertEquals(originalSource, Files.readAllLines(srcFile), "source restored to original after patch emission");
+    }
+
+    @Test
+    void mixedTypes_dropsLeakThatDoesNotCompile() throws Exception {
+        List<PromptInfo> leaks = mixedLeaks();
+        leaks.add(1, preClose(12, "noSuchField", 3)); // "this.noSuchField" cannot compile
+
+        boolean ok = MixedPatchTransformer.apply(leaks, projectRoot.toString(), baseline);
+        assertTrue(ok, "the compiling leaks should still be patched");
+
+        String diff = Files.readString(Paths.get("rlfixer.patch"));
+        assertFalse(diff.contains("noSuchField"), "the failing leak is dropped");
+        assertTrue(diff.contains("this.field.close()"));
+        assertTrue(diff.contains("try (FileInputStream in = new FileInputStream(p))"));
+        assertTrue(diff.contains("try (Socket socket = new Socket(\"localhost\", 80))"));
+
+        assertEquals(originalSource, Files.readAllLines(srcFile), "source restored to original after patch emission");
+    }
+}
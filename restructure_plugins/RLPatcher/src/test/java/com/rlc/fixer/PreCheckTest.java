@@ -0,0 +1,117 @@
+package com.rlc.fixer;
+
+import org.junit.jupiter.api.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PreCheckTest {
+
+    static final String ORIGINAL = String.join("\n",
+            "import java.io.*;",
+            "public class Demo {",
+            "    private InputStream field;",
+            "    public void read(String p) {",
+            "        try {",
+            "            FileInputStream in = new FileInputStream(p);",
+            "            in.read();",
+            "        } catch (IOException e) {",
+            "            e.printStackTrace();",
+            "        }",
+            "    }",
+            "    public void other() {",
+            "        int x = 1;",
+            "    }",
+            "}");
+
+    static String withRead(String body) {
+        return ORIGINAL.replace(ORIGINAL.substring(ORIGINAL.indexOf("    public void read"), ORIGINAL.indexOf("    public void other")),
+                "    public void read(String p) {\n" + body + "\n    }\n");
+    }
+
+    @Test
+    void finallyUsingVariableDeclaredInTry_isRejected() {
+        String patched = withRead(String.join("\n",
+                "        try {",
+                "            FileInputStream in = new FileInputStream(p);",
+                "            in.read();",
+                "        } catch (IOException e) {",
+                "            e.printStackTrace();",
+                "        } finally {",
+                "            if (in != null) { try { in.close(); } catch (Exception e) { e.printStackTrace(); } }",
+                "        }"));
+        String reason = new PreCheck(ORIGINAL).reject(patched);
+        assertNotNull(reason);
+        assertTrue(reason.contains("in is not in scope"), reason);
+    }
+
+    @Test
+    void finallyUsingResource_isRejected() {
+        String patched = withRead(String.join("\n",
+                "        try (FileInputStream in = new FileInputStream(p)) {",
+                "            in.read();",
+                "        } catch (IOException e) {",
+                "            e.printStackTrace();",
+                "        } finally {",
+                "            in.close();",
+                "        }"));
+        assertNotNull(new PreCheck(ORIGINAL).reject(patched));
+    }
+
+    @Test
+    void hoistedDeclaration_isAccepted() {
+        String patched = withRead(String.join("\n",
+                "        FileInputStream in = null;",
+                "        try {",
+                "            in = new FileInputStream(p);",
+                "            in.read();",
+                "        } catch (IOException e) {",
+                "            e.printStackTrace();",
+                "        } finally {",
+                "            if (in != null) { try { in.close(); } catch (Exception e) { e.printStackTrace(); } }",
+                "        }"));
+        assertNull(new PreCheck(ORIGINAL).reject(patched));
+    }
+
+    @Test
+    void redeclaredLocal_isRejected() {
+        String patched = withRead(String.join("\n",
+                "        FileInputStream in = null;",
+                "        try {",
+                "            FileInputStream in = new FileInputStream(p);",
+                "            in.read();",
+                "        } catch (IOException e) {",
+                "            e.printStackTrace();",
+                "        }"));
+        String reason = new PreCheck(ORIGINAL).reject(patched);
+        assertNotNull(reason);
+        assertTrue(reason.contains("in is already defined"), reason);
+    }
+
+    @Test
+    void fieldInFinally_isNotReported() {
+        String patched = withRead(String.join("\n",
+                "        try {",
+                "            InputStream field = new FileInputStream(p);",
+                "            field.read();",
+                "        } catch (IOException e) {",
+                "            e.printStackTrace();",
+                "        } finally {",
+                "            if (field != null) { try { field.close(); } catch (Exception e) { e.printStackTrace(); } }",
+                "        }"));
+        assertNull(new PreCheck(ORIGINAL).reject(patched), "field may be this.field");
+    }
+
+    @Test
+    void problemAlreadyInOriginal_isLeftToTheCompiler() {
+        String broken = ORIGINAL.replace("        int x = 1;", "        int x = 1;\n        int x = 2;");
+        String patched = broken.replace("FileInputStream in = new FileInputStream(p);",
+                "FileInputStream in = new FileInputStream(p); // patched");
+        assertNull(new PreCheck(broken).reject(patched.replace("    public void other() {",
+                "    public void other() {\n        int y = 0;")));
+    }
+
+    @Test
+    void unparsableOutput_isRejected() {
+        assertNotNull(new PreCheck(ORIGINAL).reject(ORIGINAL.replace("in.read();", "in.read(;")));
+    }
+}
@@ -0,0 +1,108 @@
+package com.rlc.fixer;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.*;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RLPatcherBatchTest {
+
+    @TempDir
+    Path tempDir;
+    Path projectRoot, outDir, savedCacheDir;
+
+    @BeforeEach
+    void setup() {
+        projectRoot = tempDir.resolve("proj");
+        outDir = tempDir.resolve("out");
+        savedCacheDir = CompilerUtils.cacheDir;
+        CompilerUtils.cacheDir = tempDir.resolve("cache");
+    }
+
+    @AfterEach
+    void restore() {
+        CompilerUtils.cacheDir = savedCacheDir;
+    }
+
+    /** Writes demo/<className>.java, with a FileInputStream leaked on line 6. */
+    Path leakyFile(String className) throws Exception {
+        Path file = projectRoot.resolve("src/demo/" + className + ".java");
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, String.join("\n",
+                "package demo;",
+                "import java.io.*;",
+                "public class " + className + " {",
+                "    public void read(String p) {",
+                "        try {",
+                "            FileInputStream in = new FileInputStream(p);", // leak → 6
+                "            in.read();",
+                "        } catch (IOException e) {",
+                "            e.printStackTrace();",
+                "        }", // finally below → 10
+                "    }",
+                "}",
+                ""));
+        return file;
+    }
+
+    /** One JSONL prompt line, as RLPatcherRunner.py writes it. */
+    static String prompt(String name, Path file) {
+        JsonArray cf = new JsonArray();
+        cf.add(file + ":6: warning: [required.method.not.called] @MustCall method close may not have been"
+                + " invoked on new FileInputStream(p) or any of its aliases.\n"
+                + "The type of object is: java.io.FileInputStream.\n"
+                + "$$ 1 $$ method close $$ new FileInputStream(p) $$");
+        JsonArray hint = new JsonArray();
+        hint.add("vim +6 " + file + "\nAdd following code below line: 10\nfinally { in.close(); }");
+        JsonObject obj = new JsonObject();
+        obj.addProperty("name", name);
+        obj.add("CF Leaks", cf);
+        obj.add("RLFixer hint", hint);
+        return obj.toString();
+    }
+
+    Path batch(String... lines) throws Exception {
+        Path input = tempDir.resolve("prompts.jsonl");
+        Files.write(input, Arrays.asList(lines));
+        return input;
+    }
+
+    @Test
+    void patchFileThatCannotBeCreated_isAnErrorRow_andTheBatchGoesOn() throws Exception {
+        Path file = leakyFile("Demo");
+        String source = Files.readString(file);
+        String longName = "x".repeat(326); // longer than a file name may be
+
+        RLPatcher.runBatch(batch(prompt(longName, file), prompt("demo", file)), outDir, 1);
+
+        List<String> summary = Files.readAllLines(outDir.resolve("summary.tsv"));
+        assertEquals(3, summary.size(), summary.toString());
+        assertTrue(summary.get(1).startsWith(longName + "\tERROR\t"), summary.get(1));
+        assertEquals("demo\tSUCCESS\t" + file + "\t\t6", summary.get(2));
+        assertTrue(Files.readString(outDir.resolve("demo.patch")).contains("try (FileInputStream in = new FileInputStream(p))"));
+        assertEquals(source, Files.readString(file), "source left as it was");
+    }
+
+    @Test
+    void twoJobs_keepTheInputOrder_andWriteOnePatchPerPrompt() throws Exception {
+        Path a = leakyFile("A"), b = leakyFile("B");
+        String sourceA = Files.readString(a), sourceB = Files.readString(b);
+
+        RLPatcher.runBatch(batch(prompt("a", a), prompt("b", b)), outDir, 2);
+
+        assertEquals(List.of("name\tstatus\tfile\tdropped\tlines", "a\tSUCCESS\t" + a + "\t\t6", "b\tSUCCESS\t" + b + "\t\t6"),
+                Files.readAllLines(outDir.resolve("summary.tsv")));
+        String patchA = Files.readString(outDir.resolve("a.patch")), patchB = Files.readString(outDir.resolve("b.patch"));
+        assertTrue(patchA.contains("--- " + a) && !patchA.contains(b.toString()), patchA);
+        assertTrue(patchB.contains("--- " + b) && !patchB.contains(a.toString()), patchB);
+        assertTrue(patchA.contains("try (FileInputStream in = new FileInputStream(p))"), patchA);
+        assertTrue(patchB.contains("try (FileInputStream in = new FileInputStream(p))"), patchB);
+        assertEquals(sourceA, Files.readString(a), "sources left as they were");
+        assertEquals(sourceB, Files.readString(b), "sources left as they were");
+    }
+}
@@ -0,0 +1,153 @@
+package com.rlc.fixer;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks UnifiedDiff against GNU diff -u, and that its output applies with
+ * GNU patch.
+ */
+class UnifiedDiffTest {
+
+    @TempDir
+    Path tempDir;
+
+    static String text(String... lines) {
+        return String.join("\n", lines) + "\n";
+    }
+
+    static String numbered(int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 1; i <= count; i++) sb.append("line ").append(i).append('\n');
+        return sb.toString();
+    }
+
+    /** Checks the diff against diff -u and applies it with patch. */
+    void check(String original, String modified) throws Exception {
+        List<String> ours = UnifiedDiff.diff("a", "b", original, modified);
+        assertEquals(gnuDiff(original, modified), ours);
+        if (!ours.isEmpty()) {
+            assertEquals(modified, patch(original, ours));
+        }
+    }
+
+    List<String> gnuDiff(String original, String modified) throws Exception {
+        Path a = tempDir.resolve("a"), b = tempDir.resolve("b");
+        Files.writeString(a, original);
+        Files.writeString(b, modified);
+        Process p = new ProcessBuilder("diff", "-u", "a", "b").directory(tempDir.toFile()).start();
+        List<String> out = new ArrayList<>(Arrays.asList(
+                new String(p.getInputStream().readAllBytes(), StandardCharsets.UTF_8).split("\n", -1)));
+        assertTrue(p.waitFor() <= 1, "diff failed");
+        out.remove(out.size() - 1);                 // after the last newline
+        if (out.isEmpty()) return out;
+        out.set(0, "--- a");                        // without the timestamps
+        out.set(1, "+++ b");
+        return out;
+    }
+
+    String patch(String original, List<String> diff) throws Exception {
+        Path target = tempDir.resolve("target"), patchFile = tempDir.resolve("diff.patch");
+        Files.writeString(target, original);
+        Files.write(patchFile, diff);
+        Process p = new ProcessBuilder("patch", "-s", "--forward", "-u", target.toString(), "-i", patchFile.toString())
+                .redirectErrorStream(true).start();
+        String log = new String(p.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        assertEquals(0, p.waitFor(), log);
+        return Files.exists(target) ? Files.readString(target) : "";
+    }
+
+    static long hunks(List<String> diff) {
+        return diff.stream().filter(l -> l.startsWith("@@")).count();
+    }
+
+    @BeforeAll
+    static void needsDiffAndPatch() {
+        for (String tool : new String[]{"diff", "patch"}) {
+            try {
+                Assumptions.assumeTrue(new ProcessBuilder(tool, "--version").start().waitFor() == 0, tool);
+            } catch (IOException | InterruptedException e) {
+                Assumptions.abort(tool + " is not installed");
+            }
+        }
+    }
+
+    @Test
+    void equalTexts_giveNoDiff() {
+        assertTrue(UnifiedDiff.diff("a", "b", "x\ny\n", "x\ny\n").isEmpty());
+        assertTrue(UnifiedDiff.diff("a", "b", "", "").isEmpty());
+    }
+
+    @Test
+    void noTrailingNewline() throws Exception {
+        check("x\ny", "x\nz");                      // on both sides
+        check("x\ny", "x\ny\n");                    // only the newline added
+        check("x\ny\n", "x\ny");                    // only the newline removed
+        check(text("x", "y", "z"), "x\ny\nz\nw");
+        List<String> diff = UnifiedDiff.diff("a", "b", "x\ny", "x\ny\n");
+        assertTrue(diff.contains("\\ No newline at end of file"), diff.toString());
+    }
+
+    @Test
+    void emptyFiles() throws Exception {
+        check("", text("x", "y"));
+        check(text("x", "y"), "");
+        check("", "x");
+        check("x", "");
+        assertEquals("@@ -0,0 +1,2 @@", UnifiedDiff.diff("a", "b", "", text("x", "y")).get(2));
+    }
+
+    @Test
+    void adjacentHunks_areMergedUpToSixLinesApart() throws Exception {
+        String original = numbered(30);
+        String sixApart = original.replace("line 5\n", "five\n").replace("line 12\n", "twelve\n");
+        String sevenApart = original.replace("line 5\n", "five\n").replace("line 13\n", "thirteen\n");
+        check(original, sixApart);
+        check(original, sevenApart);
+        assertEquals(1, hunks(UnifiedDiff.diff("a", "b", original, sixApart)));
+        assertEquals(2, hunks(UnifiedDiff.diff("a", "b", original, sevenApart)));
+    }
+
+    @Test
+    void contextIsClippedAtTheEnds() throws Exception {
+        String original = numbered(10);
+        check(original, original.replace("line 1\n", "one\n"));
+        check(original, original.replace("line 10\n", "ten\n"));
+        check(original, original.replace("line 2\n", "").replace("line 9\n", ""));
+    }
+
+    @Test
+    void ambiguousAlignments_matchDiff() throws Exception {
+        // Runs of equal lines that an insertion or deletion could be placed in
+        check(text("b", "a", "a", "a", "b", "e", "b", "b"), text("b", "a", "c", "a", "a", "a", "b", "b", "e", "b", "b", "c"));
+        check(text("b", "a", "d", "d", "a", "c", "b", "a", "e"), text("b", "c", "d", "a", "c", "b", "e"));
+        check(text("{", "}", "}", "}"), text("{", "}", "}", "}", "}", "}"));
+    }
+
+    @Test
+    void randomEdits_matchDiffAndApply() throws Exception {
+        Random random = new Random(42);
+        for (int t = 0; t < 300; t++) {
+            int alphabet = 2 + random.nextInt(t % 2 == 0 ? 4 : 40);
+            List<String> a = new ArrayList<>();
+            for (int i = random.nextInt(40); i > 0; i--) a.add("l" + random.nextInt(alphabet));
+            List<String> b = new ArrayList<>(a);
+            for (int e = random.nextInt(8); e > 0; e--) {
+                int op = random.nextInt(3);
+                if (op == 0 && !b.isEmpty()) b.remove(random.nextInt(b.size()));
+                else if (op == 1) b.add(random.nextInt(b.size() + 1), "l" + random.nextInt(alphabet));
+                else if (!b.isEmpty()) b.set(random.nextInt(b.size()), "l" + random.nextInt(alphabet));
+            }
+            String original = String.join("\n", a) + (a.isEmpty() || random.nextInt(4) == 0 ? "" : "\n");
+            String modified = String.join("\n", b) + (b.isEmpty() || random.nextInt(4) == 0 ? "" : "\n");
+            check(original, modified);
+        }
+    }
+}
@@ -0,0 +1,542 @@
+package com.rlc.fixer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * In-memory unified diff in the format of {@code diff -u}: three lines of
+ * context, hunks closer than six lines merged, and "\ No newline at end of
+ * file" markers, so that the output applies with GNU {@code patch}.
+ * <p>
+ * The lines are aligned the way GNU diff aligns them, so the output is
+ * normally the same as {@code diff -u}: the common prefix and suffix are
+ * skipped, lines that don't occur in the other file are set aside, the rest
+ * is compared with Myers' divide-and-conquer algorithm (giving up on a
+ * minimal script for very different files, like diff), and the runs of
+ * changes are then slid to diff's preferred position.
+ */
+public class UnifiedDiff {
+
+    private static final int CONTEXT = 3;
+    private static final String NO_NEWLINE = "\\ No newline at end of file";
+
+    private static final char EQUAL = ' ', DELETE = '-', INSERT = '+';
+
+    private final String[] a, b;
+    private final boolean aNewline, bNewline;
+
+    private UnifiedDiff(String original, String modified) {
+        a = lines(original);
+        b = lines(modified);
+        aNewline = original.isEmpty() || original.endsWith("\n");
+        bNewline = modified.isEmpty() || modified.endsWith("\n");
+    }
+
+    /**
+     * Returns the unified diff from {@code original} to {@code modified}, with
+     * {@code oldLabel} and {@code newLabel} as the file names in the header, or
+     * an empty list if the texts are equal.
+     */
+    public static List<String> diff(String oldLabel, String newLabel, String original, String modified) {
+        List<String> out = new ArrayList<>();
+        if (original.equals(modified))
+            return out;
+        UnifiedDiff d = new UnifiedDiff(original, modified);
+        out.add("--- " + oldLabel);
+        out.add("+++ " + newLabel);
+        d.writeHunks(d.editScript(), out);
+        return out;
+    }
+
+    private static String[] lines(String text) {
+        if (text.isEmpty())
+            return new String[0];
+        String[] lines = text.split("\n", -1);
+        return text.endsWith("\n") ? Arrays.copyOf(lines, lines.length - 1) : lines;
+    }
+
+    // A last line without a newline differs from the same text with one, as in diff
+    private boolean equal(int i, int j) {
+        return a[i].equals(b[j]) && (i == a.length - 1 && !aNewline) == (j == b.length - 1 && !bNewline);
+    }
+
+    /** One of EQUAL, DELETE, INSERT per line of the alignment of a and b. */
+    private char[] editScript() {
+        int prefix = 0;
+        while (prefix < a.length && prefix < b.length && equal(prefix, prefix))
+            prefix++;
+        int suffix = 0;
+        while (suffix < a.length - prefix && suffix < b.length - prefix
+                && equal(a.length - 1 - suffix, b.length - 1 - suffix))
+            suffix++;
+        // Like diff, keep CONTEXT lines of the common prefix and suffix, which
+        // the discarding and the shifting take into account
+        int lo = Math.max(0, prefix - CONTEXT);
+        int skippedSuffix = Math.max(0, suffix - CONTEXT);
+
+        // The equivalence class of each line that is left
+        HashMap<String, Integer> classes = new HashMap<>();
+        int[] aClasses = new int[a.length - skippedSuffix - lo], bClasses = new int[b.length - skippedSuffix - lo];
+        for (int i = 0; i < aClasses.length; i++)
+            aClasses[i] = classes.computeIfAbsent(key(a, aNewline, lo + i), k -> classes.size());
+        for (int j = 0; j < bClasses.length; j++)
+            bClasses[j] = classes.computeIfAbsent(key(b, bNewline, lo + j), k -> classes.size());
+
+        // Index k + 1 of a changed array is line k of the classes; 0 and
+        // length + 1 are guards
+        boolean[] aChanged = new boolean[aClasses.length + 2], bChanged = new boolean[bClasses.length + 2];
+        new Comparison(aClasses, bClasses, aChanged, bChanged, classes.size()).run();
+        shiftBoundaries(aChanged, bChanged, aClasses);
+        shiftBoundaries(bChanged, aChanged, bClasses);
+
+        StringBuilder ops = new StringBuilder();
+        for (int i = 0; i < lo; i++)
+            ops.append(EQUAL);
+        int x = 1, y = 1;
+        while (x <= aClasses.length || y <= bClasses.length) {
+            if (x <= aClasses.length && aChanged[x]) {
+                ops.append(DELETE);
+                x++;
+            } else if (y <= bClasses.length && bChanged[y]) {
+                ops.append(INSERT);
+                y++;
+            } else {
+                ops.append(EQUAL);
+                x++;
+                y++;
+            }
+        }
+        for (int i = 0; i < skippedSuffix; i++)
+            ops.append(EQUAL);
+        return ops.toString().toCharArray();
+    }
+
+    private static String key(String[] lines, boolean newline, int i) {
+        return i == lines.length - 1 && !newline ? lines[i] : lines[i] + "\n";
+    }
+
+    /**
+     * Marks the changed lines of two sequences of equivalence classes, as
+     * diff's discard_confusing_lines and compareseq do.
+     */
+    private static class Comparison {
+        private final int[] xClasses, yClasses;
+        private final boolean[] xChanged, yChanged;
+        private final int classCount;
+        // The lines that are compared, and their indexes in xClasses and yClasses
+        private int[] x, y, xIndexes, yIndexes;
+        // The furthest reaching x on each diagonal k, at index k + diagonalOffset
+        private int[] forward, backward;
+        private int diagonalOffset;
+        private int tooExpensive;
+
+        // Where diag splits a sequence, and whether each half must be minimal
+        private int xMid, yMid;
+        private boolean loMinimal, hiMinimal;
+
+        Comparison(int[] xClasses, int[] yClasses, boolean[] xChanged, boolean[] yChanged, int classCount) {
+            this.xClasses = xClasses;
+            this.yClasses = yClasses;
+            this.xChanged = xChanged;
+            this.yChanged = yChanged;
+            this.classCount = classCount;
+        }
+
+        void run() {
+            byte[] xDiscards = discards(xClasses, yClasses), yDiscards = discards(yClasses, xClasses);
+            x = undiscarded(xClasses, xDiscards, xChanged);
+            xIndexes = realIndexes(xDiscards, x.length);
+            y = undiscarded(yClasses, yDiscards, yChanged);
+            yIndexes = realIndexes(yDiscards, y.length);
+
+            diagonalOffset = y.length + 1;
+            forward = new int[x.length + y.length + 3];
+            backward = new int[x.length + y.length + 3];
+            tooExpensive = 1;
+            for (int diagonals = x.length + y.length + 3; diagonals != 0; diagonals >>= 2)
+                tooExpensive <<= 1;
+            tooExpensive = Math.max(4096, tooExpensive);
+            compare(0, x.length, 0, y.length, false);
+        }
+
+        /*
+         * 1 for each line that matches no line of the other file, and 2 for
+         * one that matches many, where it is in a run of discardable lines
+         * whose first and last aren't 2.
+         */
+        private byte[] discards(int[] classes, int[] otherClasses) {
+            int[] otherCounts = new int[classCount];
+            for (int c : otherClasses)
+                otherCounts[c]++;
+            int many = 5;
+            for (int tem = classes.length / 64; (tem >>= 2) > 0;)
+                many *= 2;
+            byte[] discards = new byte[classes.length];
+            for (int i = 0; i < classes.length; i++) {
+                int matches = otherCounts[classes[i]];
+                if (matches == 0)
+                    discards[i] = 1;
+                else if (matches > many)
+                    discards[i] = 2;
+            }
+
+            int end = discards.length;
+            for (int i = 0; i < end; i++) {
+                // Cancel provisional discards not in the middle of a run of discards
+                if (discards[i] == 2) {
+                    discards[i] = 0;
+                    continue;
+                }
+                if (discards[i] == 0)
+                    continue;
+                int j, provisional = 0;
+                for (j = i; j < end && discards[j] != 0; j++)
+                    if (discards[j] == 2)
+                        provisional++;
+                while (j > i && discards[j - 1] == 2) {
+                    discards[--j] = 0;
+                    provisional--;
+                }
+                int length = j - i;
+
+                // Keep the provisional discards only if they are less than a
+                // quarter of the run, and not in long subruns
+                if (provisional * 4 > length) {
+                    while (j > i)
+                        if (discards[--j] == 2)
+                            discards[j] = 0;
+                    continue;
+                }
+                int minimum = 1;
+                for (int tem = length >> 2; (tem >>= 2) > 0;)
+                    minimum <<= 1;
+                minimum++;
+                int consecutive = 0;
+                for (j = 0; j < length; j++) {
+                    if (discards[i + j] != 2)
+                        consecutive = 0;
+                    else if (minimum == ++consecutive)
+                        j -= consecutive;
+                    else if (minimum < consecutive)
+                        discards[i + j] = 0;
+                }
+
+                // Nor before the first 3 nonprovisionals in a row (or the
+                // first nonprovisional 8 lines in), and the same from the end
+                consecutive = 0;
+                for (j = 0; j < length; j++) {
+                    if (j >= 8 && discards[i + j] == 1)
+                        break;
+                    if (discards[i + j] == 2) {
+                        consecutive = 0;
+                        discards[i + j] = 0;
+                    } else if (discards[i + j] == 0) {
+                        consecutive = 0;
+                    } else if (++consecutive == 3) {
+                        break;
+                    }
+                }
+                i += length - 1;
+                consecutive = 0;
+                for (j = 0; j < length; j++) {
+                    if (j >= 8 && discards[i - j] == 1)
+                        break;
+                    if (discards[i - j] == 2) {
+                        consecutive = 0;
+                        discards[i - j] = 0;
+                    } else if (discards[i - j] == 0) {
+                        consecutive = 0;
+                    } else if (++consecutive == 3) {
+                        break;
+                    }
+                }
+            }
+            return discards;
+        }
+
+        // The discarded lines are changed; returns the classes of the others
+        private static int[] undiscarded(int[] classes, byte[] discards, boolean[] changed) {
+            int[] kept = new int[classes.length];
+            int count = 0;
+            for (int i = 0; i < classes.length; i++) {
+                if (discards[i] == 0)
+                    kept[count++] = classes[i];
+                else
+                    changed[i + 1] = true;
+            }
+            return Arrays.copyOf(kept, count);
+        }
+
+        private static int[] realIndexes(byte[] discards, int count) {
+            int[] indexes = new int[count];
+            int k = 0;
+            for (int i = 0; i < discards.length; i++)
+                if (discards[i] == 0)
+                    indexes[k++] = i;
+            return indexes;
+        }
+
+        /* Marks the changes between x[xOff, xLim) and y[yOff, yLim). */
+        private void compare(int xOff, int xLim, int yOff, int yLim, boolean findMinimal) {
+            while (xOff < xLim && yOff < yLim && x[xOff] == y[yOff]) {
+                xOff++;
+                yOff++;
+            }
+            while (xOff < xLim && yOff < yLim && x[xLim - 1] == y[yLim - 1]) {
+                xLim--;
+                yLim--;
+            }
+            if (xOff == xLim) {
+                for (int j = yOff; j < yLim; j++)
+                    yChanged[yIndexes[j] + 1] = true;
+            } else if (yOff == yLim) {
+                for (int i = xOff; i < xLim; i++)
+                    xChanged[xIndexes[i] + 1] = true;
+            } else {
+                diag(xOff, xLim, yOff, yLim, findMinimal);
+                int mx = xMid, my = yMid;
+                boolean lo = loMinimal, hi = hiMinimal;
+                compare(xOff, mx, yOff, my, lo);
+                compare(mx, xLim, my, yLim, hi);
+            }
+        }
+
+        /*
+         * Finds the midpoint of the shortest edit script for x[xOff, xLim) and
+         * y[yOff, yLim), searching forward from the start and backward from the
+         * end at the same time. Unless findMinimal is set, it settles for the
+         * furthest point reached after tooExpensive edits.
+         */
+        private void diag(int xOff, int xLim, int yOff, int yLim, boolean findMinimal) {
+            int[] fd = forward, bd = backward;
+            int o = diagonalOffset;
+            int dMin = xOff - yLim, dMax = xLim - yOff;
+            int fMid = xOff - yOff, bMid = xLim - yLim;
+            int fMin = fMid, fMax = fMid, bMin = bMid, bMax = bMid;
+            boolean odd = ((fMid - bMid) & 1) != 0;
+            fd[o + fMid] = xOff;
+            bd[o + bMid] = xLim;
+
+            for (int c = 1;; c++) {
+                if (fMin > dMin)
+                    fd[o + --fMin - 1] = -1;
+                else
+                    fMin++;
+                if (fMax < dMax)
+                    fd[o + ++fMax + 1] = -1;
+                else
+                    fMax--;
+                for (int d = fMax; d >= fMin; d -= 2) {
+                    int tlo = fd[o + d - 1], thi = fd[o + d + 1];
+                    int i = tlo < thi ? thi : tlo + 1, j = i - d;
+                    while (i < xLim && j < yLim && x[i] == y[j]) {
+                        i++;
+                        j++;
+                    }
+                    fd[o + d] = i;
+                    if (odd && bMin <= d && d <= bMax && bd[o + d] <= i) {
+                        split(i, j, true, true);
+                        return;
+                    }
+                }
+
+                if (bMin > dMin)
+                    bd[o + --bMin - 1] = Integer.MAX_VALUE;
+                else
+                    bMin++;
+                if (bMax < dMax)
+                    bd[o + ++bMax + 1] = Integer.MAX_VALUE;
+                else
+                    bMax--;
+                for (int d = bMax; d >= bMin; d -= 2) {
+                    int tlo = bd[o + d - 1], thi = bd[o + d + 1];
+                    int i = tlo < thi ? tlo : thi - 1, j = i - d;
+                    while (xOff < i && yOff < j && x[i - 1] == y[j - 1]) {
+                        i--;
+                        j--;
+                    }
+                    bd[o + d] = i;
+                    if (!odd && fMin <= d && d <= fMax && i <= fd[o + d]) {
+                        split(i, j, true, true);
+                        return;
+                    }
+                }
+
+                if (findMinimal || c < tooExpensive)
+                    continue;
+
+                // Too expensive: split at the furthest point reached forward or backward
+                int fxyBest = -1, fxBest = 0;
+                for (int d = fMax; d >= fMin; d -= 2) {
+                    int i = Math.min(fd[o + d], xLim), j = i - d;
+                    if (yLim < j) {
+                        i = yLim + d;
+                        j = yLim;
+                    }
+                    if (fxyBest < i + j) {
+                        fxyBest = i + j;
+                        fxBest = i;
+                    }
+                }
+                int bxyBest = Integer.MAX_VALUE, bxBest = 0;
+                for (int d = bMax; d >= bMin; d -= 2) {
+                    int i = Math.max(xOff, bd[o + d]), j = i - d;
+                    if (j < yOff) {
+                        i = yOff + d;
+                        j = yOff;
+                    }
+                    if (i + j < bxyBest) {
+                        bxyBest = i + j;
+                        bxBest = i;
+                    }
+                }
+                if ((xLim + yLim) - bxyBest < fxyBest - (xOff + yOff))
+                    split(fxBest, fxyBest - fxBest, true, false);
+                else
+                    split(bxBest, bxyBest - bxBest, false, true);
+                return;
+            }
+        }
+
+        private void split(int i, int j, boolean lo, boolean hi) {
+            xMid = i;
+            yMid = j;
+            loMinimal = lo;
+            hiMinimal = hi;
+        }
+    }
+
+    /*
+     * Slides each run of changed lines over equal lines, as diff's
+     * shift_boundaries does: runs merge where they can, and otherwise line up
+     * with a run of changes in the other file or end as late as possible.
+     */
+    private static void shiftBoundaries(boolean[] changed, boolean[] otherChanged, int[] classes) {
+        int end = classes.length + 1;
+        int i = 1, j = 1;
+        while (true) {
+            // The next run of changes, and the corresponding point in the other file
+            while (i < end && !changed[i]) {
+                while (otherChanged[j])
+                    j++;
+                i++;
+                j++;
+            }
+            if (i == end)
+                break;
+            int start = i;
+            while (changed[++i])
+                ;
+            while (otherChanged[j])
+                j++;
+
+            int corresponding, runLength;
+            do {
+                runLength = i - start;
+                // Move the run back while the line before it equals its last line
+                while (start > 1 && classes[start - 2] == classes[i - 2]) {
+                    changed[--start] = true;
+                    changed[--i] = false;
+                    while (changed[start - 1])
+                        start--;
+                    while (otherChanged[--j])
+                        ;
+                }
+                corresponding = otherChanged[j - 1] ? i : end;
+                // Then forward while the line after it equals its first line
+                while (i != end && classes[start - 1] == classes[i - 1]) {
+                    changed[start++] = false;
+                    changed[i++] = true;
+                    while (changed[i])
+                        i++;
+                    while (otherChanged[++j])
+                        corresponding = i;
+                }
+            } while (runLength != i - start);
+
+            // Back to where it lines up with a run of changes in the other file, if any
+            while (corresponding < i) {
+                changed[--start] = true;
+                changed[--i] = false;
+                while (otherChanged[--j])
+                    ;
+            }
+        }
+    }
+
+    private void writeHunks(char[] ops, List<String> out) {
+        // Lines of a and b before each op
+        int[] aBefore = new int[ops.length + 1], bBefore = new int[ops.length + 1];
+        for (int i = 0; i < ops.length; i++) {
+            aBefore[i + 1] = aBefore[i] + (ops[i] != INSERT ? 1 : 0);
+            bBefore[i + 1] = bBefore[i] + (ops[i] != DELETE ? 1 : 0);
+        }
+
+        int i = 0;
+        while (i < ops.length) {
+            if (ops[i] == EQUAL) {
+                i++;
+                continue;
+            }
+            // A hunk runs until a change is followed by more than 2 * CONTEXT equal lines
+            int start = Math.max(0, i - CONTEXT);
+            int end = i;
+            int j = i;
+            while (j < ops.length) {
+                if (ops[j] != EQUAL) {
+                    end = j + 1;
+                    j++;
+                } else if (j - end >= 2 * CONTEXT) {
+                    break;
+                } else {
+                    j++;
+                }
+            }
+            end = Math.min(ops.length, end + CONTEXT);
+            writeHunk(ops, start, end, aBefore, bBefore, out);
+            i = end;
+        }
+    }
+
+    private void writeHunk(char[] ops, int start, int end, int[] aBefore, int[] bBefore, List<String> out) {
+        int aCount = aBefore[end] - aBefore[start], bCount = bBefore[end] - bBefore[start];
+        out.add("@@ -" + range(aBefore[start], aCount) + " +" + range(bBefore[start], bCount) + " @@");
+        int i = start;
+        while (i < end) {
+            if (ops[i] == EQUAL) {
+                writeLine(EQUAL, aBefore[i], out);
+                i++;
+                continue;
+            }
+            // Within a block of changes, diff prints the deleted lines first
+            int blockEnd = i;
+            while (blockEnd < end && ops[blockEnd] != EQUAL)
+                blockEnd++;
+            for (int k = i; k < blockEnd; k++)
+                if (ops[k] == DELETE)
+                    writeLine(DELETE, aBefore[k], out);
+            for (int k = i; k < blockEnd; k++)
+                if (ops[k] == INSERT)
+                    writeLine(INSERT, bBefore[k], out);
+            i = blockEnd;
+        }
+    }
+
+    private void writeLine(char op, int line, List<String> out) {
+        String[] lines = op == INSERT ? b : a;
+        boolean newline = op == INSERT ? bNewline : aNewline;
+        out.add(op + lines[line]);
+        if (line == lines.length - 1 && !newline)
+            out.add(NO_NEWLINE);
+    }
+
+    // diff's "start,count": the count is left out when it is 1, and an empty
+    // range starts at the line before it
+    private static String range(int linesBefore, int count) {
+        if (count == 1)
+            return String.valueOf(linesBefore + 1);
+        return (count == 0 ? linesBefore : linesBefore + 1) + "," + count;
+    }
+}
@@ -0,0 +1,37 @@
+#!/bin/bash
+# Checks that main.BatchMain finds the same fixes as separate main.Main runs.
+# Builds two projects out of the tests in this directory, analyzes each with
+# Main, then both with one BatchMain, and diffs the outputs.
+#
+# Usage: JAVA8_HOME=<a Java 8 JDK> ./batch_equivalence.sh
+. "$(dirname "$0")/test_utils.sh"
+
+PROJECTS="a b"
+make_project a loop_fixes try-catch_fixes
+make_project b resource_classification_tests return_fixes param_fixes throws_fixes
+
+: > "$WORK/batch"
+for name in $PROJECTS; do
+	p=$WORK/$name
+	run_main $name main
+	printf '%s\t%s\t\t%s\t%s\t%s\t%s\t\t%s\t%s\n' "$name" "$p/classes" "$p/info/classes" "$p/info/sources" \
+		"$p" "$(cat "$p/warnings")" "$p/batch.debug" "$p/batch.out" >> "$WORK/batch"
+done
+$RUN main.BatchMain -batchFile "$WORK/batch"
+
+status=0
+for name in $PROJECTS; do
+	p=$WORK/$name
+	for ext in out debug; do
+		if ! diff <(normalize "$p/main.$ext") <(normalize "$p/batch.$ext"); then
+			echo "FAIL: $name: BatchMain and Main $ext differ"
+			status=1
+		fi
+	done
+	if ! grep -q 'SOURCE LEVEL FIXES' "$p/main.out"; then
+		echo "FAIL: $name: Main found no fixes"
+		status=1
+	fi
+done
+[ $status -eq 0 ] && echo "OK: BatchMain matches Main on: $PROJECTS"
+exit $status
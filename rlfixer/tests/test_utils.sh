@@ -0,0 +1,59 @@
+# Shared by the test scripts in this directory (source it).
+# Compiles RLFixer into a temporary directory, removed on exit.
+# Needs JAVA8_HOME (or JAVA_HOME) to be a Java 8 JDK, which WALA needs.
+set -e
+
+TESTS=$(cd "$(dirname "$0")" && pwd)
+LIB=$TESTS/../lib
+JAVA8_HOME=${JAVA8_HOME:-$JAVA_HOME}
+WORK=$(mktemp -d)
+trap 'rm -rf "$WORK"' EXIT
+
+mkdir "$WORK/rlfixer"
+"$JAVA8_HOME/bin/javac" -encoding UTF-8 -nowarn -cp "$LIB/*" -d "$WORK/rlfixer" "$TESTS"/../wala/src/*/*.java
+RUN="$JAVA8_HOME/bin/java -cp $LIB/*:$WORK/rlfixer"
+
+# make_project <name> <test dir or file>...
+# Takes the tests whose header warns about their own file.
+make_project() {
+	local p=$WORK/$1
+	shift
+	mkdir -p "$p/src" "$p/classes" "$p/info"
+	local warnings=""
+	for test in "$@"; do
+		for f in "$TESTS/$test" "$TESTS/$test"/*.java; do
+			[ -f "$f" ] || continue
+			local w=$(sed -n '/\/\* Warning/{n;p;q}' "$f" | cut -d'#' -f1)
+			case "$w" in
+				"$(basename "$f"),"*) ;;
+				*) continue ;;
+			esac
+			cp "$f" "$p/src/"
+			warnings="$warnings$w,False#"
+		done
+	done
+	"$JAVA8_HOME/bin/javac" -g -nowarn -d "$p/classes" "$p"/src/*.java
+	(cd "$p" && ls src/*.java > info/sources && ls classes | sed 's/\.class$//' > info/classes)
+	echo "$warnings" > "$p/warnings"
+}
+
+# run_main <name> <output prefix> [more arguments of Main]
+# Writes <project>/<prefix>.out and <project>/<prefix>.debug.
+run_main() {
+	local p=$WORK/$1
+	local out=$p/$2
+	shift 2
+	$RUN main.Main -classpath "$p/classes" -warnings "$(cat "$p/warnings")" -appClasses "$p/info/classes" \
+		-srcFiles "$p/info/sources" -projectDir "$p" -debugOutput "$out.debug" "$@" > "$out.out"
+}
+
+# Drops the timings and sorts the escape types, which come out of a HashSet.
+normalize() {
+	grep -v '^[0-9]*$\|critical path\|: done in\|Batch finished' "$1" \
+		| awk -F'^' -v OFS='^' 'NF > 6 && $7 != "NULL" {
+			n = split($7, t, ","); s = ""
+			for (i = 1; i <= n; i++) for (j = i + 1; j <= n; j++) if (t[j] < t[i]) { x = t[i]; t[i] = t[j]; t[j] = x }
+			for (i = 1; i <= n; i++) if (t[i] != "") s = s t[i] ","
+			$7 = s
+		} { print }'
+}
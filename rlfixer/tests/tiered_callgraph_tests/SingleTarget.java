@@ -0,0 +1,27 @@
+/* Warning
+SingleTarget.java,15,null#
+*/
+
+import java.io.FileWriter;
+import java.io.IOException;
+
+public class SingleTarget {
+	static abstract class Factory {
+		abstract FileWriter make() throws IOException;
+	}
+
+	static class FileFactory extends Factory {
+		public FileWriter make() throws IOException {
+			FileWriter w = new FileWriter("a.txt");
+			return w;
+		}
+	}
+
+	// Never assigned, so a 0-CFA callgraph has no target for factory.make
+	static Factory factory;
+
+	public static void main(String[] args) throws IOException {
+		FileWriter w = factory.make();
+		w.write("foo");
+	}
+}
@@ -0,0 +1,33 @@
+/* Warning
+TwoTargets.java,26,null#
+*/
+
+import java.io.FileWriter;
+import java.io.IOException;
+
+public class TwoTargets {
+	static abstract class Sink {
+		abstract void take(FileWriter w) throws IOException;
+	}
+
+	static class ClosingSink extends Sink {
+		void take(FileWriter w) throws IOException {
+			w.close();
+		}
+	}
+
+	static class WritingSink extends Sink {
+		void take(FileWriter w) throws IOException {
+			w.write("foo");
+		}
+	}
+
+	static void send(Sink sink) throws IOException {
+		FileWriter w = new FileWriter("b.txt");
+		sink.take(w);
+	}
+
+	public static void main(String[] args) throws IOException {
+		send(new WritingSink());
+	}
+}
@@ -0,0 +1,45 @@
+#!/bin/bash
+# Checks that "-tiered true" finds the same fixes as a plain (0-CFA) run of
+# main.Main, and shows where it doesn't (see Main.classifyAndFixTiered).
+#
+# Usage: JAVA8_HOME=<a Java 8 JDK> ./tiered_equivalence.sh
+. "$(dirname "$0")/test_utils.sh"
+
+# The fixes and the debug output, without the tiered run's own messages.
+fixes() {
+	sed -n '/^SOURCE LEVEL FIXES/,$p' "$WORK/$1/$2.out"
+	normalize "$WORK/$1/$2.debug"
+}
+
+# checked: TwoTargets needs the 0-CFA callgraph, which is then used to check
+# the single CHA target of factory.make() in SingleTarget.
+PROJECTS="a b checked"
+make_project a loop_fixes try-catch_fixes
+make_project b resource_classification_tests return_fixes param_fixes throws_fixes
+make_project checked tiered_callgraph_tests
+# unchecked: no warning needs the 0-CFA callgraph, so the CHA target stands.
+make_project unchecked tiered_callgraph_tests/SingleTarget.java
+
+status=0
+for name in $PROJECTS unchecked; do
+	run_main $name plain
+	run_main $name tiered -tiered true
+done
+for name in $PROJECTS; do
+	if ! diff <(fixes $name plain) <(fixes $name tiered); then
+		echo "FAIL: $name: the tiered and plain runs differ"
+		status=1
+	fi
+done
+if ! grep -q 'Single-target CHA call edges missing' "$WORK/checked/tiered.out"; then
+	echo "FAIL: checked: the missing call edge wasn't found"
+	status=1
+fi
+# The known limitation: the plain run finds no callers for make(), the tiered
+# run fixes the resource in main.
+if ! grep -q 'No callers found' "$WORK/unchecked/plain.out" || grep -q 'No callers found' "$WORK/unchecked/tiered.out"; then
+	echo "FAIL: unchecked: expected the tiered run to keep the CHA caller of make()"
+	status=1
+fi
+[ $status -eq 0 ] && echo "OK: the tiered runs match the plain runs on: $PROJECTS"
+exit $status
@@ -0,0 +1,95 @@
+package main;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Properties;
+
+import com.ibm.wala.util.io.CommandLine;
+
+import sourceFixStrategies.CallerFixMemo;
+import utils.ProgramInfo;
+
+/*
+ * Runs RLFixer on a list of projects in one JVM, one after the other.
+ * The JDK jars are read once and shared by all the projects (see
+ * utils.SharedJdkLoaderFactory); everything else is reset between projects.
+ * A project that fails (e.g. utils.AnalysisException) is reported and
+ * skipped, and the batch goes on with the next one.
+ *
+ * Usage: java main.BatchMain -batchFile <file> [-exclusions <file>] [-resourceIndexDir <dir>] [-tiered true]
+ *
+ * Each line of the batch file describes one project, with the same values as
+ * the arguments of Main, separated by tabs (an empty value means "not given"):
+ *   name  classpath  libClasspath  appClasses  srcFiles  projectDir  warnings  wpiOutDir  debugOutput  outputFile
+ * Everything RLFixer prints for a project goes to its outputFile.
+ */
+public class BatchMain {
+	private static final int NUM_FIELDS = 10;
+
+	public static void main(String[] args) throws IOException {
+		Properties p = CommandLine.parse(args);
+		String batchFile = p.getProperty("batchFile");
+		String exclusions = p.getProperty("exclusions");
+		if (batchFile == null) {
+			System.out.println("ERROR: -batchFile is required");
+			System.exit(1);
+		}
+		File exclusionsFile = null;
+		if (exclusions != null) {
+			exclusionsFile = new File(exclusions);
+		}
+		ProgramInfo.resourceIndexDir = p.getProperty("resourceIndexDir");
+		ProgramInfo.shareJdkLoader = true;
+		ProgramInfo.tieredCallgraph = "true".equals(p.getProperty("tiered"));
+
+		PrintStream stdout = System.out;
+		int done = 0, failed = 0;
+		long batchStart = System.currentTimeMillis();
+		try (BufferedReader reader = new BufferedReader(new FileReader(batchFile))) {
+			for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+				if (line.trim().isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				String[] f = line.split("\t", -1);
+				if (f.length != NUM_FIELDS) {
+					stdout.println("WARNING: Skipping malformed batch line (" + f.length + " fields): " + line);
+					failed++;
+					continue;
+				}
+				resetState();
+				long start = System.currentTimeMillis();
+				try (PrintStream out = new PrintStream(new FileOutputStream(f[9]))) {
+					System.setOut(out);
+					Main.analyzeProject(orNull(f[1]), orNull(f[2]), f[6], orNull(f[3]), orNull(f[4]), orNull(f[5]),
+							orNull(f[8]), exclusionsFile, orNull(f[7]));
+					done++;
+					stdout.println(f[0] + ": done in " + (System.currentTimeMillis() - start) + "ms");
+				} catch (Exception e) {
+					failed++;
+					stdout.println("ERROR: " + f[0] + ": " + e);
+				} finally {
+					System.setOut(stdout);
+				}
+			}
+		}
+		resetState();
+		stdout.println("Batch finished: " + done + " done, " + failed + " failed, "
+				+ (System.currentTimeMillis() - batchStart) + "ms");
+	}
+
+	// Clears all the static state left over from the previous project.
+	public static void resetState() {
+		ProgramInfo.reset();
+		FinalizerMappingLoader.reset();
+		ResourceAliasIdentification.reset();
+		CallerFixMemo.reset();
+	}
+
+	private static String orNull(String value) {
+		return value.isEmpty() ? null : value;
+	}
+}
@@ -7,14 +7,30 @@ import com.ibm.wala.ipa.callgraph.CGNode;
 
 import utils.CommonUtils;
 import utils.Pair;
+import utils.ProgramInfo;
 import utils.Warning;
 
 public class DuplicateWarningIdentification {
 
 	public static void identifyDuplicateWarnings(List<Warning> matchedWarnings) {
+		identifyDuplicateWarnings(matchedWarnings, null, null);
+	}
+
+	/*
+	 * Only decides for the warnings with recheck[i] set (all of them if null);
+	 * the others keep their flag, but still count as reported before the later
+	 * ones. If 'ambiguous' is given, ambiguous[i] is set when the decision
+	 * depends on an ambiguous callgraph lookup (through the aliases).
+	 */
+	public static void identifyDuplicateWarnings(List<Warning> matchedWarnings, boolean[] recheck, boolean[] ambiguous) {
 		HashSet<String> variableIDs = new HashSet<String>();
-		for (Warning w : matchedWarnings) {
+		for (int i = 0; i < matchedWarnings.size(); i++) {
+			Warning w = matchedWarnings.get(i);
 			String variableID = CommonUtils.getVariableId(w.matchedCgnode, w.matchedInstruction.getDef());
+			if (recheck != null && !recheck[i]) {
+				variableIDs.add(variableID);
+				continue;
+			}
 			// The the same variable-id is reported again it is a duplicate
 			if (variableIDs.contains(variableID)) {
 				w.isDuplicateWarning = true;
@@ -23,7 +39,11 @@ public class DuplicateWarningIdentification {
 				variableIDs.add(variableID);
 			}
 			// If any of its aliases is reported again it is a duplicate.
+			int lookups = ProgramInfo.getAmbiguousLookups();
 			List<Integer> resourceAliases = ResourceAliasIdentification.getAllResourceAliases(w.matchedCgnode, w.matchedInstruction.getDef());
+			if (ambiguous != null && lookups != ProgramInfo.getAmbiguousLookups()) {
+				ambiguous[i] = true;
+			}
 			for (int aliasVariableNum : resourceAliases) {
 				String aliasID = CommonUtils.getVariableId(w.matchedCgnode,aliasVariableNum);
 				if (variableIDs.contains(aliasID)) {
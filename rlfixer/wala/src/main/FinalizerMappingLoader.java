@@ -1,25 +1,27 @@
 package main;
 
-import com.github.javaparser.ParserConfiguration;
-import com.github.javaparser.StaticJavaParser;
+import com.github.javaparser.JavaParser;
 import com.github.javaparser.ast.CompilationUnit;
-import com.github.javaparser.ast.Node;
 import com.github.javaparser.ast.body.ClassOrInterfaceDeclaration;
 import com.github.javaparser.ast.expr.AnnotationExpr;
 import com.github.javaparser.ast.expr.SingleMemberAnnotationExpr;
-import com.github.javaparser.resolution.UnsolvedSymbolException;
-import com.github.javaparser.resolution.declarations.ResolvedReferenceTypeDeclaration;
-import com.github.javaparser.resolution.types.ResolvedReferenceType;
-import com.github.javaparser.symbolsolver.JavaSymbolSolver;
-import com.github.javaparser.symbolsolver.resolution.typesolvers.CombinedTypeSolver;
-import com.github.javaparser.symbolsolver.resolution.typesolvers.JavaParserTypeSolver;
-import com.github.javaparser.symbolsolver.resolution.typesolvers.ReflectionTypeSolver;
-
-import java.io.BufferedReader;
+import com.ibm.wala.classLoader.IClass;
+import com.ibm.wala.ipa.cha.IClassHierarchy;
+import com.ibm.wala.types.ClassLoaderReference;
+
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
 
 public class FinalizerMappingLoader {
 
@@ -28,6 +30,15 @@ public class FinalizerMappingLoader {
 
     public static HashSet<String> pseudoResourceClasses = new HashSet<>();
 
+    /**
+     * Clears the mappings of the previous project, so that another project
+     * can be loaded in the same JVM.
+     */
+    public static void reset() {
+        finalizerMapping.clear();
+        pseudoResourceClasses = new HashSet<>();
+    }
+
     public static void populateMappings(String WPIOutDir) {
         // If the WPIOutDir is null or empty, return early.
         if (WPIOutDir == null || WPIOutDir.isEmpty()) {
@@ -39,8 +50,53 @@ public class FinalizerMappingLoader {
             return;
         }
         ProjectInfoCollector.collectProjectInfo(WPIOutDir);
-        // Reset the JavaParser configuration
-        StaticJavaParser.setConfiguration(new ParserConfiguration());
+    }
+
+    /**
+     * Gives every class of the project the finalizer method of its closest
+     * annotated ancestor (superclasses first, then interfaces), unless it has
+     * its own. Must be called once the class hierarchy has been built; the
+     * .ajava files only contain the directly annotated classes.
+     *
+     * @param cha the class hierarchy of the analyzed program.
+     */
+    public static void propagateToSubclasses(IClassHierarchy cha) {
+        if (finalizerMapping.isEmpty()) {
+            return;
+        }
+        // Memoized over the hierarchy, so every class is visited once and
+        // always after its supertypes. "" means no finalizer.
+        Map<IClass, String> inherited = new HashMap<>();
+        for (IClass c : cha) {
+            if (!c.getClassLoader().getReference().equals(ClassLoaderReference.Primordial)) {
+                String finalizer = finalizerOf(c, inherited);
+                if (!finalizer.isEmpty()) {
+                    putFinalizerMethod(c.getName().toString(), finalizer);
+                }
+            }
+        }
+    }
+
+    private static String finalizerOf(IClass c, Map<IClass, String> inherited) {
+        String finalizer = inherited.get(c);
+        if (finalizer != null) {
+            return finalizer;
+        }
+        finalizer = getFinalizerMethodFromInference(c.getName().toString());
+        if (finalizer == null && c.getSuperclass() != null) {
+            finalizer = finalizerOf(c.getSuperclass(), inherited);
+        }
+        if (finalizer == null || finalizer.isEmpty()) {
+            finalizer = "";
+            for (IClass i : c.getDirectInterfaces()) {
+                finalizer = finalizerOf(i, inherited);
+                if (!finalizer.isEmpty()) {
+                    break;
+                }
+            }
+        }
+        inherited.put(c, finalizer);
+        return finalizer;
     }
 
     /**
@@ -122,7 +178,7 @@ class ProjectInfoCollector {
      * Recursively scans the given base directory for ".ajava" files, and for every
      * class that either has an
      *
-     * @InheritableMustCall annotation or inherits one from a superclass, collects
+     * @InheritableMustCall annotation, collects
      *                      its fully qualified name
      *                      and the set of finalizer methods. The result is then
      *                      stored in a plain text file.
@@ -141,85 +197,143 @@ class ProjectInfoCollector {
     public static void collectProjectInfo(String baseDirPath) {
         // Map: (qualified class name) -> (set of finalizer methods)
         Map<String, Set<String>> classToFinalizerMapping = new HashMap<>();
-        // Map: (qualified class name) -> ClassOrInterfaceDeclaration (for later
-        // inheritance checks)
-        Map<String, ClassOrInterfaceDeclaration> allClassesMap = new HashMap<>();
 
+        ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
         try {
-            // Set up the type solver to resolve types from standard libraries and project
-            // sources.
-            CombinedTypeSolver typeSolver = new CombinedTypeSolver();
-            typeSolver.add(new ReflectionTypeSolver());
-            typeSolver.add(new JavaParserTypeSolver(new File(baseDirPath)));
-            JavaSymbolSolver symbolSolver = new JavaSymbolSolver(typeSolver);
-            StaticJavaParser.getConfiguration().setSymbolResolver(symbolSolver);
-
             // Recursively retrieve all files ending with ".ajava".
             List<File> ajavaFiles = getAJavaFiles(new File(baseDirPath));
 
-            // First pass: Process files and record classes that are directly annotated.
-            for (File file : ajavaFiles) {
-                try {
-                    CompilationUnit cu = StaticJavaParser.parse(file);
-                    List<ClassOrInterfaceDeclaration> classes = cu.findAll(ClassOrInterfaceDeclaration.class);
-                    for (ClassOrInterfaceDeclaration clazz : classes) {
-                        String qualifiedName;
-                        try {
-                            qualifiedName = clazz.resolve().getQualifiedName();
-                        } catch (Exception e) {
-                            // Fallback: build qualified name from package declaration.
-                            qualifiedName = cu.getPackageDeclaration()
-                                    .map(pd -> pd.getNameAsString() + "." + clazz.getNameAsString())
-                                    .orElse(clazz.getNameAsString());
-                        }
-                        // Save every class for later processing.
-                        allClassesMap.put(qualifiedName, clazz);
-
-                        Optional<AnnotationExpr> annotationOpt = clazz.getAnnotationByName("InheritableMustCall");
-                        if (annotationOpt.isPresent()) {
-                            AnnotationExpr annotation = annotationOpt.get();
-                            // Assuming the annotation is of type @InheritableMustCall("finalizerMethod")
-                            if (annotation instanceof SingleMemberAnnotationExpr) {
-                                SingleMemberAnnotationExpr singleMember = (SingleMemberAnnotationExpr) annotation;
-                                String finalizerMethod = singleMember.getMemberValue().toString();
-                                // Normalize the method name (e.g. remove quotes if necessary)
-                                finalizerMethod = finalizerMethod.replaceAll("[\\{\\}\"]", "").trim();
-                                classToFinalizerMapping
-                                        .computeIfAbsent(qualifiedName, k -> new HashSet<>())
-                                        .add(finalizerMethod);
-                            }
-                        }
-                    }
-                } catch (Exception e) {
-                    System.out.println("Error parsing file: " + file.getAbsolutePath());
-                    e.printStackTrace();
-                }
+            // Only files that mention the annotation can have annotated classes.
+            List<File> annotatedFiles = filterFiles(ajavaFiles, pool, INHERITABLE_MUST_CALL);
+            ThreadLocal<JavaParser> plainParser = ThreadLocal.withInitial(JavaParser::new);
+            for (Map<String, Set<String>> fileMapping : runOnFiles(annotatedFiles, pool,
+                    file -> collectAnnotatedClasses(plainParser.get(), file))) {
+                mergeInto(classToFinalizerMapping, fileMapping);
+            }
+
+            // Subclasses inherit the finalizer of their annotated ancestors. That is
+            // computed later over the class hierarchy, see propagateToSubclasses.
+            for (Map.Entry<String, Set<String>> entry : classToFinalizerMapping.entrySet()) {
+                FinalizerMappingLoader.putFinalizerMethod(entry.getKey(), entry.getValue().iterator().next());
             }
 
-            // Second pass: For every class, check its inheritance chain.
-            // If any ancestor (direct or indirect) has finalizer methods, add them.
-            for (Map.Entry<String, ClassOrInterfaceDeclaration> entry : allClassesMap.entrySet()) {
-                String qualifiedName = entry.getKey();
-                Set<String> inheritedFinalizers = getInheritedFinalizers(entry.getValue(), classToFinalizerMapping, baseDirPath);
-                if (!inheritedFinalizers.isEmpty()) {
-                    classToFinalizerMapping
-                            .computeIfAbsent(qualifiedName, k -> new HashSet<>())
-                            .addAll(inheritedFinalizers);
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static final byte[] INHERITABLE_MUST_CALL = "InheritableMustCall".getBytes(StandardCharsets.US_ASCII);
+    // Files larger than this are memory-mapped for the pre-filter instead of read into memory.
+    private static final long MMAP_THRESHOLD = 1 << 20;
+
+    /**
+     * Parses one file and returns its directly annotated classes with their finalizer methods.
+     */
+    private static Map<String, Set<String>> collectAnnotatedClasses(JavaParser parser, File file) {
+        Map<String, Set<String>> mapping = new HashMap<>();
+        try {
+            CompilationUnit cu = parser.parse(file).getResult().orElseThrow(
+                    () -> new IOException("could not parse"));
+            for (ClassOrInterfaceDeclaration clazz : cu.findAll(ClassOrInterfaceDeclaration.class)) {
+                Optional<AnnotationExpr> annotationOpt = clazz.getAnnotationByName("InheritableMustCall");
+                if (annotationOpt.isPresent()) {
+                    AnnotationExpr annotation = annotationOpt.get();
+                    // Assuming the annotation is of type @InheritableMustCall("finalizerMethod")
+                    if (annotation instanceof SingleMemberAnnotationExpr) {
+                        SingleMemberAnnotationExpr singleMember = (SingleMemberAnnotationExpr) annotation;
+                        String finalizerMethod = singleMember.getMemberValue().toString();
+                        // Normalize the method name (e.g. remove quotes if necessary)
+                        finalizerMethod = finalizerMethod.replaceAll("[\\{\\}\"]", "").trim();
+                        mapping.computeIfAbsent(qualifiedNameOf(cu, clazz), k -> new HashSet<>())
+                                .add(finalizerMethod);
+                    }
                 }
             }
+        } catch (Exception e) {
+            System.out.println("Error parsing file: " + file.getAbsolutePath());
+            e.printStackTrace();
+        }
+        return mapping;
+    }
+
+    private static String qualifiedNameOf(CompilationUnit cu, ClassOrInterfaceDeclaration clazz) {
+        // Fallback: build qualified name from package declaration.
+        return clazz.getFullyQualifiedName().orElseGet(() -> cu.getPackageDeclaration()
+                .map(pd -> pd.getNameAsString() + "." + clazz.getNameAsString())
+                .orElse(clazz.getNameAsString()));
+    }
 
-            // Only create the output file if there is at least one mapping.
-            if (classToFinalizerMapping.isEmpty()) {
-                return;
+    private static void mergeInto(Map<String, Set<String>> target, Map<String, Set<String>> source) {
+        for (Map.Entry<String, Set<String>> entry : source.entrySet()) {
+            target.computeIfAbsent(entry.getKey(), k -> new HashSet<>()).addAll(entry.getValue());
+        }
+    }
+
+    /**
+     * Runs the task on every file using the pool, and returns the results in file order.
+     */
+    private static <T> List<T> runOnFiles(List<File> files, ExecutorService pool, Function<File, T> task)
+            throws InterruptedException, ExecutionException {
+        List<Future<T>> futures = new ArrayList<>();
+        for (File file : files) {
+            futures.add(pool.submit(() -> task.apply(file)));
+        }
+        List<T> results = new ArrayList<>();
+        for (Future<T> future : futures) {
+            results.add(future.get());
+        }
+        return results;
+    }
+
+    /**
+     * Keeps the files whose raw bytes contain at least one of the patterns.
+     */
+    private static List<File> filterFiles(List<File> files, ExecutorService pool, byte[]... patterns)
+            throws InterruptedException, ExecutionException {
+        List<Boolean> matches = runOnFiles(files, pool, file -> fileContainsAny(file, patterns));
+        List<File> kept = new ArrayList<>();
+        for (int i = 0; i < files.size(); i++) {
+            if (matches.get(i)) {
+                kept.add(files.get(i));
             }
+        }
+        return kept;
+    }
 
-            for (Map.Entry<String, Set<String>> entry : classToFinalizerMapping.entrySet()) {
-                FinalizerMappingLoader.putFinalizerMethod(entry.getKey(), entry.getValue().iterator().next());
+    private static boolean fileContainsAny(File file, byte[]... patterns) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer;
+            if (channel.size() > MMAP_THRESHOLD) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } else {
+                buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+            }
+            for (byte[] pattern : patterns) {
+                if (indexOf(buffer, pattern) >= 0) {
+                    return true;
+                }
             }
+            return false;
+        } catch (IOException e) {
+            // Can't tell, so let the parser deal with it.
+            return true;
+        }
+    }
 
-        } catch (Exception e) {
-            e.printStackTrace();
+    private static int indexOf(ByteBuffer buffer, byte[] pattern) {
+        int limit = buffer.limit() - pattern.length;
+        outer:
+        for (int i = 0; i <= limit; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (buffer.get(i + j) != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
         }
+        return -1;
     }
 
     /**
@@ -244,44 +358,4 @@ class ProjectInfoCollector {
         }
         return ajavaFiles;
     }
-
-    /**
-     * Given a class (as a ClassOrInterfaceDeclaration), this method walks its inheritance chain
-     * (using the resolved type) to collect finalizer methods from any ancestor that is mapped.
-     * It returns the union of all finalizer methods found in the inheritance chain.
-     *
-     * @param clazz                   the AST node for the class
-     * @param classToFinalizerMapping the mapping from qualified class names to their finalizer methods
-     * @return a set of inherited finalizer methods, or an empty set if none found
-     */
-    private static Set<String> getInheritedFinalizers(ClassOrInterfaceDeclaration clazz,
-                                                      Map<String, Set<String>> classToFinalizerMapping,
-                                                      String baseDirPath) {
-        Set<String> inherited = new HashSet<>();
-        try {
-            ResolvedReferenceTypeDeclaration resolved = clazz.resolve();
-            // Get all ancestors (direct and indirect)
-            for (ResolvedReferenceType ancestor : resolved.getAllAncestors()) {
-                String ancestorQualifiedName = ancestor.getQualifiedName();
-                // If an ancestor is in our mapping, add its finalizer methods.
-                if (classToFinalizerMapping.containsKey(ancestorQualifiedName)) {
-                    inherited.addAll(classToFinalizerMapping.get(ancestorQualifiedName));
-                }
-            }
-        } catch (UnsolvedSymbolException e) {
-            // get extended type
-            for (Node extendedType : clazz.getExtendedTypes()) {
-                String extendedTypeName = extendedType.toString().replaceAll("<[^>]+>", "");
-                // bad heuristic
-                for (String classQname : classToFinalizerMapping.keySet()) {
-                    if (classQname.endsWith("." + extendedTypeName)) {
-                        inherited.addAll(classToFinalizerMapping.get(classQname));
-                    }
-                }
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-        return inherited;
-    }
 }
\ No newline at end of file
@@ -14,17 +14,29 @@ import com.ibm.wala.ssa.SSANewInstruction;
 import com.ibm.wala.util.*;
 import com.ibm.wala.util.io.CommandLine;
 
+import sourceFixStrategies.CallerFixMemo;
+import utils.AnalysisException;
 import utils.CommonUtils;
 import utils.ProgramInfo;
 import utils.ResourceEscapeType;
+import utils.SymbolTable;
 import utils.Warning;
 
 public class Main {
+	// optional: where to write the resource census (see ResourceCensus), as JSON
+	public static String censusOutput = null;
+	// optional: only fix the warnings of one shard, and write them to shardOutput (see ShardedMain)
+	public static int shardIndex = 0;
+	public static int shardCount = 1;
+	public static String shardOutput = null;
+
 	public static void main(String[] args)
 			throws WalaException, IllegalArgumentException, CancelException, IOException, InvalidClassFileException {
 		// Read command line arguments and initialize program info.
 		Properties p = CommandLine.parse(args);
 		String classpath = p.getProperty("classpath");
+		// optional: library jars/directories, analyzed in the extension loader
+		String libClasspath = p.getProperty("libClasspath");
 		String warningsString = p.getProperty("warnings");
 		String appClassesFile = p.getProperty("appClasses");
 		String srcFilesList = p.getProperty("srcFiles");
@@ -32,92 +44,225 @@ public class Main {
 		String debugOutput = p.getProperty("debugOutput");
 		String exclusions = p.getProperty("exclusions");
 		String wpiOutDir = p.getProperty("wpiOutDir");
+		ProgramInfo.resourceIndexDir = p.getProperty("resourceIndexDir");
+		censusOutput = p.getProperty("census");
+		// optional: "-tiered true" classifies on a CHA callgraph first (see classifyAndFixTiered)
+		ProgramInfo.tieredCallgraph = "true".equals(p.getProperty("tiered"));
+		// optional: "-shard i/n -shardOutput <file>" when run as a worker of ShardedMain
+		if (p.getProperty("shard") != null) {
+			String[] shard = p.getProperty("shard").split("/");
+			shardIndex = Integer.parseInt(shard[0]);
+			shardCount = Integer.parseInt(shard[1]);
+			shardOutput = p.getProperty("shardOutput");
+		}
 		File exclusionsFile = null;
 		if (exclusions != null) {
 			exclusionsFile = new File(exclusions);
 		}
-		// Finalizer method information of CF Inference
-	    FinalizerMappingLoader.populateMappings(wpiOutDir);
-		
+		try {
+			analyzeProject(classpath, libClasspath, warningsString, appClassesFile, srcFilesList, projectDir,
+					debugOutput, exclusionsFile, wpiOutDir);
+		} catch (AnalysisException e) {
+			// already reported where it was thrown
+			System.exit(1);
+		}
+	}
+
+	/*
+	 * Runs RLFixer on one project and prints the fixes to System.out.
+	 * Expects a fresh static state (see BatchMain.resetState when analyzing
+	 * several projects in one JVM).
+	 */
+	public static void analyzeProject(String classpath, String libClasspath, String warningsString, String appClassesFile,
+			String srcFilesList, String projectDir, String debugOutput, File exclusionsFile, String wpiOutDir)
+			throws WalaException, IllegalArgumentException, CancelException, IOException, InvalidClassFileException {
 		long time1 = System.currentTimeMillis();
-		ProgramInfo.initializeProgramInfo(classpath, null, appClassesFile,srcFilesList,projectDir,exclusionsFile);
+		// Also loads the finalizer method information of CF Inference (from wpiOutDir).
+		ProgramInfo.initializeProgramInfo(classpath, libClasspath, appClassesFile,srcFilesList,projectDir,exclusionsFile,wpiOutDir);
 		long time2 = System.currentTimeMillis();
 		// Find the bytecode instructions for the warning messages.
 		List<Warning> matchedWarnings = new ArrayList<Warning>();
 		List<Warning> unmatchedWarnings = new ArrayList<Warning>();
 		parseWarnings(warningsString, matchedWarnings, unmatchedWarnings);
 		sanityCheckOnWarnings(matchedWarnings);
+		// The warnings that this run classifies and fixes. The wrappers and
+		// duplicates are still identified for all of them, so that a warning
+		// is a duplicate of the same warnings as in an unsharded run.
+		boolean[] inShard = ShardedMain.selectShard(matchedWarnings, shardIndex, shardCount);
 		
-		// Identify wrappers for resources in the warnings.
-		ResourceAliasIdentification.identifyWrappers(matchedWarnings);
-		
-		DuplicateWarningIdentification.identifyDuplicateWarnings(matchedWarnings);
-		
-		// Classify each warning and fix it accordingly.
-		for (Warning w : matchedWarnings) {			
-			new ResourceClassification(w).classifyWarning();
-			ResourceLeakFixing.computeSourceCodeFix(w);
+		if (ProgramInfo.tieredCallgraph && ProgramInfo.use0CFA) {
+			classifyAndFixTiered(matchedWarnings, inShard);
+		} else {
+			// Identify wrappers for resources in the warnings.
+			ResourceAliasIdentification.identifyWrappers(matchedWarnings);
+			
+			DuplicateWarningIdentification.identifyDuplicateWarnings(matchedWarnings);
+			
+			// Classify each warning and fix it accordingly.
+			ResourceLeakFixing.classifyAndFix(ShardedMain.shardWarnings(matchedWarnings, inShard));
 		}
 		long time3 = System.currentTimeMillis();
 		/* PRINT OUT ALL THE STUFF */
 		
-		if (debugOutput != null) {
+		if (shardOutput != null) {
+			ShardedMain.writeShard(shardOutput, matchedWarnings, unmatchedWarnings, inShard, shardIndex, shardCount);
+		} else if (debugOutput != null) {
 			printWarningsInformation(matchedWarnings, unmatchedWarnings, debugOutput);
 		}
 		System.out.println(time2 - time1);
 		System.out.println(time3 - time2);
-		printSourceLevelFixes(matchedWarnings);
+		System.out.println("Initialization critical path: " + ProgramInfo.getCriticalPath());
+		System.out.println("Caller fixes reused: " + CallerFixMemo.hits + " of " + (CallerFixMemo.hits + CallerFixMemo.misses));
+		if (shardOutput == null) {
+			printSourceLevelFixes(matchedWarnings);
+		}
+		if (censusOutput != null) {
+			ResourceCensus.run(matchedWarnings, censusOutput);
+		}
 	}
 
 
 
+	/*
+	 * Identifies the wrappers and duplicates, and classifies and fixes the
+	 * warnings on the CHA callgraph that initializeProgramInfo built. Most
+	 * warnings come out the same as on a 0-CFA callgraph, since the 0-CFA
+	 * targets of a call site are among the CHA targets. Only the warnings whose
+	 * result depends on a lookup with several targets (or callers reached
+	 * through such call sites, or more than MAX_ALLOWED_FANOUT targets) are
+	 * matched again and redone on a 0-CFA callgraph. If there are none, the
+	 * 0-CFA callgraph isn't built at all. Only the warnings with inShard[i]
+	 * set are classified and fixed (and redone).
+	 *
+	 * A single CHA target of a dispatched call can still be missing from the
+	 * 0-CFA callgraph, e.g. when the receiver is never allocated. Once the
+	 * 0-CFA callgraph is built, the single-target edges that were used are
+	 * checked, and if any is missing all the warnings are redone. When no
+	 * warning needs the 0-CFA callgraph they are not checked: the CHA result
+	 * stands, and may differ from a plain 0-CFA run (see
+	 * tests/tiered_equivalence.sh).
+	 */
+	private static void classifyAndFixTiered(List<Warning> matchedWarnings, boolean[] inShard) throws IllegalArgumentException, CancelException {
+		boolean[] ambiguous = new boolean[matchedWarnings.size()];
+		ProgramInfo.setTrackAmbiguity(true);
+		ResourceAliasIdentification.identifyWrappers(matchedWarnings, ambiguous);
+		DuplicateWarningIdentification.identifyDuplicateWarnings(matchedWarnings, null, ambiguous);
+		List<Warning> shardWarnings = ShardedMain.shardWarnings(matchedWarnings, inShard);
+		boolean[] shardAmbiguous = new boolean[shardWarnings.size()];
+		ResourceLeakFixing.classifyAndFix(shardWarnings, shardAmbiguous);
+		ProgramInfo.setTrackAmbiguity(false);
+
+		List<Integer> redo = new ArrayList<Integer>();
+		for (int i = 0, j = 0; i < ambiguous.length; i++) {
+			if (!inShard[i]) {
+				continue;
+			}
+			if (ambiguous[i] || shardAmbiguous[j]) {
+				redo.add(i);
+			}
+			j++;
+		}
+		System.out.println("Warnings that need the 0-CFA callgraph: " + redo.size() + " of " + shardWarnings.size());
+		if (redo.isEmpty()) {
+			return;
+		}
+
+		ProgramInfo.upgradeToZeroCFA();
+		int missingEdges = ProgramInfo.countMissingSingleTargetEdges();
+		if (missingEdges > 0) {
+			System.out.println("Single-target CHA call edges missing from the 0-CFA callgraph: " + missingEdges
+					+ ", redoing all the warnings");
+			redo.clear();
+			for (int i = 0; i < inShard.length; i++) {
+				if (inShard[i]) {
+					redo.add(i);
+				}
+			}
+			ResourceAliasIdentification.dropAllAliases();
+		} else {
+			ResourceAliasIdentification.dropAmbiguousAliases();
+		}
+		// its keys are graph node numbers of the CHA callgraph
+		CallerFixMemo.forgetResults();
+		boolean[] recheck = new boolean[matchedWarnings.size()];
+		List<Warning> redoWarnings = new ArrayList<Warning>();
+		for (int i : redo) {
+			Warning old = matchedWarnings.get(i);
+			Warning w = new Warning(old.sourceFilename, Integer.toString(old.lineNumber));
+			w.isNonFinalFieldOverwrite = old.isNonFinalFieldOverwrite;
+			if (w.matchedInstruction == null) {
+				System.out.println("WARNING: Could not match the warning on the 0-CFA callgraph, keeping the CHA result: " + old);
+				continue;
+			}
+			matchedWarnings.set(i, w);
+			recheck[i] = true;
+			redoWarnings.add(w);
+		}
+		sanityCheckOnWarnings(redoWarnings);
+		ResourceAliasIdentification.identifyWrappers(redoWarnings);
+		DuplicateWarningIdentification.identifyDuplicateWarnings(matchedWarnings, recheck, null);
+		ResourceLeakFixing.classifyAndFix(redoWarnings);
+	}
+
 	/* Simply prints out all the important information corresponding to
 	 * each warning.
 	 */
 	private static void printWarningsInformation(List<Warning> matchedWarnings, List<Warning> unmatchedWarnings, String debugOutput) {
 		try (BufferedWriter writer = new BufferedWriter(new FileWriter(debugOutput))){
-			writer.write("Index^Source File^Line Number^Matched Method^MatchedInstruction^Aliases^Classification^Duplicate^Unfixable^Comments\n");
+			writer.write(WARNINGS_INFORMATION_HEADER);
 			
 			int index = -1;
 			for (Warning w : matchedWarnings) {
 				index += 1;
-				writer.write(index + "^");
-				writer.write(w.sourceFilename + "^");
-				writer.write(w.lineNumber + "^");
-				writer.write(w.matchedCgnode.getMethod().getSignature() + "^");
-				writer.write(w.matchedInstruction + "^");
-				
-				List<Integer> resourceAliases = ResourceAliasIdentification.getAllResourceAliases(w.matchedCgnode, w.matchedInstruction.getDef());
-				if (resourceAliases.size() == 0) {
-					writer.write("NULL");
-				} else {
-					for (int aliasVariableNum : resourceAliases) {
-						writer.write(CommonUtils.getVariableId(w.matchedCgnode,aliasVariableNum) + ",");
-					}
-				}
-				writer.write("^");
-				for (ResourceEscapeType t : w.escapeTypes) {
-					writer.write(t + ",");
-				}
-				writer.write("^");
-				writer.write(w.isDuplicateWarning + "^");
-				writer.write(w.unfixable + "^");
-				writer.write(w.comments);
-				writer.write("\n");
+				writer.write(formatWarningInformation(index, w));
 			}	
 			
 			for (Warning w2 : unmatchedWarnings) {
 				index += 1;
-				writer.write(index + "^");
-				writer.write(w2.sourceFilename + "^");
-				writer.write(w2.lineNumber + "^");
-				writer.write("UNMATCHED^UNMATCHED^NULL^NULL^NULL^true^NULL\n");
+				writer.write(formatUnmatchedWarningInformation(index, w2));
 			}
 		} catch (IOException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}
 	}
+
+	public static final String WARNINGS_INFORMATION_HEADER
+		= "Index^Source File^Line Number^Matched Method^MatchedInstruction^Aliases^Classification^Duplicate^Unfixable^Comments\n";
+
+	// One line of the debug output.
+	public static String formatWarningInformation(int index, Warning w) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(index + "^");
+		sb.append(w.sourceFilename + "^");
+		sb.append(w.lineNumber + "^");
+		sb.append(SymbolTable.methodSignature(w.matchedCgnode.getMethod()) + "^");
+		sb.append(w.matchedInstruction + "^");
+		
+		List<Integer> resourceAliases = ResourceAliasIdentification.getAllResourceAliases(w.matchedCgnode, w.matchedInstruction.getDef());
+		if (resourceAliases.size() == 0) {
+			sb.append("NULL");
+		} else {
+			for (int aliasVariableNum : resourceAliases) {
+				sb.append(CommonUtils.getVariableId(w.matchedCgnode,aliasVariableNum) + ",");
+			}
+		}
+		sb.append("^");
+		for (ResourceEscapeType t : w.escapeTypes) {
+			sb.append(t + ",");
+		}
+		sb.append("^");
+		sb.append(w.isDuplicateWarning + "^");
+		sb.append(w.unfixable + "^");
+		sb.append(w.comments);
+		sb.append("\n");
+		return sb.toString();
+	}
+
+	public static String formatUnmatchedWarningInformation(int index, Warning w) {
+		return index + "^" + w.sourceFilename + "^" + w.lineNumber + "^"
+				+ "UNMATCHED^UNMATCHED^NULL^NULL^NULL^true^NULL\n";
+	}
 	
 	public static void printSourceLevelFixes(List<Warning> matchedWarnings) {
 		System.out.println("\nSOURCE LEVEL FIXES\n");
@@ -126,15 +271,22 @@ public class Main {
 			if (w.unfixable || w.isDuplicateWarning) {
 				continue;
 			}
-			System.out.print(i + "] ");
-			System.out.println(ProgramInfo.projectSrcDir + "/" + w.sourceFilename + "; Line number " + w.lineNumber);
-			System.out.println("vim +" + w.lineNumber + " " + ProgramInfo.projectSrcDir + "/" + w.sourceFilename);
-			System.out.println("");
-			for (String repairSuggestion : w.sourceLevelFixes) {
-				System.out.println("+++ " + repairSuggestion);
-			}
-			System.out.println("--------------------------------------------");
+			System.out.print(formatSourceLevelFix(i, w));
+		}
+	}
+
+	// The fixes of one warning, as printed in the SOURCE LEVEL FIXES section.
+	public static String formatSourceLevelFix(int index, Warning w) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(index + "] ");
+		sb.append(ProgramInfo.projectSrcDir + "/" + w.sourceFilename + "; Line number " + w.lineNumber + "\n");
+		sb.append("vim +" + w.lineNumber + " " + ProgramInfo.projectSrcDir + "/" + w.sourceFilename + "\n");
+		sb.append("\n");
+		for (String repairSuggestion : w.sourceLevelFixes) {
+			sb.append("+++ " + repairSuggestion + "\n");
 		}
+		sb.append("--------------------------------------------\n");
+		return sb.toString();
 	}
 
 
@@ -169,7 +321,7 @@ public class Main {
 				System.out.println("ERROR: Warning has incorrect matched instruction(" 
 						+ warning.matchedInstruction.getClass() + "): " 
 						+ warning.matchedInstruction);
-				System.exit(1);
+				throw new AnalysisException("Warning has incorrect matched instruction: " + warning.matchedInstruction);
 			}
 		}
 	}
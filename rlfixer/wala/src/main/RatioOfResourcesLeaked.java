@@ -31,7 +31,7 @@ public class RatioOfResourcesLeaked {
 		String srcFilesList = p.getProperty("srcFiles");
 		String projectDir = p.getProperty("projectDir");
 
-		ProgramInfo.initializeProgramInfo(classpath, null, appClassesFile,srcFilesList,projectDir,null);
+		ProgramInfo.initializeProgramInfo(classpath, null, appClassesFile,srcFilesList,projectDir,null,null);
 		// Find the bytecode instructions for the warning messages.
 		List<Warning> warningsList = new ArrayList<Warning>();
 		List<Warning> unmatchedWarnings = new ArrayList<Warning>();
@@ -39,18 +39,86 @@ public class ResourceAliasIdentification {
 	private static HashSet<String> visitedVariables = new HashSet<String>();
 	private static HashSet<String> visitedPointers = new HashSet<String>();
 	private static HashMap<String, Boolean> visitedWrappedClasses = new HashMap<>();
+	// Incremented whenever an alias is added, so that caches of alias-derived
+	// information (see sourceFixStrategies.MethodFixContext) know when to recompute.
+	private static int version = 0;
+	// Variables whose aliases (or wrapper check) were computed using an ambiguous
+	// callgraph lookup (see ProgramInfo.noteAmbiguousLookup), and the variables
+	// recorded as aliases so far, in order.
+	private static HashSet<String> ambiguousVariables = new HashSet<String>();
+	private static ArrayList<String> recordedVariables = new ArrayList<String>();
 	
+	// Clears the aliases computed for the previous project.
+	public static void reset() {
+		resourceAliasesMap = new HashMap<String,ArrayList<Integer>>();
+		visitedVariables = new HashSet<String>();
+		visitedPointers = new HashSet<String>();
+		visitedWrappedClasses = new HashMap<>();
+		version = 0;
+		ambiguousVariables = new HashSet<String>();
+		recordedVariables = new ArrayList<String>();
+	}
+
+	/*
+	 * Forgets everything that was computed using an ambiguous callgraph lookup,
+	 * so that it gets recomputed on a more precise callgraph. The rest is
+	 * independent of the callgraph and kept.
+	 */
+	public static void dropAmbiguousAliases() {
+		for (String variableId : ambiguousVariables) {
+			resourceAliasesMap.remove(variableId);
+			visitedVariables.remove(variableId);
+			visitedPointers.remove(variableId);
+			visitedWrappedClasses.remove(variableId);
+		}
+		ambiguousVariables = new HashSet<String>();
+		recordedVariables = new ArrayList<String>();
+		version++;
+	}
+
+	/*
+	 * Forgets all the aliases, e.g. when the callgraph they were computed on
+	 * has edges that a more precise one doesn't.
+	 */
+	public static void dropAllAliases() {
+		int oldVersion = version;
+		reset();
+		version = oldVersion + 1;
+	}
+
+	public static int getVersion() {
+		return version;
+	}
+
 	
 	public static void identifyWrappers(List<Warning> warnings) {	
-		for (Warning w : warnings) {
+		identifyWrappers(warnings, null);
+	}
+
+	/*
+	 * If 'ambiguous' is given, ambiguous[i] is set when the aliases of the i-th
+	 * warning depend on an ambiguous callgraph lookup.
+	 */
+	public static void identifyWrappers(List<Warning> warnings, boolean[] ambiguous) {
+		for (int i = 0; i < warnings.size(); i++) {
+			Warning w = warnings.get(i);
+			int lookups = ProgramInfo.getAmbiguousLookups();
 			computeWarningResourceAliases(w.matchedCgnode,w.matchedInstruction.getDef());
+			if (ambiguous != null && lookups != ProgramInfo.getAmbiguousLookups()) {
+				ambiguous[i] = true;
+			}
 		}
 
-		for (Warning w : warnings) {
+		for (int i = 0; i < warnings.size(); i++) {
+			Warning w = warnings.get(i);
+			int lookups = ProgramInfo.getAmbiguousLookups();
 			computePointerAliases(w.matchedCgnode,w.matchedInstruction.getDef());
 			for (int aliasVariableNum : getAllResourceAliases(w.matchedCgnode,w.matchedInstruction.getDef())) {
 				computePointerAliases(w.matchedCgnode, aliasVariableNum);
 			}
+			if (ambiguous != null && lookups != ProgramInfo.getAmbiguousLookups()) {
+				ambiguous[i] = true;
+			}
 		}
 	}
 	
@@ -85,10 +153,15 @@ public class ResourceAliasIdentification {
 		// Make sure we avoid revisiting the same variable.
 		String variableId = CommonUtils.getVariableId(cgnode, variableNumber);
 		if (ResourceAliasIdentification.visitedVariables.contains(variableId)) {
+			if (ambiguousVariables.contains(variableId)) {
+				ProgramInfo.noteAmbiguousLookup();
+			}
 			return;
 		} else {
 			ResourceAliasIdentification.visitedVariables.add(variableId);
 		}
+		int lookups = ProgramInfo.getAmbiguousLookups();
+		int recorded = recordedVariables.size();
 				
 		// Part 1: Check if the Resource from warning 'w' is wrapper 
 		// for some other resource.
@@ -97,6 +170,11 @@ public class ResourceAliasIdentification {
 		// Part 2: Check if Resource from warning 'w' is wrapped
 		// by some other resource.
 		checkIfResourceIsWrapped(cgnode, variableNumber);
+
+		if (lookups != ProgramInfo.getAmbiguousLookups()) {
+			ambiguousVariables.add(variableId);
+			ambiguousVariables.addAll(recordedVariables.subList(recorded, recordedVariables.size()));
+		}
 	}
 
 	
@@ -108,7 +186,7 @@ public class ResourceAliasIdentification {
 				SSAInvokeInstruction invokeIns = (SSAInvokeInstruction) useInstruction;
 				
 				// Check 1: the invoke should be an init function 
-				Set<CGNode> possibleTargets = ProgramInfo.callgraph.getPossibleTargets(cgnode, invokeIns.getCallSite());
+				Set<CGNode> possibleTargets = ProgramInfo.getPossibleTargets(cgnode, invokeIns.getCallSite());
 				if (possibleTargets.size() != 1) {
 					System.out.println("ERROR: Multiple targets for invoke instruction:" + invokeIns);
 					continue; // not an init function
@@ -162,7 +240,7 @@ public class ResourceAliasIdentification {
 
 				// Check that this is the init function (i.e. constructor) corresponding to
 				// the new instruction.
-				Set<CGNode> possibleTargets = ProgramInfo.callgraph.getPossibleTargets(cgnode, invokeIns.getCallSite());
+				Set<CGNode> possibleTargets = ProgramInfo.getPossibleTargets(cgnode, invokeIns.getCallSite());
 				if (possibleTargets.size() != 1) {
 					System.out.println("ERROR: Multiple targets for invoke instruction:" + invokeIns);
 					continue; // not an init function
@@ -217,8 +295,21 @@ public class ResourceAliasIdentification {
 	private static boolean checkWrapperCondition(CGNode initFunction, int parameterIndex, boolean isCheckingWrapped) {
 		String variableId = CommonUtils.getVariableId(initFunction, parameterIndex);
 		if (isCheckingWrapped && visitedWrappedClasses.containsKey(variableId)) {
+			if (ambiguousVariables.contains(variableId)) {
+				ProgramInfo.noteAmbiguousLookup();
+			}
 			return visitedWrappedClasses.get(variableId);
 		}
+		int lookups = ProgramInfo.getAmbiguousLookups();
+		boolean isWrapper = checkWrapperConditionUncached(initFunction, parameterIndex, isCheckingWrapped, variableId);
+		if (lookups != ProgramInfo.getAmbiguousLookups()) {
+			ambiguousVariables.add(variableId);
+		}
+		return isWrapper;
+	}
+
+	private static boolean checkWrapperConditionUncached(CGNode initFunction, int parameterIndex, boolean isCheckingWrapped,
+			String variableId) {
 		// Check condition 1.
 		FieldReference assignedField = checkWrapperCondition1(initFunction,parameterIndex+1);
 		if (assignedField == null) {
@@ -227,7 +318,7 @@ public class ResourceAliasIdentification {
 		
 		// Issue with condition 2: Read comments above.
 		/* 
-		if (ProgramInfo.fieldWritesCount.get(assignedField.getSignature()) > 1) {
+		if (ProgramInfo.fieldWritesCount.get(SymbolTable.fieldSignature(assignedField)) > 1) {
 			//return false;
 		}
 		*/
@@ -237,10 +328,10 @@ public class ResourceAliasIdentification {
 		IClass wrapperClass = initFunction.getMethod().getDeclaringClass();
 		for (IMethod m : wrapperClass.getAllMethods()) {
 			if (CommonUtils.isCloseMethod(m.getReference())) { // just the 'this' parameter.
-				if (!ProgramInfo.methodCGNodeMap.containsKey(m.getSignature())) {
+				closeFunction = ProgramInfo.getMethodNode(m);
+				if (closeFunction == null) {
 					return true; // Hack: the close method is not in the call-graph. Adding it causes some Wala Lambda error. So lets go out on a limb and accept this.
 				}
-				closeFunction = ProgramInfo.methodCGNodeMap.get(m.getSignature());
 				break;
 			}
 		}
@@ -340,10 +431,10 @@ public class ResourceAliasIdentification {
 	// wrappee only if the wrappee exists.)
 	private static boolean checkFieldCloseCondition(CGNode cgnode, FieldReference assignedField, HashSet<String> visitedMethods) {
 		// First ensure that we are not in a recursive call-chain.
-		if (visitedMethods.contains(cgnode.getMethod().getSignature())) {
+		if (visitedMethods.contains(SymbolTable.methodSignature(cgnode.getMethod()))) {
 			return false;   // don't want to revisit the node in case of a recursive call-chain.
 		} else {
-			visitedMethods.add(cgnode.getMethod().getSignature());
+			visitedMethods.add(SymbolTable.methodSignature(cgnode.getMethod()));
 		}
 		
 		// Then do the check by loop through all instructions.
@@ -357,7 +448,7 @@ public class ResourceAliasIdentification {
 			// check if the required field gets dereferenced.
 			if (nextInstruction instanceof SSAGetInstruction) {
 				SSAGetInstruction getIns = (SSAGetInstruction) nextInstruction;
-				if (getIns.getDeclaredField().getSignature().equalsIgnoreCase(assignedField.getSignature())) {
+				if (SymbolTable.fieldSignature(getIns.getDeclaredField()).equalsIgnoreCase(SymbolTable.fieldSignature(assignedField))) {
 					if (checkIfCloseCallMade(cgnode, getIns.getDef(),new HashSet<String>())) {
 						return true;
 					}
@@ -366,7 +457,7 @@ public class ResourceAliasIdentification {
 			// otherwise recursively call this function on all callees.
 			else if (nextInstruction instanceof SSAInvokeInstruction) {
 				SSAInvokeInstruction invokeIns = (SSAInvokeInstruction) nextInstruction;
-				for (CGNode target : ProgramInfo.callgraph.getPossibleTargets(cgnode, invokeIns.getCallSite())) {
+				for (CGNode target : ProgramInfo.getPossibleTargets(cgnode, invokeIns.getCallSite())) {
 					if (checkFieldCloseCondition(target,assignedField,visitedMethods)) {
 						return true;
 					}
@@ -381,7 +472,7 @@ public class ResourceAliasIdentification {
 	// Finds if a close call is eventually called on the given variable.
 	private static boolean checkIfCloseCallMade(CGNode cgnode, int variableNumber, HashSet<String> visitedVariables) {
 		// First ensure that we are not in a recursive call-chain.
-		String fullVariableId = cgnode.getMethod().getSignature() + "#" + variableNumber;
+		String fullVariableId = CommonUtils.getVariableId(cgnode, variableNumber);
 		if (visitedVariables.contains(fullVariableId)) {
 			return false;   // don't want to revisit the node in case of a recursive call-chain.
 		} else {
@@ -439,10 +530,10 @@ public class ResourceAliasIdentification {
 	 */
 	private static FieldReference examineFieldPuts(CGNode cgnode, HashSet<String> aliases, HashSet<String> visitedMethods) {
 		// First ensure that we are not in a recursive call-chain.
-		if (visitedMethods.contains(cgnode.getMethod().getSignature())) {
+		if (visitedMethods.contains(SymbolTable.methodSignature(cgnode.getMethod()))) {
 			return null;   // don't want to revisit the node in case of a recursive call-chain.
 		} else {
-			visitedMethods.add(cgnode.getMethod().getSignature());
+			visitedMethods.add(SymbolTable.methodSignature(cgnode.getMethod()));
 		}
 		
 		IR ir = cgnode.getIR();
@@ -465,7 +556,7 @@ public class ResourceAliasIdentification {
 			}
 			else if (nextInstruction instanceof SSAInvokeInstruction) {
 				SSAInvokeInstruction invokeIns = (SSAInvokeInstruction) nextInstruction;
-				for (CGNode target : ProgramInfo.callgraph.getPossibleTargets(cgnode, invokeIns.getCallSite())) {
+				for (CGNode target : ProgramInfo.getPossibleTargets(cgnode, invokeIns.getCallSite())) {
 					FieldReference matchedField = examineFieldPuts(target, aliases,visitedMethods);
 					if (matchedField != null) {
 						return matchedField;
@@ -517,7 +608,7 @@ public class ResourceAliasIdentification {
 
 				// Otherwise, make a recursive call to all the called methods.
 				int parameterNumber = CommonUtils.getParameterNumber(cgnode,invokeIns,variableNumber,true);
-				for (CGNode target : ProgramInfo.callgraph.getPossibleTargets(cgnode, invokeIns.getCallSite())) {
+				for (CGNode target : ProgramInfo.getPossibleTargets(cgnode, invokeIns.getCallSite())) {
 					// add the formal parameter as alias
 					String formalParameterId = CommonUtils.getVariableId(target,parameterNumber+1);
 					aliases.add(formalParameterId); 
@@ -543,6 +634,9 @@ public class ResourceAliasIdentification {
 	private static void recordWrapperAndWrappee(CGNode cgnode, int wrapperVariableNumber, int baseResourceNumber) {
 		String wrapperId = CommonUtils.getVariableId(cgnode,wrapperVariableNumber);
 		String baseResourceId = CommonUtils.getVariableId(cgnode,baseResourceNumber);
+		version++;
+		recordedVariables.add(wrapperId);
+		recordedVariables.add(baseResourceId);
 		// Add to wrapper as alias of base resource
 		if (!resourceAliasesMap.containsKey(baseResourceId)) {
 			resourceAliasesMap.put(baseResourceId, new ArrayList<Integer>());
@@ -578,6 +672,9 @@ public class ResourceAliasIdentification {
 				}
 			}
 			String tempResourceId = CommonUtils.getVariableId(cgnode, temp);
+			if (ambiguousVariables.contains(tempResourceId)) {
+				ProgramInfo.noteAmbiguousLookup();
+			}
 			if (resourceAliasesMap.containsKey(tempResourceId)) {
 				for (int alias : resourceAliasesMap.get(tempResourceId)) {
 					bfsQueue.add(alias);
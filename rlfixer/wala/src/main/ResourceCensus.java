@@ -0,0 +1,230 @@
+package main;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.ibm.wala.ipa.callgraph.CGNode;
+import com.ibm.wala.ssa.IR;
+import com.ibm.wala.ssa.SSAInstruction;
+import com.ibm.wala.ssa.SSANewInstruction;
+
+import sourceFixStrategies.FixUtils;
+import utils.CommonUtils;
+import utils.ProgramInfo;
+import utils.SymbolTable;
+import utils.Warning;
+
+/*
+ * Counts the resources allocated in the application and how many of them
+ * were reported as leaked, in total and per resource type and package.
+ * This is what RatioOfResourcesLeaked does, but on the ProgramInfo and the
+ * matched warnings of a normal RLFixer run, and written as JSON:
+ *
+ *   {"totalResources": 10, "leakedResources": 3, "unmatchedWarnings": 0,
+ *    "types": {"Ljava/io/FileInputStream": {"total": 4, "leaked": 1}, ...},
+ *    "packages": {"java.io": {"total": 9, "leaked": 3}, ...}}
+ *
+ * A resource is leaked if a warning was matched to its allocation or to one
+ * of its resource aliases (wrappers), or to a line at most 2 lines away in
+ * the same method. Each warning counts for at most one resource. Methods are
+ * compared by signature, since with a tiered callgraph (see
+ * Main.classifyAndFixTiered) some warnings are matched on the CHA callgraph.
+ *
+ * Must run after the fixes have been computed, since it adds the aliases of
+ * all the resources (not just the ones from the warnings) to
+ * ResourceAliasIdentification.
+ */
+public class ResourceCensus {
+	// how far (in lines) a warning can be from the allocation it reports
+	private static final int LINE_TOLERANCE = 2;
+
+	private static class MethodResources {
+		CGNode cgnode;
+		IR ir;
+		List<SSANewInstruction> allocations = new ArrayList<SSANewInstruction>();
+	}
+
+	// Per type or per package counts
+	private static class Count {
+		int total = 0;
+		int leaked = 0;
+	}
+
+	private static class MethodCensus {
+		int total = 0;
+		int leaked = 0;
+		int unmatchedWarnings = 0;
+		HashMap<String, Count> types = new HashMap<String, Count>();
+	}
+
+	public static void run(List<Warning> matchedWarnings, String outputFile) {
+		/*
+		 * Everything here runs sequentially: the IRs come from WALA's cache,
+		 * isNewResourceStatement initializes WALA classes lazily and reads the
+		 * static ResourceTypeIndex map, and the alias analysis updates shared
+		 * maps and the ambiguous lookup counter. None of it is thread safe.
+		 */
+		List<MethodResources> methods = new ArrayList<MethodResources>();
+		for (ArrayList<CGNode> methodList : ProgramInfo.appMethodsMap.values()) {
+			for (CGNode cgnode : methodList) {
+				IR ir = cgnode.getIR();
+				if (ir == null) {
+					continue;
+				}
+				MethodResources m = new MethodResources();
+				m.cgnode = cgnode;
+				m.ir = ir;
+				for (SSAInstruction ins : ir.getInstructions()) {
+					if (CommonUtils.isNewResourceStatement(ins)) {
+						m.allocations.add((SSANewInstruction) ins);
+					}
+				}
+				methods.add(m);
+			}
+		}
+		for (MethodResources m : methods) {
+			for (SSANewInstruction ins : m.allocations) {
+				ResourceAliasIdentification.computeWarningResourceAliases(m.cgnode, ins.getDef());
+				ResourceAliasIdentification.computePointerAliases(m.cgnode, ins.getDef());
+			}
+		}
+
+		HashMap<String, List<Warning>> warningsByMethod = new HashMap<String, List<Warning>>();
+		for (Warning w : matchedWarnings) {
+			if (w.matchedCgnode != null && w.matchedInstruction != null) {
+				warningsByMethod.computeIfAbsent(SymbolTable.methodSignature(w.matchedCgnode.getMethod()), k -> new ArrayList<Warning>()).add(w);
+			}
+		}
+		List<MethodCensus> results = new ArrayList<MethodCensus>();
+		for (MethodResources m : methods) {
+			results.add(countMethod(m, warningsByMethod.get(SymbolTable.methodSignature(m.cgnode.getMethod()))));
+		}
+
+		// Merge the per-method results
+		int total = 0;
+		int leaked = 0;
+		int unmatchedWarnings = 0;
+		TreeMap<String, Count> types = new TreeMap<String, Count>();
+		TreeMap<String, Count> packages = new TreeMap<String, Count>();
+		for (MethodCensus r : results) {
+			total += r.total;
+			leaked += r.leaked;
+			unmatchedWarnings += r.unmatchedWarnings;
+			for (Map.Entry<String, Count> e : r.types.entrySet()) {
+				add(types.computeIfAbsent(e.getKey(), k -> new Count()), e.getValue());
+				add(packages.computeIfAbsent(getPackage(e.getKey()), k -> new Count()), e.getValue());
+			}
+		}
+		// Warnings matched to methods that weren't counted (e.g. without an IR)
+		HashSet<String> countedMethods = new HashSet<String>();
+		for (MethodResources m : methods) {
+			countedMethods.add(SymbolTable.methodSignature(m.cgnode.getMethod()));
+		}
+		for (Map.Entry<String, List<Warning>> e : warningsByMethod.entrySet()) {
+			if (!countedMethods.contains(e.getKey())) {
+				unmatchedWarnings += e.getValue().size();
+			}
+		}
+
+		try (BufferedWriter writer = new BufferedWriter(new FileWriter(outputFile))) {
+			writer.write("{\"totalResources\": " + total + ", \"leakedResources\": " + leaked
+					+ ", \"unmatchedWarnings\": " + unmatchedWarnings + ",\n");
+			writer.write(" \"types\": " + toJson(types) + ",\n");
+			writer.write(" \"packages\": " + toJson(packages) + "}\n");
+		} catch (IOException e) {
+			System.out.println("ERROR: Could not write the resource census to " + outputFile);
+			e.printStackTrace();
+		}
+	}
+
+	/*
+	 * Counts the resources of one method, deduplicating the ones that are
+	 * aliases of each other, and matches them against the method's warnings.
+	 */
+	private static MethodCensus countMethod(MethodResources m, List<Warning> warnings) {
+		MethodCensus r = new MethodCensus();
+		List<Warning> remaining = warnings == null ? new ArrayList<Warning>() : new ArrayList<Warning>(warnings);
+		HashSet<Integer> visitedVariables = new HashSet<Integer>();
+		for (SSANewInstruction ins : m.allocations) {
+			List<Integer> resourceAliases = ResourceAliasIdentification.getAllResourceAliases(m.cgnode, ins.getDef());
+			resourceAliases.add(ins.getDef());
+			boolean duplicateResource = false;
+			for (int alias : resourceAliases) {
+				if (visitedVariables.contains(alias)) {
+					duplicateResource = true;
+				}
+			}
+			if (duplicateResource) {
+				continue;
+			}
+			visitedVariables.add(ins.getDef());
+
+			Warning matchedWarning = null;
+			int line = FixUtils.getSourceLine(ins, m.cgnode);
+			for (Warning w : remaining) {
+				if (resourceAliases.contains(w.matchedInstruction.getDef())
+						|| Math.abs(w.lineNumber - line) <= LINE_TOLERANCE) {
+					matchedWarning = w;
+					break;
+				}
+			}
+			Count c = r.types.computeIfAbsent(SymbolTable.className(ins.getConcreteType()), k -> new Count());
+			c.total += 1;
+			r.total += 1;
+			if (matchedWarning != null) {
+				remaining.remove(matchedWarning);
+				c.leaked += 1;
+				r.leaked += 1;
+			}
+		}
+		r.unmatchedWarnings = remaining.size();
+		return r;
+	}
+
+	private static void add(Count to, Count from) {
+		to.total += from.total;
+		to.leaked += from.leaked;
+	}
+
+	// Ljava/io/FileInputStream -> java.io
+	private static String getPackage(String typeName) {
+		int end = typeName.lastIndexOf('/');
+		if (end < 0) {
+			return "";
+		}
+		return typeName.substring(1, end).replace('/', '.');
+	}
+
+	private static String toJson(TreeMap<String, Count> counts) {
+		StringBuilder sb = new StringBuilder("{");
+		for (Map.Entry<String, Count> e : counts.entrySet()) {
+			if (sb.length() > 1) {
+				sb.append(", ");
+			}
+			sb.append(jsonString(e.getKey())).append(": {\"total\": ").append(e.getValue().total)
+					.append(", \"leaked\": ").append(e.getValue().leaked).append("}");
+		}
+		return sb.append("}").toString();
+	}
+
+	private static String jsonString(String s) {
+		StringBuilder sb = new StringBuilder("\"");
+		for (char ch : s.toCharArray()) {
+			if (ch == '"' || ch == '\\') {
+				sb.append('\\').append(ch);
+			} else if (ch < 0x20) {
+				sb.append(String.format("\\u%04x", (int) ch));
+			} else {
+				sb.append(ch);
+			}
+		}
+		return sb.append("\"").toString();
+	}
+}
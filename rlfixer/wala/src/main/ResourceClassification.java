@@ -24,10 +24,12 @@ import com.ibm.wala.types.FieldReference;
 import com.ibm.wala.types.TypeReference;
 
 import sourceFixStrategies.FixUtils;
+import utils.CallerIndex;
 import utils.CommonUtils;
 import utils.Pair;
 import utils.ProgramInfo;
 import utils.ResourceEscapeType;
+import utils.SymbolTable;
 import utils.Warning;
 
 
@@ -84,7 +86,7 @@ public class ResourceClassification {
 	 */
 	private void checkDefinitionsForEscape(CGNode cgnode, int variableNumber) {
 		// Record visited variables so that you don't visit them again.
-		String fullVariableName = cgnode.getMethod().getSignature() + "#" + variableNumber;
+		String fullVariableName = CommonUtils.getVariableId(cgnode, variableNumber);
 		if (visitedDefintions.contains(fullVariableName)) {
 			return;
 		} else {
@@ -136,13 +138,14 @@ public class ResourceClassification {
 			// make a query on all corresponding parameters
 			if (variableNumber <= cgnode.getMethod().getNumberOfParameters()) { // this is a null value.
 				// Corner case
-				if (!ProgramInfo.callersMap.containsKey(cgnode) ) {
+				if (!ProgramInfo.callerIndex.lookupCallers(cgnode) ) {
 					return;
 				}
 				// Normal case
-				for (Pair<CGNode, SSAInvokeInstruction> caller : ProgramInfo.callersMap.get(cgnode)) {
+				CallerIndex callers = ProgramInfo.callerIndex;
+				for (int e = callers.begin(cgnode); e < callers.end(cgnode); e++) {
 					int argumentNum = variableNumber - 1;
-					checkDefinitionsForEscape(caller.fst, caller.snd.getUse(argumentNum));
+					checkDefinitionsForEscape(callers.getCaller(e), callers.getCallSite(e).getUse(argumentNum));
 				}
 			} else {
 				// variable gets its value from a "null". Nothing to do here.
@@ -168,15 +171,16 @@ public class ResourceClassification {
 				// If an alias is a parameter, add a parameter escape type
 				warning.escapeTypes.add(ResourceEscapeType.PARAM);
 				// Make a recursive call to the caller methods.
-				ArrayList<Pair<CGNode, SSAInvokeInstruction>> callers
-						= ProgramInfo.callersMap.get(warning.matchedCgnode);
-				if (callers != null) {  // if this function has any callers
-					for (Pair<CGNode, SSAInvokeInstruction> caller : callers) {
-						warning.parameterAlias = aliasVariableNum;
-						int argumentNumber = aliasVariableNum - 1;
-						int argumentVariableNumber = caller.snd.getUse(argumentNumber);
-						makeEscapeAnalysisQuery(caller.fst, argumentVariableNumber);
-					}
+				CallerIndex callers = ProgramInfo.callerIndex;
+				CGNode callee = warning.matchedCgnode;
+				if (!callers.lookupCallers(callee)) {
+					continue;
+				}
+				for (int e = callers.begin(callee); e < callers.end(callee); e++) {
+					warning.parameterAlias = aliasVariableNum;
+					int argumentNumber = aliasVariableNum - 1;
+					int argumentVariableNumber = callers.getCallSite(e).getUse(argumentNumber);
+					makeEscapeAnalysisQuery(callers.getCaller(e), argumentVariableNumber);
 				}
 			}
 		}
@@ -191,7 +195,7 @@ public class ResourceClassification {
 	 */
 	private void makeEscapeAnalysisQuery(CGNode cgnode, int variableNumber) {
 		// Record visited variables so that you don't visit them again.
-		String fullVariableName = cgnode.getMethod().getSignature() + "#" + variableNumber;
+		String fullVariableName = CommonUtils.getVariableId(cgnode, variableNumber);
 		if (visitedVariables.contains(fullVariableName)) {
 			return;
 		} else {
@@ -241,7 +245,7 @@ public class ResourceClassification {
 
 				// Second, deal with the special case where this is the
 				// constructor of the resource from the warning.
-				Set<CGNode> possibleTargets = ProgramInfo.callgraph.getPossibleTargets(cgnode, invokeIns.getCallSite());
+				Set<CGNode> possibleTargets = ProgramInfo.getPossibleTargets(cgnode, invokeIns.getCallSite());
 				if (possibleTargets.size() == 1) {
 					CGNode target = new ArrayList<>(possibleTargets).get(0);
 					boolean invokeInsIsInit = target.getMethod().isInit();
@@ -268,18 +272,17 @@ public class ResourceClassification {
 				}
 			}
 			else if (nextInstruction instanceof SSAReturnInstruction) {
-				String originalCGnode = warning.matchedCgnode.getMethod().getSignature();
-				if (cgnode.getMethod().getSignature().equalsIgnoreCase(originalCGnode)){
+				String originalCGnode = SymbolTable.methodSignature(warning.matchedCgnode.getMethod());
+				if (SymbolTable.methodSignature(cgnode.getMethod()).equalsIgnoreCase(originalCGnode)){
 					// If this is a return from the same method as the warning.
 					warning.escapeTypes.add(ResourceEscapeType.RETURN);
 				}
 
 				// Make a recursive call to the returned methods.
-				ArrayList<Pair<CGNode, SSAInvokeInstruction>> callers
-						= ProgramInfo.callersMap.get(cgnode);
-				if (callers != null) {  // if this function has any callers
-					for (Pair<CGNode, SSAInvokeInstruction> caller : callers) {
-						makeEscapeAnalysisQuery(caller.fst, caller.snd.getDef());
+				CallerIndex callers = ProgramInfo.callerIndex;
+				if (callers.lookupCallers(cgnode)) {
+					for (int e = callers.begin(cgnode); e < callers.end(cgnode); e++) {
+						makeEscapeAnalysisQuery(callers.getCaller(e), callers.getCallSite(e).getDef());
 					}
 				}
 			}
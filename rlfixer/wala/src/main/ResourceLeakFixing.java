@@ -1,12 +1,57 @@
 package main;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import com.ibm.wala.ipa.callgraph.CGNode;
+
 import sourceFixStrategies.*;
 import utils.CommonUtils;
+import utils.ProgramInfo;
 import utils.ResourceEscapeType;
 import utils.Warning;
 
 public class ResourceLeakFixing {
 
+	/*
+	 * Classifies and fixes the warnings, one method at a time, so that the
+	 * warnings of a method share its IR, CFG, loops, post-dominators and
+	 * parsed source file (see MethodFixContext). Within a method the
+	 * warnings keep their order.
+	 */
+	public static void classifyAndFix(List<Warning> warnings) {
+		classifyAndFix(warnings, null);
+	}
+
+	/*
+	 * If 'ambiguous' is given, ambiguous[i] is set when the classification or
+	 * the fix of the i-th warning depends on an ambiguous callgraph lookup
+	 * (see ProgramInfo.noteAmbiguousLookup).
+	 */
+	public static void classifyAndFix(List<Warning> warnings, boolean[] ambiguous) {
+		LinkedHashMap<CGNode, List<Integer>> warningsByMethod = new LinkedHashMap<CGNode, List<Integer>>();
+		for (int i = 0; i < warnings.size(); i++) {
+			warningsByMethod.computeIfAbsent(warnings.get(i).matchedCgnode, k -> new ArrayList<Integer>()).add(i);
+		}
+		for (List<Integer> methodWarnings : warningsByMethod.values()) {
+			MethodFixContext.begin();
+			try {
+				for (int i : methodWarnings) {
+					Warning w = warnings.get(i);
+					int lookups = ProgramInfo.getAmbiguousLookups();
+					new ResourceClassification(w).classifyWarning();
+					computeSourceCodeFix(w);
+					if (ambiguous != null && lookups != ProgramInfo.getAmbiguousLookups()) {
+						ambiguous[i] = true;
+					}
+				}
+			} finally {
+				MethodFixContext.end();
+			}
+		}
+	}
+
 	public static void computeSourceCodeFix(Warning w) {
 		if (w.escapeTypes.contains(ResourceEscapeType.FIELD_SOURCE)) {
 			w.escapeTypes.remove(ResourceEscapeType.FIELD_SOURCE);
@@ -0,0 +1,50 @@
+package main;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Properties;
+
+import com.ibm.wala.ipa.callgraph.AnalysisScope;
+import com.ibm.wala.ipa.cha.ClassHierarchy;
+import com.ibm.wala.ipa.cha.ClassHierarchyException;
+import com.ibm.wala.ipa.cha.ClassHierarchyFactory;
+import com.ibm.wala.types.ClassLoaderReference;
+import com.ibm.wala.util.config.AnalysisScopeReader;
+import com.ibm.wala.util.io.CommandLine;
+
+import utils.ResourceTypeIndex;
+
+/*
+ * Prebuilds the resource type index (see utils.ResourceTypeIndex) for the JDK
+ * and for a list of library jars, e.g. all the lib/ folders of the benchmarks:
+ *
+ *   java main.ResourceTypeIndexGenerator -indexDir rlfixer/resource-index -libClasspath a.jar:b.jar
+ *
+ * Jars that already have an index file (same key and version) are skipped.
+ */
+public class ResourceTypeIndexGenerator {
+	public static void main(String[] args) throws IOException, ClassHierarchyException {
+		Properties p = CommandLine.parse(args);
+		String indexDir = p.getProperty("indexDir");
+		String libClasspath = p.getProperty("libClasspath");
+		String exclusions = p.getProperty("exclusions");
+		if (indexDir == null) {
+			System.out.println("ERROR: -indexDir is required");
+			System.exit(1);
+		}
+		File exclusionsFile = null;
+		if (exclusions != null) {
+			exclusionsFile = new File(exclusions);
+		}
+
+		long time1 = System.currentTimeMillis();
+		AnalysisScope scope = AnalysisScopeReader.makePrimordialScope(exclusionsFile);
+		if (libClasspath != null && !libClasspath.isEmpty()) {
+			AnalysisScopeReader.addClassPathToScope(libClasspath, scope, ClassLoaderReference.Extension);
+		}
+		ClassHierarchy cha = ClassHierarchyFactory.make(scope);
+		ResourceTypeIndex.load(scope, cha, indexDir, true);
+		long time2 = System.currentTimeMillis();
+		System.out.println("Indexed " + ResourceTypeIndex.size() + " classes in " + (time2 - time1) + "ms");
+	}
+}
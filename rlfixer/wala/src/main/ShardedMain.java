@@ -0,0 +1,298 @@
+package main;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import com.ibm.wala.ipa.callgraph.CGNode;
+import com.ibm.wala.util.io.CommandLine;
+
+import utils.Warning;
+
+/*
+ * Runs RLFixer on one project with several worker processes, each fixing one
+ * shard of the matched warnings, and merges what they found.
+ *
+ * Usage: java main.ShardedMain -shards <n> -shardDir <dir> <the arguments of Main>
+ *        java main.ShardedMain -merge true -shards <n> -shardDir <dir> [-debugOutput <file>]
+ *
+ * The first form starts n workers (main.Main with "-shard i/n -shardOutput
+ * <dir>/shard-i.txt", with the same classpath and -X options as this JVM) and
+ * then merges their shard files. The second form only merges, e.g. when the
+ * workers were run on other machines. What a worker prints goes to
+ * <dir>/shard-i.log. The merged fixes are printed like Main prints them, and
+ * the merged debug output is written to -debugOutput, both in the original
+ * warning order.
+ *
+ * Every worker builds the same ProgramInfo from the same arguments (a -resourceIndexDir
+ * is shared) and matches all the warnings, so the warning indices agree. It
+ * identifies the wrappers and duplicates of all the warnings, so the aliases
+ * and duplicates come out as in an unsharded run, whichever shard the earlier
+ * warnings are in. Only classifying and fixing is split, by method, so the
+ * warnings of a method stay together (see ResourceLeakFixing).
+ * So sharding only pays off when classifying and fixing take most of a Main
+ * run (compare the two timings Main prints), and each worker takes about as
+ * much memory as Main.
+ *
+ * A shard file starts with its header, "shard <i> <n>" and "matched <m>".
+ * Then each of its warnings has an "I <index> <k>" record with its line of the
+ * debug output, and, if it is fixed, an "F <index> <k>" record with its fixes;
+ * each record is followed by its k lines. Shard 0 also has the debug output
+ * lines of the unmatched warnings (indices m and up).
+ */
+public class ShardedMain {
+	private static final String HEADER = "# rlfixer warning shard v1";
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		Properties p = CommandLine.parse(args);
+		String shards = p.getProperty("shards");
+		String shardDir = p.getProperty("shardDir");
+		if (shards == null || shardDir == null) {
+			System.out.println("ERROR: -shards and -shardDir are required");
+			System.exit(1);
+		}
+		int shardCount = Integer.parseInt(shards);
+		String debugOutput = p.getProperty("debugOutput");
+		if (!"true".equals(p.getProperty("merge"))) {
+			new File(shardDir).mkdirs();
+			if (!runWorkers(p, shardCount, shardDir)) {
+				System.exit(1);
+			}
+		}
+		if (!merge(shardCount, shardDir, debugOutput)) {
+			System.exit(1);
+		}
+	}
+
+	/*
+	 * Starts one worker per shard and waits for all of them.
+	 * Returns false if one of them failed.
+	 */
+	private static boolean runWorkers(Properties p, int shardCount, String shardDir) throws IOException, InterruptedException {
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		List<Process> workers = new ArrayList<Process>();
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < shardCount; i++) {
+			List<String> command = new ArrayList<String>();
+			command.add(java);
+			// the heap and stack sizes, but not e.g. a debugger agent
+			for (String jvmArg : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+				if (jvmArg.startsWith("-X")) {
+					command.add(jvmArg);
+				}
+			}
+			command.add("-cp");
+			command.add(System.getProperty("java.class.path"));
+			command.add(Main.class.getName());
+			for (String key : p.stringPropertyNames()) {
+				if (key.equals("shards") || key.equals("shardDir") || key.equals("merge") || key.equals("debugOutput")) {
+					continue;
+				}
+				// the census is over all the warnings, so one worker is enough
+				if (key.equals("census") && i != 0) {
+					continue;
+				}
+				command.add("-" + key);
+				command.add(p.getProperty(key));
+			}
+			command.add("-shard");
+			command.add(i + "/" + shardCount);
+			command.add("-shardOutput");
+			command.add(shardFile(shardDir, i).getPath());
+			ProcessBuilder pb = new ProcessBuilder(command);
+			pb.redirectErrorStream(true);
+			pb.redirectOutput(new File(shardDir, "shard-" + i + ".log"));
+			workers.add(pb.start());
+		}
+		boolean ok = true;
+		for (int i = 0; i < shardCount; i++) {
+			int exitCode = workers.get(i).waitFor();
+			if (exitCode != 0) {
+				System.out.println("ERROR: Shard " + i + " failed with exit code " + exitCode + ", see " + new File(shardDir, "shard-" + i + ".log"));
+				ok = false;
+			}
+		}
+		System.out.println(shardCount + " shards done in " + (System.currentTimeMillis() - start) + "ms");
+		return ok;
+	}
+
+	/*
+	 * Which of the matched warnings the given shard classifies and fixes.
+	 * The warnings are split by method: each method (in the order of its
+	 * first warning) goes to the shard with the fewest warnings so far.
+	 */
+	public static boolean[] selectShard(List<Warning> matchedWarnings, int shardIndex, int shardCount) {
+		boolean[] inShard = new boolean[matchedWarnings.size()];
+		LinkedHashMap<CGNode, List<Integer>> warningsByMethod = new LinkedHashMap<CGNode, List<Integer>>();
+		for (int i = 0; i < matchedWarnings.size(); i++) {
+			warningsByMethod.computeIfAbsent(matchedWarnings.get(i).matchedCgnode, k -> new ArrayList<Integer>()).add(i);
+		}
+		int[] shardSizes = new int[shardCount];
+		for (List<Integer> methodWarnings : warningsByMethod.values()) {
+			int shard = 0;
+			for (int s = 1; s < shardCount; s++) {
+				if (shardSizes[s] < shardSizes[shard]) {
+					shard = s;
+				}
+			}
+			shardSizes[shard] += methodWarnings.size();
+			if (shard == shardIndex) {
+				for (int i : methodWarnings) {
+					inShard[i] = true;
+				}
+			}
+		}
+		return inShard;
+	}
+
+	public static List<Warning> shardWarnings(List<Warning> matchedWarnings, boolean[] inShard) {
+		List<Warning> shardWarnings = new ArrayList<Warning>();
+		for (int i = 0; i < matchedWarnings.size(); i++) {
+			if (inShard[i]) {
+				shardWarnings.add(matchedWarnings.get(i));
+			}
+		}
+		return shardWarnings;
+	}
+
+	public static void writeShard(String shardOutput, List<Warning> matchedWarnings, List<Warning> unmatchedWarnings,
+			boolean[] inShard, int shardIndex, int shardCount) throws IOException {
+		try (BufferedWriter writer = new BufferedWriter(new FileWriter(shardOutput))) {
+			writer.write(HEADER + "\n");
+			writer.write("shard " + shardIndex + " " + shardCount + "\n");
+			writer.write("matched " + matchedWarnings.size() + "\n");
+			for (int i = 0; i < matchedWarnings.size(); i++) {
+				if (!inShard[i]) {
+					continue;
+				}
+				Warning w = matchedWarnings.get(i);
+				writeRecord(writer, "I", i, Main.formatWarningInformation(i, w));
+				if (!w.unfixable && !w.isDuplicateWarning) {
+					writeRecord(writer, "F", i, Main.formatSourceLevelFix(i, w));
+				}
+			}
+			if (shardIndex == 0) {
+				int index = matchedWarnings.size();
+				for (Warning w : unmatchedWarnings) {
+					writeRecord(writer, "I", index, Main.formatUnmatchedWarningInformation(index, w));
+					index++;
+				}
+			}
+		}
+	}
+
+	// 'text' ends with a newline
+	private static void writeRecord(BufferedWriter writer, String kind, int index, String text) throws IOException {
+		String[] lines = text.split("\n", -1);
+		writer.write(kind + " " + index + " " + (lines.length - 1) + "\n");
+		writer.write(text);
+	}
+
+	/*
+	 * Prints the fixes of all the shards and writes their debug output, in
+	 * the original warning order. Returns false if a shard file is missing or
+	 * malformed (e.g. truncated), or the shards don't cover each matched
+	 * warning exactly once.
+	 */
+	public static boolean merge(int shardCount, String shardDir, String debugOutput) throws IOException {
+		TreeMap<Integer, String> fixes = new TreeMap<Integer, String>();
+		TreeMap<Integer, String> information = new TreeMap<Integer, String>();
+		int matched = -1;
+		for (int i = 0; i < shardCount; i++) {
+			File f = shardFile(shardDir, i);
+			if (!f.exists()) {
+				System.out.println("ERROR: Missing shard file " + f);
+				return false;
+			}
+			try (BufferedReader reader = new BufferedReader(new FileReader(f))) {
+				String header = reader.readLine();
+				String shard = reader.readLine();
+				String matchedLine = reader.readLine();
+				if (!HEADER.equals(header) || !("shard " + i + " " + shardCount).equals(shard) || matchedLine == null
+						|| !matchedLine.startsWith("matched ")) {
+					System.out.println("ERROR: " + f + " is not shard " + i + " of " + shardCount);
+					return false;
+				}
+				int shardMatched = parseCount(matchedLine.substring("matched ".length()));
+				if (shardMatched < 0) {
+					System.out.println("ERROR: " + f + ": Malformed line: " + matchedLine);
+					return false;
+				}
+				if (matched != -1 && shardMatched != matched) {
+					System.out.println("ERROR: The shards matched different warnings (" + matched + " and " + shardMatched + ")");
+					return false;
+				}
+				matched = shardMatched;
+				for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+					String[] record = line.split(" ", -1);
+					int index = record.length == 3 ? parseCount(record[1]) : -1;
+					int lineCount = record.length == 3 ? parseCount(record[2]) : -1;
+					boolean isFix = record[0].equals("F");
+					if (index < 0 || lineCount < 0 || !(isFix || record[0].equals("I")) || (isFix && index >= matched)) {
+						System.out.println("ERROR: " + f + ": Malformed record: " + line);
+						return false;
+					}
+					StringBuilder text = new StringBuilder();
+					for (int k = lineCount; k > 0; k--) {
+						String textLine = reader.readLine();
+						if (textLine == null) {
+							System.out.println("ERROR: " + f + ": Truncated record: " + line);
+							return false;
+						}
+						text.append(textLine).append("\n");
+					}
+					TreeMap<Integer, String> target = isFix ? fixes : information;
+					if (target.put(index, text.toString()) != null) {
+						System.out.println("ERROR: Warning " + index + " is in more than one shard");
+						return false;
+					}
+				}
+			}
+		}
+		for (int index = 0; index < matched; index++) {
+			if (!information.containsKey(index)) {
+				System.out.println("ERROR: Warning " + index + " is in no shard");
+				return false;
+			}
+		}
+
+		System.out.println("\nSOURCE LEVEL FIXES\n");
+		for (String fix : fixes.values()) {
+			System.out.print(fix);
+		}
+		if (debugOutput != null) {
+			try (BufferedWriter writer = new BufferedWriter(new FileWriter(debugOutput))) {
+				writer.write(Main.WARNINGS_INFORMATION_HEADER);
+				for (String line : information.values()) {
+					writer.write(line);
+				}
+			}
+		}
+		return true;
+	}
+
+	// A non-negative decimal number, or -1 if s isn't one.
+	private static int parseCount(String s) {
+		if (s.isEmpty() || !s.chars().allMatch(Character::isDigit)) {
+			return -1;
+		}
+		try {
+			return Integer.parseInt(s);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private static File shardFile(String shardDir, int shardIndex) {
+		return new File(shardDir, "shard-" + shardIndex + ".txt");
+	}
+}
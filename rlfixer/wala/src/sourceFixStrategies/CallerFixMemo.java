@@ -0,0 +1,111 @@
+package sourceFixStrategies;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import com.ibm.wala.ipa.callgraph.CGNode;
+import com.ibm.wala.ssa.SSAInstruction;
+
+import main.ResourceAliasIdentification;
+import main.ResourceClassification;
+import main.ResourceLeakFixing;
+import utils.ProgramInfo;
+import utils.ResourceEscapeType;
+import utils.Warning;
+
+/*
+ * ReturnFix and ParamFix fix a resource in the callers of a method by creating
+ * a fake warning at each call site, and running the whole pipeline on it
+ * (aliases, classification, fix). When several warnings share the same factory
+ * method the same call sites get fixed again and again, so the outcome of each
+ * fake warning is remembered here.
+ *
+ * Key = 'caller-graph-node-id#call-site-iindex#parameter-index' (-1 for a return).
+ * The call sites that are being fixed right now are tracked too, so that a
+ * recursive chain of returns (or parameters) doesn't recurse forever.
+ */
+public class CallerFixMemo {
+	private static HashMap<String, FixResult> memo = new HashMap<String, FixResult>();
+	private static HashSet<String> inProgress = new HashSet<String>();
+
+	public static int hits = 0;
+	public static int misses = 0;
+
+	private static class FixResult {
+		ArrayList<String> sourceLevelFixes;
+		HashSet<ResourceEscapeType> escapeTypes;
+		boolean unfixable;
+		String comments;
+		// whether it used an ambiguous callgraph lookup (see ProgramInfo.noteAmbiguousLookup)
+		boolean ambiguous;
+	}
+
+	public static void reset() {
+		forgetResults();
+		hits = 0;
+		misses = 0;
+	}
+
+	/*
+	 * Drops the remembered fixes but keeps counting, for when the callgraph
+	 * (and so the graph node ids in the keys) changes.
+	 */
+	public static void forgetResults() {
+		memo = new HashMap<String, FixResult>();
+		inProgress = new HashSet<String>();
+	}
+
+	/*
+	 * Fixes the resource defined by 'resourceInstruction' in 'caller' (reached
+	 * through 'callSite'), and adds the result to the original warning.
+	 */
+	public static void fixAtCaller(Warning warning, CGNode caller, SSAInstruction callSite, int parameterIndex,
+			SSAInstruction resourceInstruction) {
+		String key = caller.getGraphNodeId() + "#" + callSite.iIndex() + "#" + parameterIndex;
+		FixResult result = memo.get(key);
+		if (result != null) {
+			hits++;
+			if (result.ambiguous) {
+				ProgramInfo.noteAmbiguousLookup();
+			}
+		} else if (inProgress.contains(key)) {
+			// We came back to a call site we are still fixing.
+			warning.unfixable = true;
+			warning.comments += "Recursive caller chain;";
+			return;
+		} else {
+			misses++;
+			inProgress.add(key);
+			int lookups = ProgramInfo.getAmbiguousLookups();
+			result = computeFix(caller, resourceInstruction);
+			result.ambiguous = lookups != ProgramInfo.getAmbiguousLookups();
+			inProgress.remove(key);
+			memo.put(key, result);
+		}
+		if (result.unfixable) {
+			warning.unfixable = true;
+		}
+		warning.comments += result.comments;
+		warning.sourceLevelFixes.addAll(result.sourceLevelFixes);
+		warning.escapeTypes.addAll(result.escapeTypes);
+	}
+
+	private static FixResult computeFix(CGNode caller, SSAInstruction resourceInstruction) {
+		Warning fakeWarning = new Warning(caller.getMethod().getDeclaringClass(), caller, resourceInstruction);
+		// Get aliases
+		ArrayList<Warning> fakeWarningsArray = new ArrayList<Warning>();
+		fakeWarningsArray.add(fakeWarning);
+		ResourceAliasIdentification.identifyWrappers(fakeWarningsArray);
+		// Classify and fix it.
+		new ResourceClassification(fakeWarning).classifyWarning();
+		ResourceLeakFixing.computeSourceCodeFix(fakeWarning);
+
+		FixResult result = new FixResult();
+		result.sourceLevelFixes = new ArrayList<String>(fakeWarning.sourceLevelFixes);
+		result.escapeTypes = new HashSet<ResourceEscapeType>(fakeWarning.escapeTypes);
+		result.unfixable = fakeWarning.unfixable;
+		result.comments = fakeWarning.comments;
+		return result;
+	}
+}
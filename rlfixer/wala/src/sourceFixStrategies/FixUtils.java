@@ -248,7 +248,7 @@ public class FixUtils {
 			return new Pair<Integer,Boolean>(CommonUtils.NOT_FOUND,false);
 		}
 		// Normal case.
-		HashMap<Integer, HashSet<Integer>> postDominators = computePostDominatorsForBBs(cfg, ir);
+		HashMap<Integer, HashSet<Integer>> postDominators = MethodFixContext.get(w.matchedCgnode).getPostDominators();
 		// Get the common dominators of all the defs/uses of the resource.
 		List<ISSABasicBlock> resourceBBs = FixUtils.getBasicBlocksForAllAliasOccurrences(w, cfg);
 		ArrayList<HashSet<Integer>> resourceBBpostDominators = new ArrayList<HashSet<Integer>>();
@@ -334,7 +334,7 @@ public class FixUtils {
 
 	// Computes the post-dominators for every node. See wikipedia or any
 	// online algorithm for an explanation of the algorithm.
-	private static HashMap<Integer, HashSet<Integer>> computePostDominatorsForBBs(SSACFG cfg, IR ir) {
+	static HashMap<Integer, HashSet<Integer>> computePostDominatorsForBBs(SSACFG cfg, IR ir) {
 		HashMap<Integer, HashSet<Integer>> postDominators = new HashMap<Integer, HashSet<Integer>>();
 		// Allocate space basic blocks is its own post-dominator.
 		for (Iterator<ISSABasicBlock> it = ir.getBlocks() ; it.hasNext() ;) {
@@ -412,41 +412,40 @@ public class FixUtils {
 	}
 	
 	public static ArrayList<Integer> computeLineNumbersForResource(Warning w){
+		return MethodFixContext.get(w.matchedCgnode).getResourceLines(w.matchedInstruction.getDef(), false);
+	}
+
+	public static ArrayList<Integer> computeLineNumbersForResourceDefs(Warning w) {
+		return MethodFixContext.get(w.matchedCgnode).getResourceLines(w.matchedInstruction.getDef(), true);
+	}
+
+	/*
+	 * The source lines of the definitions (and uses, unless onlyDefinitions is
+	 * set) of the resource and all its aliases.
+	 */
+	static ArrayList<Integer> computeResourceLines(CGNode cgnode, int resourceVariable, boolean onlyDefinitions) {
 		ArrayList<Integer> resourceLineNumbers = new ArrayList<Integer>();
-		List<Integer> resourceAliases = ResourceAliasIdentification.getAllResourceAliases(w.matchedCgnode, w.matchedInstruction.getDef());
-		resourceAliases.add(w.matchedInstruction.getDef());
+		List<Integer> resourceAliases = ResourceAliasIdentification.getAllResourceAliases(cgnode, resourceVariable);
+		resourceAliases.add(resourceVariable);
 
 		for (int aliasVariableNum : resourceAliases) {
 			// Add the definition
-			SSAInstruction def = w.matchedCgnode.getDU().getDef(aliasVariableNum);
+			SSAInstruction def = cgnode.getDU().getDef(aliasVariableNum);
 			if (def!=null && def.iIndex() >= 0) {
-				resourceLineNumbers.add(FixUtils.getSourceLine(def, w.matchedCgnode));
+				resourceLineNumbers.add(FixUtils.getSourceLine(def, cgnode));
+			}
+			if (onlyDefinitions) {
+				continue;
 			}
 			// Add each use of the alias
-			Iterator<SSAInstruction> useInstructionsIterator = w.matchedCgnode.getDU().getUses(aliasVariableNum);
+			Iterator<SSAInstruction> useInstructionsIterator = cgnode.getDU().getUses(aliasVariableNum);
 			while(useInstructionsIterator.hasNext()) {
 				SSAInstruction use = useInstructionsIterator.next();
 				if (use != null && use.iIndex() >=0 ) {
-					resourceLineNumbers.add(FixUtils.getSourceLine(use, w.matchedCgnode));
+					resourceLineNumbers.add(FixUtils.getSourceLine(use, cgnode));
 				}
 			}
 		}
 		return resourceLineNumbers;
 	}
-
-
-	public static ArrayList<Integer> computeLineNumbersForResourceDefs(Warning w) {
-		ArrayList<Integer> resourceDefLineNumbers = new ArrayList<Integer>();
-		List<Integer> resourceAliases = ResourceAliasIdentification.getAllResourceAliases(w.matchedCgnode, w.matchedInstruction.getDef());
-		resourceAliases.add(w.matchedInstruction.getDef());
-
-		for (int aliasVariableNum : resourceAliases) {
-			// Add the definition
-			SSAInstruction def = w.matchedCgnode.getDU().getDef(aliasVariableNum);
-			if (def!=null && def.iIndex() >= 0) {
-				resourceDefLineNumbers.add(FixUtils.getSourceLine(def, w.matchedCgnode));
-			}
-		}
-		return resourceDefLineNumbers;
-	}
 }
@@ -8,15 +8,7 @@ import java.util.Queue;
 import java.util.Set;
 import java.util.Stack;
 
-import com.github.javaparser.ast.CompilationUnit;
-import com.github.javaparser.ast.stmt.BlockStmt;
-import com.github.javaparser.ast.stmt.DoStmt;
-import com.github.javaparser.ast.stmt.ForEachStmt;
-import com.github.javaparser.ast.stmt.ForStmt;
-import com.github.javaparser.ast.stmt.Statement;
 import com.github.javaparser.ast.stmt.TryStmt;
-import com.github.javaparser.ast.stmt.WhileStmt;
-import com.github.javaparser.ast.visitor.GenericVisitorAdapter;
 import com.ibm.wala.ssa.IR;
 import com.ibm.wala.ssa.ISSABasicBlock;
 import com.ibm.wala.ssa.SSACFG;
@@ -24,16 +16,16 @@ import com.ibm.wala.ssa.SSAConditionalBranchInstruction;
 import com.ibm.wala.ssa.SSAGotoInstruction;
 import com.ibm.wala.ssa.SSAInstruction;
 
-import utils.CommonUtils;
+import utils.AnalysisException;
 import utils.Pair;
 import utils.Warning;
 
 public class LoopFix {
 
 	public static boolean resourceInForLoop(Warning w) {
-		SSACFG cfg = w.matchedCgnode.getIR().getControlFlowGraph();
-		ISSABasicBlock warningBB = cfg.getBlockForInstruction(w.matchedInstruction.iIndex());
-		return basicBlockInLoop(warningBB, cfg);
+		MethodFixContext context = MethodFixContext.get(w.matchedCgnode);
+		ISSABasicBlock warningBB = context.cfg.getBlockForInstruction(w.matchedInstruction.iIndex());
+		return context.isInLoop(warningBB);
 	}
 
 	public static boolean basicBlockInLoop(ISSABasicBlock blockToCheck, SSACFG cfg) {
@@ -64,60 +56,6 @@ public class LoopFix {
 	 * end of the loop.
 	 */
 	public static boolean resourceReleasableAtLoopEnd(Warning w) {
-		class LoopEscapeCheckingVisitor extends GenericVisitorAdapter<Boolean,Object>{
-			ArrayList<Integer> resourceSrcLines;
-			ArrayList<Integer> resourceDefinitionLines;
-			
-			private LoopEscapeCheckingVisitor(ArrayList<Integer> a, ArrayList<Integer> b) {
-				resourceSrcLines = a;
-				resourceDefinitionLines = b;
-			}
-			@Override
-			public Boolean visit(ForStmt stmt, Object dummy) {
-				return makeCheckInLoopBlock(stmt.getBody());
-			}
-			@Override
-			public Boolean visit(ForEachStmt stmt, Object dummy) {
-				return makeCheckInLoopBlock(stmt.getBody());
-			}
-			@Override
-			public Boolean visit(WhileStmt stmt, Object dummy) {
-				return makeCheckInLoopBlock(stmt.getBody());
-			}
-			@Override
-			public Boolean visit(DoStmt stmt, Object dummy) {
-				return makeCheckInLoopBlock(stmt.getBody());
-			}
-			public Boolean makeCheckInLoopBlock(Statement stmt) {
-				// Make sure this is a block statement.
-				if (!stmt.hasRange() || !stmt.isBlockStmt()) {
-					return null;
-				}
-				BlockStmt loopBlock = stmt.asBlockStmt();
-				int loopBlockStart = loopBlock.getBegin().get().line;
-				int loopBlockEnd = loopBlock.getEnd().get().line;
-				// Check if at least one definition is inside this loop-block
-				boolean resourceUseInThisBlock = false;
-				for (int line : resourceDefinitionLines) {
-					if ( loopBlockEnd >= line && line >= loopBlockStart) {
-						resourceUseInThisBlock = true;
-					}
-				}
-				// If one definition is inside the loop block, all uses need to be.
-				if (resourceUseInThisBlock) {
-					for (int line : resourceSrcLines) {
-						if ( loopBlockEnd < line || line < loopBlockStart) {
-							return true;  // at least one use/def escapes
-						}
-					}
-				}
-				// Set the loop bounds for this warning.
-				w.loopStartLine = loopBlockStart;
-				w.loopEndLine = loopBlockEnd;
-				// Also check recursively if there is a nested loop.
-				return stmt.accept(this, null);
-			}
-		}
 		/*
 		IR ir = w.matchedCgnode.getIR();
 		SSACFG cfg = ir.getControlFlowGraph();
@@ -129,13 +67,11 @@ public class LoopFix {
 		*/
 		ArrayList<Integer> resourceLineNumbers = FixUtils.computeLineNumbersForResource(w);
 		ArrayList<Integer> resourceDefLineNumbers = FixUtils.computeLineNumbersForResourceDefs(w);
-		CompilationUnit cu = CommonUtils.getCompilationUnit(w.sourceFilename);
-		Boolean escapesLoop = cu.accept(new LoopEscapeCheckingVisitor(resourceLineNumbers,resourceDefLineNumbers), null);
-		if (escapesLoop == null) {
-			return true;
-		} else {
-			return false; 
-		}
+		// If one definition is inside a loop block, all uses need to be.
+		// This also sets the loop bounds for this warning.
+		boolean escapesLoop = MethodFixContext.getLineIndex(w.sourceFilename)
+				.escapesLoop(resourceLineNumbers, resourceDefLineNumbers, w);
+		return !escapesLoop;
 	}
 
 	/*
@@ -259,7 +195,7 @@ public class LoopFix {
 		}
 		if (backEdgeBB == null || loopHeadBB == null) {
 			System.out.println("WARNING: Back-edge and loop-head not found. Exiting");
-			System.exit(1);
+			throw new AnalysisException("Back-edge and loop-head not found");
 		}
 		return new Pair<ISSABasicBlock,ISSABasicBlock>(backEdgeBB,loopHeadBB);
 	}
@@ -0,0 +1,142 @@
+package sourceFixStrategies;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import com.github.javaparser.ast.CompilationUnit;
+import com.ibm.wala.ipa.callgraph.CGNode;
+import com.ibm.wala.ssa.IR;
+import com.ibm.wala.ssa.ISSABasicBlock;
+import com.ibm.wala.ssa.SSACFG;
+
+import main.ResourceAliasIdentification;
+import utils.CommonUtils;
+
+/*
+ * The method-level artifacts that the fix strategies need for a warning:
+ * the IR and CFG, which basic blocks are in a loop, the post-dominators,
+ * the source lines of each resource (with its aliases), the parsed
+ * source file and its line index (see SourceLineIndex). Without this,
+ * every strategy recomputes them for every warning, and the source file
+ * gets parsed several times per warning.
+ *
+ * ResourceLeakFixing fixes the warnings of one method together, between
+ * begin() and end(). The contexts are kept for that long, so the warnings
+ * of a method (and the fake warnings of its callers, see CallerFixMemo)
+ * share them. Outside of begin()/end() nothing is kept.
+ *
+ * The resource lines depend on the resource aliases, which can still grow
+ * while warnings are classified. So they are only reused as long as
+ * ResourceAliasIdentification.getVersion() hasn't changed.
+ */
+public class MethodFixContext {
+	private static boolean active = false;
+	private static HashMap<CGNode, MethodFixContext> contexts = new HashMap<CGNode, MethodFixContext>();
+	// The parsed source files. Key: the source file name
+	private static HashMap<String, CompilationUnit> compilationUnits = new HashMap<String, CompilationUnit>();
+	private static HashMap<String, SourceLineIndex> lineIndexes = new HashMap<String, SourceLineIndex>();
+
+	public final CGNode cgnode;
+	public final IR ir;
+	public final SSACFG cfg;
+	// Key: basic block number
+	private HashMap<Integer, Boolean> blockInLoop = new HashMap<Integer, Boolean>();
+	private HashMap<Integer, HashSet<Integer>> postDominators = null;
+	// Key: variable number of the resource. Value: all/definition lines of the resource and its aliases
+	private HashMap<Integer, ArrayList<Integer>> resourceLines = new HashMap<Integer, ArrayList<Integer>>();
+	private HashMap<Integer, ArrayList<Integer>> resourceDefLines = new HashMap<Integer, ArrayList<Integer>>();
+	private int aliasesVersion;
+
+	private MethodFixContext(CGNode n) {
+		cgnode = n;
+		ir = n.getIR();
+		cfg = ir.getControlFlowGraph();
+		aliasesVersion = ResourceAliasIdentification.getVersion();
+	}
+
+	public static void begin() {
+		active = true;
+	}
+
+	public static void end() {
+		active = false;
+		contexts = new HashMap<CGNode, MethodFixContext>();
+		compilationUnits = new HashMap<String, CompilationUnit>();
+		lineIndexes = new HashMap<String, SourceLineIndex>();
+	}
+
+	public static MethodFixContext get(CGNode cgnode) {
+		if (!active) {
+			return new MethodFixContext(cgnode);
+		}
+		MethodFixContext context = contexts.get(cgnode);
+		if (context == null) {
+			context = new MethodFixContext(cgnode);
+			contexts.put(cgnode, context);
+		}
+		return context;
+	}
+
+	/*
+	 * The parsed source file. The strategies only visit it, so it can be shared.
+	 */
+	public static CompilationUnit getCompilationUnit(String sourceFilename) {
+		if (!active) {
+			return CommonUtils.getCompilationUnit(sourceFilename);
+		}
+		CompilationUnit cu = compilationUnits.get(sourceFilename);
+		if (cu == null) {
+			cu = CommonUtils.getCompilationUnit(sourceFilename);
+			compilationUnits.put(sourceFilename, cu);
+		}
+		return cu;
+	}
+
+	/*
+	 * The try statements and loops of the source file by line range.
+	 */
+	public static SourceLineIndex getLineIndex(String sourceFilename) {
+		if (!active) {
+			return new SourceLineIndex(getCompilationUnit(sourceFilename));
+		}
+		SourceLineIndex index = lineIndexes.get(sourceFilename);
+		if (index == null) {
+			index = new SourceLineIndex(getCompilationUnit(sourceFilename));
+			lineIndexes.put(sourceFilename, index);
+		}
+		return index;
+	}
+
+	public boolean isInLoop(ISSABasicBlock bb) {
+		Boolean inLoop = blockInLoop.get(bb.getNumber());
+		if (inLoop == null) {
+			inLoop = LoopFix.basicBlockInLoop(bb, cfg);
+			blockInLoop.put(bb.getNumber(), inLoop);
+		}
+		return inLoop;
+	}
+
+	HashMap<Integer, HashSet<Integer>> getPostDominators() {
+		if (postDominators == null) {
+			postDominators = FixUtils.computePostDominatorsForBBs(cfg, ir);
+		}
+		return postDominators;
+	}
+
+	// The returned lists are copies, so the caller can change them.
+	ArrayList<Integer> getResourceLines(int resourceVariable, boolean onlyDefinitions) {
+		if (aliasesVersion != ResourceAliasIdentification.getVersion()) {
+			resourceLines.clear();
+			resourceDefLines.clear();
+			aliasesVersion = ResourceAliasIdentification.getVersion();
+		}
+		HashMap<Integer, ArrayList<Integer>> cache = onlyDefinitions ? resourceDefLines : resourceLines;
+		ArrayList<Integer> lines = cache.get(resourceVariable);
+		if (lines == null) {
+			lines = FixUtils.computeResourceLines(cgnode, resourceVariable, onlyDefinitions);
+			cache.put(resourceVariable, lines);
+		}
+		return new ArrayList<Integer>(lines);
+	}
+}
@@ -1,29 +1,25 @@
 package sourceFixStrategies;
 
-import java.util.ArrayList;
+import java.util.HashSet;
 
 import com.ibm.wala.ipa.callgraph.CGNode;
 import com.ibm.wala.ssa.SSAInstruction;
-import com.ibm.wala.ssa.SSAInvokeInstruction;
 
-import main.ResourceAliasIdentification;
-import main.ResourceClassification;
-import main.ResourceLeakFixing;
-import utils.Pair;
+import utils.CallerIndex;
 import utils.ProgramInfo;
 import utils.Warning;
 
 public class ParamFix {
 	public static void computeParameterFix(Warning w) {
 		// Create a fake warning at each caller, and use the fake-warnings' fixes.
-		if (!ProgramInfo.callersMap.containsKey(w.matchedCgnode)) {
+		if (!ProgramInfo.callerIndex.hasCallers(w.matchedCgnode)) {
 			if (ProgramInfo.printWarnings) {
 				System.out.println("WARNING: No callers found for method with parameter return:" + w.matchedCgnode.getMethod().getSignature());
 				w.sourceLevelFixes.add("Nothing to be done. No callers found for method with resource return");
 			}
 			return;
 		}
-		createFakeWarnings(w, w.matchedCgnode, w.parameterAlias - 1);
+		createFakeWarnings(w, w.matchedCgnode, w.parameterAlias - 1, new HashSet<String>());
 		
 	}
 
@@ -32,44 +28,38 @@ public class ParamFix {
 	 * Takes as input, the original warning, and the cgnode+paramIndex where
 	 * we need to create the fake warning for.
 	 */
-	private static void createFakeWarnings(Warning warning, CGNode cgnode, int parameterIndex) {
+	private static void createFakeWarnings(Warning warning, CGNode cgnode, int parameterIndex, HashSet<String> visitedParams) {
 		// Corner case
-		if (!ProgramInfo.callersMap.containsKey(cgnode) ) {
+		if (!ProgramInfo.callerIndex.lookupCallers(cgnode) ) {
+			return;
+		}
+		// The parameter is passed around in a cycle, we've been here already.
+		// Like a recursive chain of returns (see CallerFixMemo), we can't fix it.
+		if (!visitedParams.add(cgnode.getGraphNodeId() + "#" + parameterIndex)) {
+			warning.unfixable = true;
+			warning.comments += "Recursive parameter chain;";
 			return;
 		}
 		// Normal case.
-		for(Pair<CGNode, SSAInvokeInstruction> caller : ProgramInfo.callersMap.get(cgnode)) {	
-			if (caller.fst == cgnode) {
+		CallerIndex callers = ProgramInfo.callerIndex;
+		for (int e = callers.begin(cgnode); e < callers.end(cgnode); e++) {
+			CGNode caller = callers.getCaller(e);
+			if (caller == cgnode) {
 				continue;
 			}
 			// Create the fake warning
-			int argumentVariableNumber = caller.snd.getUse(parameterIndex);
-			SSAInstruction fakeWarningInstruction = caller.fst.getDU().getDef(argumentVariableNumber);
+			int argumentVariableNumber = callers.getCallSite(e).getUse(parameterIndex);
+			SSAInstruction fakeWarningInstruction = caller.getDU().getDef(argumentVariableNumber);
 			if (fakeWarningInstruction == null) { // deal with the corner case where there is no definition 
 				// if the variable gets its value directly from a parameter send a recursive call upwards.
 				if (argumentVariableNumber <= cgnode.getMethod().getNumberOfParameters()) { 
-					createFakeWarnings(warning, caller.fst, argumentVariableNumber - 1);
+					createFakeWarnings(warning, caller, argumentVariableNumber - 1, visitedParams);
 				} else {
 					// variable gets its value from a "null". Nothing to do here.
 				}
 				return;
 			}
-			Warning fakeWarning = new Warning(caller.fst.getMethod().getDeclaringClass(), caller.fst,fakeWarningInstruction);
-			
-			// Identify aliases
-			ArrayList<Warning> fakeWarningsArray = new ArrayList<Warning>();
-			fakeWarningsArray.add(fakeWarning);
-			ResourceAliasIdentification.identifyWrappers(fakeWarningsArray);
-			
-			// classify and fix it.
-			new ResourceClassification(fakeWarning).classifyWarning();
-			ResourceLeakFixing.computeSourceCodeFix(fakeWarning);
-			if (fakeWarning.unfixable) {
-				warning.unfixable = true;
-			}
-			warning.comments += fakeWarning.comments;
-			warning.sourceLevelFixes.addAll(fakeWarning.sourceLevelFixes);
-			warning.escapeTypes.addAll(fakeWarning.escapeTypes);
+			CallerFixMemo.fixAtCaller(warning, caller, callers.getCallSite(e), parameterIndex, fakeWarningInstruction);
 		}
 	}
 }
\ No newline at end of file
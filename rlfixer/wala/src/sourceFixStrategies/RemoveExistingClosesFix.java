@@ -26,7 +26,7 @@ public class RemoveExistingClosesFix{
 	
 	public RemoveExistingClosesFix(Warning a) {
 		w = a;
-		ir = w.matchedCgnode.getIR();
+		ir = MethodFixContext.get(w.matchedCgnode).ir;
 	}
 
 	public void removeCloses() {
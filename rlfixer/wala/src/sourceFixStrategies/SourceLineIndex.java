@@ -0,0 +1,304 @@
+package sourceFixStrategies;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.Node;
+import com.github.javaparser.ast.stmt.BlockStmt;
+import com.github.javaparser.ast.stmt.CatchClause;
+import com.github.javaparser.ast.stmt.DoStmt;
+import com.github.javaparser.ast.stmt.ForEachStmt;
+import com.github.javaparser.ast.stmt.ForStmt;
+import com.github.javaparser.ast.stmt.Statement;
+import com.github.javaparser.ast.stmt.TryStmt;
+import com.github.javaparser.ast.stmt.WhileStmt;
+import com.github.javaparser.ast.visitor.GenericVisitorAdapter;
+
+import utils.Warning;
+
+/*
+ * The try statements and loops of a source file, indexed by line range.
+ * It is built once per parsed file (see MethodFixContext.getLineIndex), so
+ * TryCatchFix and LoopFix don't have to walk the whole CompilationUnit with
+ * a visitor for every warning.
+ *
+ * The queries give the same answers as the visitors they replace, including
+ * which statements those visitors reached. E.g. the visitors didn't look
+ * inside a try statement whose try block didn't contain the lines they were
+ * looking for, so a try statement inside a catch clause is only seen if the
+ * enclosing try statement was entered.
+ */
+public class SourceLineIndex {
+
+	// Where a try statement is, relative to the closest enclosing try statement
+	private enum Region { TRY_BLOCK, CATCH, FINALLY, OTHER }
+
+	private static class TryEntry {
+		TryStmt node;
+		// lines of the try block
+		int start;
+		int end;
+		TryEntry parent;
+		Region region;
+		// nested try statements, per region, in source order
+		ArrayList<TryEntry> tryBlockChildren = new ArrayList<TryEntry>();
+		ArrayList<TryEntry> finallyChildren = new ArrayList<TryEntry>();
+		ArrayList<TryEntry> catchChildren = new ArrayList<TryEntry>();
+	}
+
+	// The try statements sorted by the start of their try block, and for each
+	// position the largest try block end up to there. All the try blocks
+	// containing a line are then found by walking back from the last start
+	// before the line, until the largest end is before the line.
+	private final ArrayList<TryEntry> tries = new ArrayList<TryEntry>();
+	private int[] starts;
+	private int[] maxEnds;
+
+	// Lines of the loop bodies the loop visitor reached, in the order it reached them
+	private final ArrayList<int[]> loopBodies = new ArrayList<int[]>();
+
+	public SourceLineIndex(CompilationUnit cu) {
+		indexTries(cu);
+		indexLoops(cu);
+	}
+
+	private void indexTries(CompilationUnit cu) {
+		ArrayList<TryEntry> inSourceOrder = new ArrayList<TryEntry>();
+		HashMap<TryStmt, TryEntry> entries = new HashMap<TryStmt, TryEntry>();
+		for (TryStmt tryStmt : cu.findAll(TryStmt.class)) {
+			BlockStmt tryBlock = tryStmt.getTryBlock();
+			if (!tryBlock.hasRange()) {
+				continue;
+			}
+			TryEntry e = new TryEntry();
+			e.node = tryStmt;
+			e.start = tryBlock.getBegin().get().line;
+			e.end = tryBlock.getEnd().get().line;
+			entries.put(tryStmt, e);
+			inSourceOrder.add(e);
+		}
+		for (TryEntry e : inSourceOrder) {
+			Node child = e.node;
+			for (Node parent = child.getParentNode().orElse(null); parent != null; parent = parent.getParentNode().orElse(null)) {
+				if (parent instanceof TryStmt) {
+					e.parent = entries.get(parent);
+					e.region = regionOf((TryStmt) parent, child);
+					break;
+				}
+				child = parent;
+			}
+			if (e.parent != null) {
+				if (e.region == Region.TRY_BLOCK) {
+					e.parent.tryBlockChildren.add(e);
+				} else if (e.region == Region.FINALLY) {
+					e.parent.finallyChildren.add(e);
+				} else if (e.region == Region.CATCH) {
+					e.parent.catchChildren.add(e);
+				}
+			}
+		}
+		tries.addAll(inSourceOrder);
+		Collections.sort(tries, Comparator.comparingInt(e -> e.start));
+		starts = new int[tries.size()];
+		maxEnds = new int[tries.size()];
+		for (int i = 0; i < tries.size(); i++) {
+			starts[i] = tries.get(i).start;
+			maxEnds[i] = Math.max(tries.get(i).end, i > 0 ? maxEnds[i-1] : Integer.MIN_VALUE);
+		}
+	}
+
+	// 'child' is the direct child of tryStmt that contains the nested try statement
+	private static Region regionOf(TryStmt tryStmt, Node child) {
+		if (child == tryStmt.getTryBlock()) {
+			return Region.TRY_BLOCK;
+		}
+		if (tryStmt.getFinallyBlock().isPresent() && child == tryStmt.getFinallyBlock().get()) {
+			return Region.FINALLY;
+		}
+		if (child instanceof CatchClause) {
+			return Region.CATCH;
+		}
+		return Region.OTHER;
+	}
+
+	/*
+	 * The loop visitor only entered loops whose body is a block, and only
+	 * looked for nested loops inside such bodies. The bodies are recorded in
+	 * the order that visitor reached them (the javaparser visitors don't
+	 * always visit children in source order, e.g. the else branch of an if
+	 * comes before the then branch), since the last one sets the loop bounds.
+	 */
+	private void indexLoops(CompilationUnit cu) {
+		cu.accept(new LoopBodyVisitor(), null);
+	}
+
+	private class LoopBodyVisitor extends GenericVisitorAdapter<Boolean,Object>{
+		@Override
+		public Boolean visit(ForStmt stmt, Object dummy) {
+			return recordLoopBlock(stmt.getBody());
+		}
+		@Override
+		public Boolean visit(ForEachStmt stmt, Object dummy) {
+			return recordLoopBlock(stmt.getBody());
+		}
+		@Override
+		public Boolean visit(WhileStmt stmt, Object dummy) {
+			return recordLoopBlock(stmt.getBody());
+		}
+		@Override
+		public Boolean visit(DoStmt stmt, Object dummy) {
+			return recordLoopBlock(stmt.getBody());
+		}
+		private Boolean recordLoopBlock(Statement body) {
+			if (!body.hasRange() || !body.isBlockStmt()) {
+				return null;
+			}
+			loopBodies.add(new int[] {body.getBegin().get().line, body.getEnd().get().line});
+			return body.accept(this, null);
+		}
+	}
+
+	private List<TryEntry> triesContaining(int line) {
+		ArrayList<TryEntry> result = new ArrayList<TryEntry>();
+		int i = upperBound(line) - 1;
+		for (; i >= 0 && maxEnds[i] >= line; i--) {
+			if (tries.get(i).end >= line) {
+				result.add(tries.get(i));
+			}
+		}
+		Collections.reverse(result);
+		return result;
+	}
+
+	// Number of try blocks starting at or before the line
+	private int upperBound(int line) {
+		int lo = 0;
+		int hi = starts.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (starts[mid] <= line) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	private static boolean skippedForLoop(TryEntry e, Warning w) {
+		// In a loop fix, a try block that starts before the loop doesn't count,
+		// but the try statements inside its try block do.
+		return w.isLoopFix && e.start < w.loopStartLine;
+	}
+
+	/*
+	 * Whether one of the lines is in a try block (and, for loop fixes, in a
+	 * try block that starts inside the loop).
+	 */
+	public boolean inTryBlock(List<Integer> lines, Warning w) {
+		for (int line : lines) {
+			for (TryEntry e : triesContaining(line)) {
+				if (skippedForLoop(e, w)) {
+					continue;
+				}
+				boolean reached = true;
+				for (TryEntry a = e; a.parent != null; a = a.parent) {
+					if (!skippedForLoop(a.parent, w) || a.region != Region.TRY_BLOCK) {
+						reached = false;
+						break;
+					}
+				}
+				if (reached) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/*
+	 * Whether some outermost try block contains some of the lines but not all.
+	 */
+	public boolean escapesTryBlock(List<Integer> lines) {
+		for (int line : lines) {
+			for (TryEntry e : triesContaining(line)) {
+				if (e.parent != null) {
+					continue;
+				}
+				for (int other : lines) {
+					if (other < e.start || other > e.end) {
+						return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+
+	/*
+	 * The most deeply nested try statement whose try block contains the line
+	 * (respecting the loop of a loop fix), or null.
+	 */
+	public TryStmt deepestTry(int line, Warning w) {
+		TryStmt[] deepest = new TryStmt[1];
+		for (TryEntry e : triesContaining(line)) {
+			if (e.parent == null) {
+				findDeepest(e, line, w, deepest);
+			}
+		}
+		return deepest[0];
+	}
+
+	private static void findDeepest(TryEntry e, int line, Warning w, TryStmt[] deepest) {
+		if (line > e.end || line < e.start) {
+			return;
+		}
+		if (skippedForLoop(e, w)) {
+			for (TryEntry c : e.tryBlockChildren) {
+				findDeepest(c, line, w, deepest);
+			}
+			return;
+		}
+		deepest[0] = e.node;
+		for (TryEntry c : e.tryBlockChildren) {
+			findDeepest(c, line, w, deepest);
+		}
+		for (TryEntry c : e.finallyChildren) {
+			findDeepest(c, line, w, deepest);
+		}
+		for (TryEntry c : e.catchChildren) {
+			findDeepest(c, line, w, deepest);
+		}
+	}
+
+	/*
+	 * Whether the resource escapes a loop it is defined in: some definition is
+	 * in a loop body but some use/definition is outside it. Like the visitor
+	 * this replaces, it also sets the warning's loop bounds to the last loop
+	 * body checked.
+	 */
+	public boolean escapesLoop(List<Integer> resourceLines, List<Integer> definitionLines, Warning w) {
+		for (int[] body : loopBodies) {
+			boolean definedInLoop = false;
+			for (int line : definitionLines) {
+				if (body[1] >= line && line >= body[0]) {
+					definedInLoop = true;
+				}
+			}
+			if (definedInLoop) {
+				for (int line : resourceLines) {
+					if (body[1] < line || line < body[0]) {
+						return true;
+					}
+				}
+			}
+			w.loopStartLine = body[0];
+			w.loopEndLine = body[1];
+		}
+		return false;
+	}
+}
@@ -33,8 +33,9 @@ public class ThrowsFix {
 
 	public ThrowsFix(Warning a) {
 		w = a;
-		ir = w.matchedCgnode.getIR();
-		cfg = ir.getControlFlowGraph();
+		MethodFixContext context = MethodFixContext.get(w.matchedCgnode);
+		ir = context.ir;
+		cfg = context.cfg;
 	}
 
 	public void computeThrowsFix() {
@@ -93,7 +94,7 @@ public class ThrowsFix {
 	 * to the scoping rules.
 	 */
 	private Integer getFinallyBlockLocation(int tryBlockStart, int lastResourceUse) {
-		CompilationUnit cu = CommonUtils.getCompilationUnit(w.sourceFilename);
+		CompilationUnit cu = MethodFixContext.getCompilationUnit(w.sourceFilename);
 		return cu.accept(new TryFinallyLocationVisitor(tryBlockStart,lastResourceUse),0);
 	}
 
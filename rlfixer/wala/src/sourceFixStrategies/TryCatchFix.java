@@ -7,11 +7,9 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
 
-import com.github.javaparser.ast.CompilationUnit;
 import com.github.javaparser.ast.stmt.BlockStmt;
 import com.github.javaparser.ast.stmt.CatchClause;
 import com.github.javaparser.ast.stmt.TryStmt;
-import com.github.javaparser.ast.visitor.GenericVisitorAdapter;
 import com.ibm.wala.ssa.IR;
 import com.ibm.wala.ssa.ISSABasicBlock;
 import com.ibm.wala.ssa.SSACFG;
@@ -42,50 +40,10 @@ public class TryCatchFix {
 	 */
 	public static boolean resourceInTryCatch(Warning w) {
 		ArrayList<Integer> resourceLineNumbers = FixUtils.computeLineNumbersForResource(w);
-		CompilationUnit cu = CommonUtils.getCompilationUnit(w.sourceFilename);
-		Boolean resourceInTryCatch = cu.accept(new TryCatchIdentificationVisitor(w,resourceLineNumbers), null);
-		if (resourceInTryCatch == null) {
-			return false;
-		} else {
-			return true; 
-		}
-	}
-
-	private static class TryCatchIdentificationVisitor extends GenericVisitorAdapter<Boolean,Object>{
-		ArrayList<Integer> resourceSrcLines;
-		Warning warning;
-		private TryCatchIdentificationVisitor(Warning w, ArrayList<Integer> a) {
-			warning = w;
-			resourceSrcLines = a;
-		}
-		@Override
-		public Boolean visit(TryStmt tryStmt, Object dummy) {
-			BlockStmt tryBlock = tryStmt.getTryBlock();
-			// Make sure this is the try-block of interest.
-			if (!tryBlock.hasRange()) {
-				return null;
-			}
-			int tryBlockStart = tryBlock.getBegin().get().line;
-			int tryBlockEnd = tryBlock.getEnd().get().line;
-			// Deal with the special case where the try-catch block has a loop.
-			if (warning.isLoopFix) {
-				if (tryBlockStart < warning.loopStartLine) {
-					// So we have a loop outside the try block, which we can't count.
-					// But we also need to check if there is another try block inside the loop.
-					return tryBlock.accept(this,null);
-				}
-			} 
-			for (int line : resourceSrcLines) {
-				if ( tryBlockEnd >= line && line >= tryBlockStart) {
-					return true;  // at least one resource def/use is in the try block.
-				}
-			}
-			
-			return null;
-		}
+		// At least one resource def/use is in a try block.
+		return MethodFixContext.getLineIndex(w.sourceFilename).inTryBlock(resourceLineNumbers, w);
 	}
 
-
 	private static boolean basicBlockHasCatchSuccessor(ISSABasicBlock b, SSACFG cfg) {
 		for (Iterator<ISSABasicBlock> it = cfg.getSuccNodes(b) ; it.hasNext() ; ) {
 			ISSABasicBlock succBB = it.next();
@@ -103,8 +61,9 @@ public class TryCatchFix {
 
 	public TryCatchFix(Warning a) {
 		w = a;
-		ir = w.matchedCgnode.getIR();
-		cfg = ir.getControlFlowGraph();
+		MethodFixContext context = MethodFixContext.get(w.matchedCgnode);
+		ir = context.ir;
+		cfg = context.cfg;
 	}
 
 	public void computeTryCatchFix() {
@@ -127,47 +86,10 @@ public class TryCatchFix {
 	 * The function assumes that the warning is in a try-catch block.
 	 */
 	private boolean warningEscapesTryCatch() {
-		class EscapeCheckingVisitor extends GenericVisitorAdapter<Boolean,Object>{
-			ArrayList<Integer> resourceSrcLines;
-			private EscapeCheckingVisitor(ArrayList<Integer> a) {
-				resourceSrcLines = a;
-			}
-			@Override
-			public Boolean visit(TryStmt tryStmt, Object dummy) {
-				BlockStmt tryBlock = tryStmt.getTryBlock();
-				// Make sure this is the try-block of interest.
-				if (!tryBlock.hasRange()) {
-					return null;
-				}
-				int tryBlockStart = tryBlock.getBegin().get().line;
-				int tryBlockEnd = tryBlock.getEnd().get().line;
-				// Check if at least one use/def is inside this try-block
-				boolean resourceUseInThisBlock = false;
-				for (int line : resourceSrcLines) {
-					if ( tryBlockEnd >= line && line >= tryBlockStart) {
-						resourceUseInThisBlock = true;
-					}
-				}
-				// If one use is in a try block, all uses need to be.
-				if (resourceUseInThisBlock) {
-					for (int line : resourceSrcLines) {
-						if ( tryBlockEnd < line || line < tryBlockStart) {
-							return true;  // at least one use/def escapes
-						}
-					}
-				}
-				return null;
-			}
-			/* Todo: Deal with the corner case where the first definition is inside an 'if-else' */
-		}
+		// If one use/def is in a try block, all of them need to be.
+		/* Todo: Deal with the corner case where the first definition is inside an 'if-else' */
 		ArrayList<Integer> resourceLineNumbers = FixUtils.computeLineNumbersForResource(w);
-		CompilationUnit cu = CommonUtils.getCompilationUnit(w.sourceFilename);
-		Boolean escapes = cu.accept(new EscapeCheckingVisitor(resourceLineNumbers), null);
-		if (escapes == null) {
-			return false;
-		} else {
-			return true; 
-		}
+		return MethodFixContext.getLineIndex(w.sourceFilename).escapesTryBlock(resourceLineNumbers);
 	}
 
 
@@ -298,13 +220,7 @@ public class TryCatchFix {
 	private boolean isInTryBlock(int lineNumber) {
 		ArrayList<Integer> lineNumbers = new ArrayList<Integer>();
 		lineNumbers.add(lineNumber);
-		CompilationUnit cu = CommonUtils.getCompilationUnit(w.sourceFilename);
-		Boolean resourceInTryCatch = cu.accept(new TryCatchIdentificationVisitor(w,lineNumbers), null);
-		if (resourceInTryCatch == null) {
-			return false;
-		} else {
-			return true; 
-		}
+		return MethodFixContext.getLineIndex(w.sourceFilename).inTryBlock(lineNumbers, w);
 	}
 
 	private void computeContainedTryCatchFix() {
@@ -340,13 +256,11 @@ public class TryCatchFix {
 	}
 
 	private Integer getFinallyBlock(int lineNumberToCheck) {
-		CompilationUnit cu = CommonUtils.getCompilationUnit(w.sourceFilename);
-		DeepestMatchingTryVisitor v = new DeepestMatchingTryVisitor(w,lineNumberToCheck);
-		cu.accept(v,null);
-		if (v.deepestMatchingTry == null) {
+		TryStmt deepestMatchingTry = MethodFixContext.getLineIndex(w.sourceFilename).deepestTry(lineNumberToCheck, w);
+		if (deepestMatchingTry == null) {
 			return null;
 		}
-		Optional<BlockStmt> finallyStmt = v.deepestMatchingTry.getFinallyBlock();
+		Optional<BlockStmt> finallyStmt = deepestMatchingTry.getFinallyBlock();
 		if (finallyStmt.isPresent()) {
 			return finallyStmt.get().getBegin().get().line;
 		} else {
@@ -354,56 +268,9 @@ public class TryCatchFix {
 		}
 	}
 
-	private static class DeepestMatchingTryVisitor extends GenericVisitorAdapter<Object,Object>{
-		int lineNumber;
-		TryStmt deepestMatchingTry;
-		Warning warning;
-
-		private DeepestMatchingTryVisitor(Warning w, int a) {
-			lineNumber = a;
-			warning = w;
-			deepestMatchingTry = null;
-		}
-
-		@Override
-		public Object visit(TryStmt tryStmt, Object dummy) {
-			BlockStmt tryBlock = tryStmt.getTryBlock();
-			// Make sure this is the try-block of interest.
-			if (!tryBlock.hasRange()) {
-				return null;
-			}
-			int tryBlockStart = tryBlock.getBegin().get().line;
-			int tryBlockEnd = tryBlock.getEnd().get().line;
-			if (lineNumber > tryBlockEnd || lineNumber < tryBlockStart) {
-				return null;
-			}
-			// Also make sure that this is within the loop body if in a loop fix
-			if (warning.isLoopFix) {
-				if (tryBlockStart < warning.loopStartLine) {
-					// So we have a loop outside the try block, which we can't count.
-					// But we also need to check if there is another try block inside the loop.
-					return tryBlock.accept(this,null);
-				}
-			}
-			// Mark this as the current deepest 
-			deepestMatchingTry = tryStmt;
-			// Recursively check the children
-			tryStmt.getTryBlock().accept(this, null);
-			if (tryStmt.getFinallyBlock().isPresent()) {
-				tryStmt.getFinallyBlock().get().accept(this,null);
-			}
-			tryStmt.getCatchClauses().accept(this, null);
-			return null;
-		}
-	}
-
 	private static Integer getLocationForFinally(Warning w, int lineNumberToCheck){
-		CompilationUnit cu = CommonUtils.getCompilationUnit(w.sourceFilename);
-		DeepestMatchingTryVisitor v = new DeepestMatchingTryVisitor(w,lineNumberToCheck);
-		cu.accept(v,null);
-
-		// Then return the end of the last catch block.
-		TryStmt tryStmt = v.deepestMatchingTry;
+		// Return the end of the last catch block of the deepest matching try.
+		TryStmt tryStmt = MethodFixContext.getLineIndex(w.sourceFilename).deepestTry(lineNumberToCheck, w);
 		int maxLineNumber = -1;
 		if (tryStmt == null) {
 			System.out.println("WARNING: Null try statement matched:" + w);
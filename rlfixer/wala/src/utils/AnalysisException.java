@@ -0,0 +1,19 @@
+package utils;
+
+/*
+ * Thrown when the analysis of a project can't go on (e.g. the JDK classes
+ * are missing, or a warning matched an unexpected instruction). The error is
+ * printed where it is thrown. Main exits with status 1, and BatchMain moves
+ * on to the next project.
+ */
+public class AnalysisException extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+
+	public AnalysisException(String message) {
+		super(message);
+	}
+
+	public AnalysisException(String message, Throwable cause) {
+		super(message, cause);
+	}
+}
@@ -0,0 +1,133 @@
+package utils;
+
+import com.ibm.wala.ipa.callgraph.CGNode;
+import com.ibm.wala.ipa.callgraph.CallGraph;
+import com.ibm.wala.ssa.SSAInvokeInstruction;
+
+/*
+ * A compact map from a callee to its callers, stored in CSR layout
+ * (compressed sparse rows) keyed by the callee's graph node number.
+ * The callers of a callee are the edges [begin(callee), end(callee)),
+ * and each edge is a caller node number plus the call-site instruction.
+ * Iterating over the callers doesn't allocate anything:
+ *
+ *   if (index.lookupCallers(callee)) {
+ *       for (int e = index.begin(callee); e < index.end(callee); e++) {
+ *           CGNode caller = index.getCaller(e);
+ *           SSAInvokeInstruction callSite = index.getCallSite(e);
+ *       }
+ *   }
+ *
+ * lookupCallers is the only method that records an ambiguous lookup (see
+ * ProgramInfo.noteAmbiguousLookup and noteSingleTargetEdge), so each lookup of the callers of a
+ * callee is counted once; the other methods just read the index.
+ *
+ * The callers of a callee are in callgraph order, same as the old
+ * HashMap<CGNode, ArrayList<Pair<CGNode, SSAInvokeInstruction>>>.
+ */
+public class CallerIndex {
+	private final CallGraph callgraph;
+	// offsets[n] .. offsets[n+1] are the edges of the callee with number n
+	private final int[] offsets;
+	private final int[] callerIds;
+	private final SSAInvokeInstruction[] callSites;
+	// next free slot for each callee while the index is being filled
+	private int[] cursor;
+	// callees with a caller whose call site has several targets
+	private final boolean[] ambiguous;
+
+	/*
+	 * inDegree[n] is the number of call edges into the node with number n.
+	 * The edges are then added with add(), in any order per callee.
+	 */
+	CallerIndex(CallGraph cg, int[] inDegree) {
+		callgraph = cg;
+		offsets = new int[inDegree.length + 1];
+		for (int n = 0; n < inDegree.length; n++) {
+			offsets[n+1] = offsets[n] + inDegree[n];
+		}
+		int numEdges = offsets[inDegree.length];
+		callerIds = new int[numEdges];
+		callSites = new SSAInvokeInstruction[numEdges];
+		cursor = new int[inDegree.length];
+		System.arraycopy(offsets, 0, cursor, 0, inDegree.length);
+		ambiguous = new boolean[inDegree.length];
+	}
+
+	void add(CGNode callee, CGNode caller, SSAInvokeInstruction callSite) {
+		int e = cursor[callee.getGraphNodeId()]++;
+		callerIds[e] = caller.getGraphNodeId();
+		callSites[e] = callSite;
+	}
+
+	void markAmbiguous(CGNode callee) {
+		ambiguous[callee.getGraphNodeId()] = true;
+	}
+
+	// Called once all the edges have been added.
+	void seal() {
+		cursor = null;
+	}
+
+	/*
+	 * Starts a lookup of the callers of callee: records it if some of them
+	 * were reached through a call site with several targets (otherwise
+	 * records the single-target edges), and returns whether there are any.
+	 */
+	public boolean lookupCallers(CGNode callee) {
+		int n = callee.getGraphNodeId();
+		if (n >= 0 && n + 1 < offsets.length && ambiguous[n]) {
+			ProgramInfo.noteAmbiguousLookup();
+		} else if (ProgramInfo.isTrackingAmbiguity()) {
+			for (int e = begin(callee); e < end(callee); e++) {
+				ProgramInfo.noteSingleTargetEdge(getCaller(e), callSites[e].getCallSite(), callee);
+			}
+		}
+		return hasCallers(callee);
+	}
+
+	public int begin(CGNode callee) {
+		int n = callee.getGraphNodeId();
+		if (n < 0 || n + 1 >= offsets.length) {
+			return 0;
+		}
+		return offsets[n];
+	}
+
+	public int end(CGNode callee) {
+		int n = callee.getGraphNodeId();
+		if (n < 0 || n + 1 >= offsets.length) {
+			return 0;
+		}
+		return offsets[n+1];
+	}
+
+	public boolean hasCallers(CGNode callee) {
+		return end(callee) > begin(callee);
+	}
+
+	public int getNumberOfCallers(CGNode callee) {
+		return end(callee) - begin(callee);
+	}
+
+	public CGNode getCaller(int edge) {
+		return callgraph.getNode(callerIds[edge]);
+	}
+
+	public int getCallerId(int edge) {
+		return callerIds[edge];
+	}
+
+	public SSAInvokeInstruction getCallSite(int edge) {
+		return callSites[edge];
+	}
+
+	// The index of the call-site instruction in the caller's IR
+	public int getCallSiteIndex(int edge) {
+		return callSites[edge].iIndex();
+	}
+
+	public int getNumberOfEdges() {
+		return callerIds.length;
+	}
+}
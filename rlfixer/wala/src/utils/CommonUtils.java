@@ -9,7 +9,6 @@ import com.github.javaparser.ParseResult;
 import com.github.javaparser.ast.CompilationUnit;
 import com.ibm.wala.analysis.typeInference.TypeInference;
 import com.ibm.wala.classLoader.IClass;
-import com.ibm.wala.classLoader.IMethod;
 import com.ibm.wala.ipa.callgraph.CGNode;
 import com.ibm.wala.ipa.cha.ClassHierarchy;
 import com.ibm.wala.ssa.ISSABasicBlock;
@@ -36,7 +35,7 @@ public class CommonUtils {
 			return false; // primitive types are not resources. 
 			// the array could be a resource-array, but we skip this case.
 		}
-		String classname = t.getName().toString();
+		String classname = SymbolTable.className(t);
 		
 		// Get the iclass object
 		IClass c;
@@ -44,6 +43,13 @@ public class CommonUtils {
 			c = ProgramInfo.appClassesMap.get(classname);
 		}
 		else {
+			// JDK/library types: use the prebuilt index if it knows the class.
+			Boolean indexed = ResourceTypeIndex.lookup(classname);
+			if (indexed != null) {
+				return indexed
+						|| FinalizerMappingLoader.hasFinalizer(classname)
+						|| FinalizerMappingLoader.pseudoResourceClasses.contains(classname);
+			}
 			c = ProgramInfo.libClassesMap.get(classname);
 		}
 		// First check if it implements the closeable/autocloseable interface.
@@ -59,17 +65,11 @@ public class CommonUtils {
 			}
 			return false;
 		}
-		if (c.getAllImplementedInterfaces().contains(ProgramInfo.closeableInterface) ||
-				c.getAllImplementedInterfaces().contains(ProgramInfo.autoCloseableInterface)) {
+		// Closeable/autocloseable, or else a 'close' method.
+		// The latter is needed for resources that don't implement closeable/autocloseable
+		if (ResourceTypeIndex.isResourceInHierarchy(c, ProgramInfo.closeableInterface, ProgramInfo.autoCloseableInterface)) {
 			return true;
 		}
-		// Else, check if it has a 'close' method. 
-		// This is needed for resources that don't implement closeable/autocloseable
-		for (IMethod m : c.getAllMethods()) {
-			if (isCloseMethod(m.getReference())) {
-				return true;
-			}
-		}
 		if (FinalizerMappingLoader.hasFinalizer(classname)) {
 			return true;
 		}
@@ -89,12 +89,12 @@ public class CommonUtils {
 	}
 	
 	public static boolean isCloseMethod(MethodReference m) {
-		String methodName = m.getName().toString();
+		String methodName = SymbolTable.name(m.getName());
 		if (methodName.equalsIgnoreCase("close")
 				&& m.getNumberOfParameters() == 0) { 
 			return true;
 		} else {
-			String declaringClass = m.getDeclaringClass().getName().toString();
+			String declaringClass = SymbolTable.className(m.getDeclaringClass());
 			String finalizerMethod = FinalizerMappingLoader.getFinalizerMethod(declaringClass);
 			if (finalizerMethod != null && finalizerMethod.equalsIgnoreCase(methodName)) {
 				return true;
@@ -121,7 +121,7 @@ public class CommonUtils {
 	}
 
 	public static String getVariableId(CGNode cgnode, int val) {
-		return cgnode.getMethod().getSignature() + "#" + val;
+		return SymbolTable.variableId(cgnode, val);
 	}
 
 	/*
@@ -138,7 +138,7 @@ public class CommonUtils {
 		}
 		if (mustMatch && parameterNumber == -1) {
 			System.out.println("ERROR: Parameter number not found while checking for wrapper(" + cgnode + "): " + invokeIns);
-			System.exit(1);
+			throw new AnalysisException("Parameter number not found while checking for wrapper: " + invokeIns);
 		}
 		return parameterNumber;
 	}
@@ -227,7 +227,7 @@ public class CommonUtils {
 		if (firstParamType==null || firstParamType.isPrimitiveType() || firstParamType.isArrayType()) {
 			return false; // these cases are not collections.
 		}
-		String firstParamClassname = firstParamType.getName().toString();
+		String firstParamClassname = SymbolTable.className(firstParamType);
 		
 		// Get the iclass object
 		IClass c;
@@ -242,7 +242,7 @@ public class CommonUtils {
 			return false;
 		}
 		// Filter java.util.Properties methods
-		if (c.getName().toString().equals("Ljava/util/Properties")) {
+		if (SymbolTable.className(c).equals("Ljava/util/Properties")) {
 			return false;
 		}
 		if (c.getAllImplementedInterfaces().contains(ProgramInfo.collectionInterface) ||
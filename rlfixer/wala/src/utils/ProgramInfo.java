@@ -6,6 +6,12 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
 
 
 import com.github.javaparser.ast.CompilationUnit;
@@ -31,28 +37,36 @@ import com.ibm.wala.ipa.callgraph.CallGraphBuilder;
 import com.ibm.wala.ipa.callgraph.Entrypoint;
 import com.ibm.wala.ipa.callgraph.cha.CHACallGraph;
 import com.ibm.wala.ipa.callgraph.impl.DefaultEntrypoint;
+import com.ibm.wala.ipa.callgraph.impl.Everywhere;
 import com.ibm.wala.ipa.callgraph.impl.Util;
 import com.ibm.wala.ipa.cha.ClassHierarchy;
 import com.ibm.wala.ipa.cha.ClassHierarchyException;
 import com.ibm.wala.ipa.cha.ClassHierarchyFactory;
 import com.ibm.wala.ssa.SSAInvokeInstruction;
 import com.ibm.wala.ssa.SSAPutInstruction;
+import com.ibm.wala.types.ClassLoaderReference;
 import com.ibm.wala.util.CancelException;
 import com.ibm.wala.util.config.AnalysisScopeReader;
 import com.ibm.wala.ssa.IR;
 import com.ibm.wala.ssa.SSAInstruction;
 
+import main.FinalizerMappingLoader;
+
 public class ProgramInfo {
 	public static boolean use0CFA = true;
+	// if true (and use0CFA), the warnings are first classified on the CHA callgraph,
+	// and the 0-CFA callgraph is only built for the ones that depend on ambiguous
+	// call targets (see upgradeToZeroCFA)
+	public static boolean tieredCallgraph = false;
 	private static final String walaFakeRoot = "Lcom/ibm/wala/FakeRootClass";
 	public static ClassHierarchy cha;
 	public static CallGraph callgraph;
 	public static AnalysisScope analysisScope;
 	public static Iterable<Entrypoint> entrypoints;
-	// a map from callee to their callers
+	// an index from callee to their callers
 	// caller is identified by the caller-cgnode and call-site-instruction.
 	// cannot use just call-site-instruction since it doesn't have a pointer to the cgnode.
-	public static HashMap<CGNode, ArrayList<Pair<CGNode, SSAInvokeInstruction>>> callersMap;
+	public static CallerIndex callerIndex;
 	//public static HashMap<CGNode, ArrayList<CGNode>> calleeMap;
 	// a map from a class to its methods' CGNode objects
 	public static HashMap<String, ArrayList<CGNode>> appMethodsMap;
@@ -65,8 +79,8 @@ public class ProgramInfo {
 	public static HashMap<String, ArrayList<String>> srcFileClassMap;
 	public static HashMap<String, String> reverseSrcFileClassMap;
 
-	// A map from the method signature to its CGNode
-	public static HashMap<String, CGNode> methodCGNodeMap;
+	// A map from the method id (see SymbolTable) to its CGNode
+	public static HashMap<Integer, CGNode> methodCGNodeMap;
 	// Key: Field signature. Value: the number of times it is written to
 	public static HashMap<String, Integer> fieldWritesCount = null;
 	// The Closeable interface
@@ -77,11 +91,33 @@ public class ProgramInfo {
 
 	public static boolean extraSrcAdded = false;
 	public static String projectSrcDir;
+	// where the resource type index files of the JDK/library jars are cached (null = don't use it)
+	public static String resourceIndexDir = null;
+	// if true, the JDK jars are read once and shared by all the projects analyzed in this JVM
+	public static boolean shareJdkLoader = false;
+	// Duration (ms) of each initialization phase, and the phases it waited for
+	private static LinkedHashMap<String, Long> phaseTimes = new LinkedHashMap<String, Long>();
+	private static HashMap<String, String[]> phaseDependencies = new HashMap<String, String[]>();
+	// Whether the current callgraph was built with 0-CFA (otherwise CHA), and
+	// whether it was only closed over the application methods (the first tier
+	// CHA callgraph); its library nodes are then created when asked for.
+	private static boolean zeroCFACallgraph = false;
+	private static boolean applicationOnlyCallgraph = false;
+	// Counts the callgraph lookups that found several targets (or callers reached
+	// through such call sites), while tracking is on. See noteAmbiguousLookup.
+	private static boolean trackAmbiguity = false;
+	private static int ambiguousLookups = 0;
+	// The dispatched call edges with a single target that results were derived
+	// from while tracking is on, by caller method id and call site. See
+	// noteSingleTargetEdge.
+	private static HashMap<String, Triple<CGNode, CallSiteReference, CGNode>> singleTargetEdges = new HashMap<>();
 
 
 	// Constants
 	public static final int MAX_ALLOWED_FANOUT = 10;
 	public static final boolean SKIP_LIBRARY = true;
+	// if true, the callgraph nodes are indexed in parallel (only for 0-CFA callgraphs)
+	public static final boolean PARALLEL_INDEXING = true;
 
 	public static final boolean printWarnings = true;
 	// if true, it prints debug information for the parsing of warnings.
@@ -89,20 +125,140 @@ public class ProgramInfo {
 	//public static final boolean debugResourceClassification = true;
 	//public static final boolean debugWrapperIdentification = true;
 
-	// Boilerplate code for making callgraph and class-hierarchy
-	public static void initializeProgramInfo(String classpath, String exclusionsFileName, String appClassesFile, String srcFilesList, String projectDir, File exclusionsFile)
+	// Boilerplate code for making callgraph and class-hierarchy.
+	// The .ajava scanning (finalizers) and the source parsing (srcFileClassMap)
+	// don't need the class hierarchy, so they run next to the WALA phases.
+	// The finalizer mappings are only needed once the hierarchy is there
+	// (propagateToSubclasses and the resource checks after initialization).
+	public static void initializeProgramInfo(String classpath, String libClasspath, String appClassesFile, String srcFilesList,
+			String projectDir, File exclusionsFile, String wpiOutDir)
 			throws ClassHierarchyException, IOException, IllegalArgumentException, CancelException {
-		analysisScope = AnalysisScopeReader.makeJavaBinaryAnalysisScope(classpath, exclusionsFile);
-		cha = ClassHierarchyFactory.make(analysisScope);
+		resetPhaseTimes();
+		long start = System.currentTimeMillis();
 		readApplicationClasses(appClassesFile);
-		populateClassesMap();
-		generateCallgraph();
-		populateAppMethodsMap();
-		populateCallersMap();
-		populateMethodCgnodeMap();
-		populateAllFieldWriteCounts();
-		setImportantInterfaces();
-		populateSrcFileClassMap(srcFilesList,projectDir);
+		recordPhase("appClasses", start);
+
+		ExecutorService pool = Executors.newFixedThreadPool(2);
+		try {
+			Future<?> finalizers = pool.submit(() -> {
+				long phaseStart = System.currentTimeMillis();
+				FinalizerMappingLoader.populateMappings(wpiOutDir);
+				recordPhase("finalizers", phaseStart);
+			});
+			Future<?> sources = pool.submit(() -> {
+				long phaseStart = System.currentTimeMillis();
+				populateSrcFileClassMap(srcFilesList, projectDir);
+				recordPhase("sources", phaseStart, "appClasses");
+			});
+
+			start = System.currentTimeMillis();
+			analysisScope = makeAnalysisScope(classpath, libClasspath, exclusionsFile);
+			if (shareJdkLoader) {
+				cha = ClassHierarchyFactory.make(analysisScope, new SharedJdkLoaderFactory(analysisScope.getExclusions()));
+			} else {
+				cha = ClassHierarchyFactory.make(analysisScope);
+			}
+			populateClassesMap();
+			recordPhase("classHierarchy", start, "appClasses");
+
+			start = System.currentTimeMillis();
+			generateCallgraph(use0CFA && !tieredCallgraph);
+			indexCallgraph(true);
+			recordPhase("callgraph", start, "classHierarchy");
+
+			awaitPhase(finalizers, "finalizers");
+			start = System.currentTimeMillis();
+			FinalizerMappingLoader.propagateToSubclasses(cha);
+			recordPhase("finalizerPropagation", start, "callgraph", "finalizers");
+
+			start = System.currentTimeMillis();
+			setImportantInterfaces();
+			ResourceTypeIndex.load(analysisScope, cha, resourceIndexDir, true);
+			recordPhase("resourceIndex", start, "finalizerPropagation");
+
+			awaitPhase(sources, "sources");
+		} finally {
+			shutdownPhases(pool);
+		}
+	}
+
+	private static void awaitPhase(Future<?> phase, String name) {
+		try {
+			phase.get();
+		} catch (InterruptedException | ExecutionException e) {
+			System.out.println("ERROR: Initialization phase " + name + " failed");
+			e.printStackTrace();
+			throw new AnalysisException("Initialization phase " + name + " failed", e);
+		}
+	}
+
+	// Waits for the phases still running, so none of them outlives a failed initialization.
+	private static void shutdownPhases(ExecutorService pool) {
+		pool.shutdown();
+		try {
+			pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static synchronized void resetPhaseTimes() {
+		phaseTimes = new LinkedHashMap<String, Long>();
+		phaseDependencies = new HashMap<String, String[]>();
+	}
+
+	/*
+	 * Records the duration of an initialization phase and the phases it had
+	 * to wait for (its data dependencies and its predecessor on the same thread).
+	 */
+	private static synchronized void recordPhase(String name, long start, String... dependencies) {
+		phaseTimes.put(name, System.currentTimeMillis() - start);
+		phaseDependencies.put(name, dependencies);
+	}
+
+	/*
+	 * The longest chain of dependent initialization phases, e.g.
+	 * "appClasses 2ms -> classHierarchy 3000ms -> callgraph 9000ms (12002ms)".
+	 * Making any phase off this chain faster doesn't speed up the initialization.
+	 */
+	public static synchronized String getCriticalPath() {
+		// Earliest finish time of each phase if it started right after its dependencies.
+		HashMap<String, Long> finish = new HashMap<String, Long>();
+		String last = null;
+		for (String phase : phaseTimes.keySet()) {
+			if (last == null || earliestFinish(phase, finish) > earliestFinish(last, finish)) {
+				last = phase;
+			}
+		}
+		if (last == null) {
+			return "";
+		}
+		LinkedList<String> path = new LinkedList<String>();
+		for (String phase = last; phase != null; ) {
+			path.addFirst(phase + " " + phaseTimes.get(phase) + "ms");
+			String slowest = null;
+			for (String dependency : phaseDependencies.get(phase)) {
+				if (phaseTimes.containsKey(dependency)
+						&& (slowest == null || finish.get(dependency) > finish.get(slowest))) {
+					slowest = dependency;
+				}
+			}
+			phase = slowest;
+		}
+		return String.join(" -> ", path) + " (" + finish.get(last) + "ms)";
+	}
+
+	private static long earliestFinish(String phase, HashMap<String, Long> finish) {
+		if (!finish.containsKey(phase)) {
+			long start = 0;
+			for (String dependency : phaseDependencies.get(phase)) {
+				if (phaseTimes.containsKey(dependency)) {
+					start = Math.max(start, earliestFinish(dependency, finish));
+				}
+			}
+			finish.put(phase, start + phaseTimes.get(phase));
+		}
+		return finish.get(phase);
 	}
 
 	// simplified version of the method with the same name
@@ -112,51 +268,331 @@ public class ProgramInfo {
 		cha = ClassHierarchyFactory.make(analysisScope);
 		readApplicationClasses(appClassesFile);
 		populateClassesMap();
-		generateCallgraph();
-		populateAppMethodsMap();
-		populateMethodCgnodeMap();
+		generateCallgraph(use0CFA);
+		indexCallgraph(false);
 		setImportantInterfaces();
 	}
 
-	private static void populateAllFieldWriteCounts() {
+	/*
+	 * Replaces the (CHA) callgraph by a 0-CFA callgraph, with the same
+	 * entrypoints, and rebuilds everything indexed on it. The CGNodes of the
+	 * old callgraph (e.g. in already matched warnings) stay usable for their
+	 * IR, but are not part of the new callgraph.
+	 */
+	public static void upgradeToZeroCFA() throws IllegalArgumentException, CancelException {
+		long start = System.currentTimeMillis();
+		generateCallgraph(true);
+		indexCallgraph(true);
+		recordPhase("callgraph0CFA", start, "callgraph");
+	}
+
+	public static boolean isZeroCFACallgraph() {
+		return zeroCFACallgraph;
+	}
+
+	/*
+	 * The callgraph node of a method, or null if it is not in the callgraph.
+	 * The application methods are entrypoints, so they are always there. An
+	 * application-only callgraph only has the library methods that were asked
+	 * for, so whether a full callgraph would have one is ambiguous.
+	 */
+	public static CGNode getMethodNode(IMethod m) {
+		CGNode cgnode = methodCGNodeMap.get(SymbolTable.methodId(m));
+		if (cgnode == null && applicationOnlyCallgraph) {
+			noteAmbiguousLookup();
+		}
+		return cgnode;
+	}
+
+	/*
+	 * Records that a result was derived from a callgraph lookup with more than
+	 * one possible target: a call site with several targets (or more than
+	 * MAX_ALLOWED_FANOUT, which are then dropped), or the callers of a method
+	 * reached through such call sites. A CHA callgraph and a 0-CFA callgraph
+	 * can disagree on these. On the others they can only disagree by the 0-CFA
+	 * callgraph dropping the single target (the 0-CFA targets of a call site
+	 * are among the CHA ones), see noteSingleTargetEdge.
+	 */
+	public static void noteAmbiguousLookup() {
+		if (trackAmbiguity) {
+			ambiguousLookups++;
+		}
+	}
+
+	/*
+	 * Records that a result was derived from a dispatched call with a single
+	 * target. A 0-CFA callgraph has at most that target, but it may have none
+	 * (e.g. if the receiver is never allocated), so these edges are checked
+	 * once the 0-CFA callgraph is built (see countMissingSingleTargetEdges).
+	 * Calls that aren't dispatched have the same target in both callgraphs.
+	 */
+	public static void noteSingleTargetEdge(CGNode caller, CallSiteReference callSite, CGNode target) {
+		if (trackAmbiguity && callSite.isDispatch()) {
+			singleTargetEdges.put(SymbolTable.methodId(caller.getMethod()) + "#" + callSite.getProgramCounter() + "#"
+					+ SymbolTable.methodId(target.getMethod()), new Triple<>(caller, callSite, target));
+		}
+	}
+
+	/*
+	 * The number of edges recorded by noteSingleTargetEdge (on the CHA
+	 * callgraph) that the current (0-CFA) callgraph doesn't have. Forgets them.
+	 */
+	public static int countMissingSingleTargetEdges() {
+		int missing = 0;
+		for (Triple<CGNode, CallSiteReference, CGNode> edge : singleTargetEdges.values()) {
+			boolean found = false;
+			for (CGNode caller : callgraph.getNodes(edge.fst.getMethod().getReference())) {
+				for (CGNode target : callgraph.getPossibleTargets(caller, edge.snd)) {
+					if (target.getMethod().getReference().equals(edge.third.getMethod().getReference())) {
+						found = true;
+					}
+				}
+			}
+			if (!found) {
+				missing++;
+			}
+		}
+		singleTargetEdges = new HashMap<>();
+		return missing;
+	}
+
+	public static void setTrackAmbiguity(boolean track) {
+		trackAmbiguity = track;
+	}
+
+	public static boolean isTrackingAmbiguity() {
+		return trackAmbiguity;
+	}
+
+	// Only grows, so compare it before and after computing something.
+	public static int getAmbiguousLookups() {
+		return ambiguousLookups;
+	}
+
+	/*
+	 * Drops everything computed for the previous project, so that another
+	 * project can be analyzed in the same JVM. The settings (use0CFA,
+	 * tieredCallgraph, resourceIndexDir, shareJdkLoader) are kept.
+	 */
+	public static void reset() {
+		cha = null;
+		callgraph = null;
+		analysisScope = null;
+		entrypoints = null;
+		callerIndex = null;
+		appMethodsMap = null;
+		appClassesMap = null;
+		appClassesMapReverse = new HashMap<>();
+		libClassesMap = null;
+		srcFileClassMap = null;
+		reverseSrcFileClassMap = null;
+		methodCGNodeMap = null;
+		fieldWritesCount = null;
+		closeableInterface = null;
+		autoCloseableInterface = null;
+		collectionInterface = null;
+		mapInterface = null;
+		extraSrcAdded = false;
+		projectSrcDir = null;
+		zeroCFACallgraph = false;
+		applicationOnlyCallgraph = false;
+		trackAmbiguity = false;
+		ambiguousLookups = 0;
+		singleTargetEdges = new HashMap<>();
+		resetPhaseTimes();
+		ResourceTypeIndex.reset();
+		SymbolTable.reset();
+	}
+
+	/*
+	 * The classpath goes into the application loader. It can be a single jar
+	 * or a list of class directories and jars (separated by the path separator),
+	 * so the compiled classes of the project can be used as they are.
+	 * The libClasspath (the jars in lib/, can be null) goes into the extension
+	 * loader, so we don't have to bundle the libraries with the application.
+	 */
+	public static AnalysisScope makeAnalysisScope(String classpath, String libClasspath, File exclusionsFile) throws IOException {
+		AnalysisScope scope = AnalysisScopeReader.makeJavaBinaryAnalysisScope(classpath, exclusionsFile);
+		if (libClasspath != null && !libClasspath.isEmpty()) {
+			AnalysisScopeReader.addClassPathToScope(libClasspath, scope, ClassLoaderReference.Extension);
+		}
+		return scope;
+	}
+
+	/*
+	 * Builds appMethodsMap, methodCGNodeMap, callerIndex and fieldWritesCount
+	 * in a single pass over the callgraph. Each node is handled on its own
+	 * (class name resolved once, IR fetched once) and the per-node results are
+	 * merged in callgraph order, so the maps come out exactly as if they were
+	 * built one after the other.
+	 */
+	private static void indexCallgraph(boolean withCallEdges) {
+		appMethodsMap = new HashMap<String, ArrayList<CGNode>>();
+		methodCGNodeMap = new HashMap<Integer, CGNode>();
 		fieldWritesCount = new HashMap<String, Integer>();
+
+		ArrayList<CGNode> nodes = new ArrayList<CGNode>();
 		for (CGNode cgnode : callgraph) {
-			IR ir = cgnode.getIR();
-			if (ir != null) {
-				ir.visitAllInstructions(new RecordFieldWriteCounts());
+			nodes.add(cgnode);
+		}
+		// The IR cache is not thread safe, so the IRs are fetched up front.
+		IR[] irs = new IR[nodes.size()];
+		for (int i = 0; i < nodes.size(); i++) {
+			irs[i] = nodes.get(i).getIR();
+		}
+
+		NodeIndex[] results = new NodeIndex[nodes.size()];
+		IntStream indices = IntStream.range(0, nodes.size());
+		// The CHA callgraph computes its targets lazily, so only go parallel for 0-CFA.
+		if (PARALLEL_INDEXING && zeroCFACallgraph) {
+			indices = indices.parallel();
+		}
+		indices.forEach(i -> results[i] = indexNode(nodes.get(i), irs[i], withCallEdges));
+
+		int[] inDegree = new int[callgraph.getMaxNumber() + 1];
+		for (NodeIndex r : results) {
+			for (Pair<CGNode, SSAInvokeInstruction> edge : r.callEdges) {
+				inDegree[edge.fst.getGraphNodeId()]++;
+			}
+		}
+		callerIndex = new CallerIndex(callgraph, inDegree);
+		for (NodeIndex r : results) {
+			for (CGNode callee : r.ambiguousCallees) {
+				callerIndex.markAmbiguous(callee);
+			}
+		}
+
+		for (NodeIndex r : results) {
+			if (r.isApp) {
+				if (!appMethodsMap.containsKey(r.classname)) {
+					appMethodsMap.put(r.classname, new ArrayList<CGNode>());
+				}
+				appMethodsMap.get(r.classname).add(r.cgnode);
+			}
+			methodCGNodeMap.put(r.methodId, r.cgnode);
+			for (Pair<CGNode, SSAInvokeInstruction> edge : r.callEdges) {
+				callerIndex.add(edge.fst, r.cgnode, edge.snd);
+			}
+			for (String fieldSignature : r.fieldWrites) {
+				fieldWritesCount.put(fieldSignature, fieldWritesCount.getOrDefault(fieldSignature, 0) + 1);
 			}
 		}
+		callerIndex.seal();
+		// handle fake root
+		appMethodsMap.put(walaFakeRoot, new ArrayList<CGNode>());
 	}
 
-	private static void populateMethodCgnodeMap() {
-		methodCGNodeMap = new HashMap<String, CGNode>();
-		for (CGNode cgnode : callgraph) {
-			IMethod method = cgnode.getMethod();
-			//IClass c = method.getDeclaringClass();
-			methodCGNodeMap.put(method.getSignature(), cgnode);
-			//if (CommonUtils.checkIfResourceClass(c.getReference())) {
+	// Everything we need from a single node. Does not touch any of the global maps.
+	private static NodeIndex indexNode(CGNode cgnode, IR ir, boolean withCallEdges) {
+		NodeIndex r = new NodeIndex(cgnode);
+		IMethod method = cgnode.getMethod();
+		r.classname = SymbolTable.className(method.getDeclaringClass());
+		r.methodId = SymbolTable.methodId(method);
+		r.isApp = appClassesMap.containsKey(r.classname);
+		if (ir == null) {
+			return r;
 		}
+		// callers are only recorded for application nodes
+		boolean recordCalls = withCallEdges && (r.isApp || !SKIP_LIBRARY);
+		for (SSAInstruction ins : ir.getInstructions()) {
+			if (ins == null) {
+				continue;
+			}
+			if (ins instanceof SSAInvokeInstruction) {
+				if (recordCalls) {
+					SSAInvokeInstruction invoke = (SSAInvokeInstruction) ins;
+					Set<CGNode> targets = getAppTargets(cgnode, invoke.getCallSite());
+					if (targets.size() > 1) {
+						// A more precise callgraph may drop some of these edges, or
+						// add them if there are too many now.
+						r.ambiguousCallees.addAll(targets);
+					}
+					if (targets.size() <= MAX_ALLOWED_FANOUT) {
+						for (CGNode target : targets) {
+							r.callEdges.add(new Pair<CGNode, SSAInvokeInstruction>(target, invoke));
+						}
+					}
+				}
+			} else if (ins instanceof SSAPutInstruction && withCallEdges) {
+				r.fieldWrites.add(SymbolTable.fieldSignature(((SSAPutInstruction) ins).getDeclaredField()));
+			}
+		}
+		return r;
 	}
 
 	public static Set<CGNode> getTargets(CGNode srcMethod, CallSiteReference callsite) {
+		Set<CGNode> possibleTargets = getAppTargets(srcMethod, callsite);
+		if (possibleTargets.size() > 1) {
+			noteAmbiguousLookup();
+		} else {
+			for (CGNode target : possibleTargets) {
+				noteSingleTargetEdge(srcMethod, callsite, target);
+			}
+		}
+		if (possibleTargets.size() > MAX_ALLOWED_FANOUT ) {
+			return new HashSet<CGNode>();
+		} else {
+			return possibleTargets;
+		}
+	}
+
+	// All the targets in the callgraph, including library methods.
+	public static Set<CGNode> getPossibleTargets(CGNode srcMethod, CallSiteReference callsite) {
+		Set<CGNode> possibleTargets = callgraph.getPossibleTargets(srcMethod, callsite);
+		if (possibleTargets.isEmpty() && applicationOnlyCallgraph) {
+			possibleTargets = getLibraryTargets(callsite);
+		}
+		if (possibleTargets.size() > 1) {
+			noteAmbiguousLookup();
+		} else {
+			for (CGNode target : possibleTargets) {
+				noteSingleTargetEdge(srcMethod, callsite, target);
+			}
+		}
+		return possibleTargets;
+	}
+
+	/*
+	 * The library targets of a call site that an application-only CHA callgraph
+	 * leaves out, resolved the way the full CHA callgraph does.
+	 */
+	private static Set<CGNode> getLibraryTargets(CallSiteReference callsite) {
+		Set<IMethod> methods;
+		if (callsite.isDispatch()) {
+			methods = cha.getPossibleTargets(callsite.getDeclaredTarget());
+		} else {
+			IMethod m = cha.resolveMethod(callsite.getDeclaredTarget());
+			methods = m == null ? Collections.<IMethod>emptySet() : Collections.singleton(m);
+		}
+		Set<CGNode> targets = new HashSet<CGNode>();
+		for (IMethod m : methods) {
+			if (m.isAbstract()) {
+				continue;
+			}
+			try {
+				targets.add(((CHACallGraph) callgraph).findOrCreateNode(m, Everywhere.EVERYWHERE));
+			} catch (CancelException e) {
+				System.out.println("ERROR: Could not create the callgraph node for " + m.getSignature());
+			}
+		}
+		return targets;
+	}
+
+	// The targets without the fanout limit.
+	private static Set<CGNode> getAppTargets(CGNode srcMethod, CallSiteReference callsite) {
 		Set<CGNode> possibleTargets = callgraph.getPossibleTargets(srcMethod, callsite);
 
 		if (SKIP_LIBRARY) {
 			Set<CGNode> possibleAppTargets = new HashSet<CGNode>();
 			for (CGNode target : possibleTargets) {
-				String classname = target.getMethod().getDeclaringClass().getName().toString();
+				String classname = SymbolTable.className(target.getMethod().getDeclaringClass());
 				if (appClassesMap.containsKey(classname)) {
 					possibleAppTargets.add(target);
 				}
 			}
 			possibleTargets = possibleAppTargets;
 		}
-
-		if (possibleTargets.size() > MAX_ALLOWED_FANOUT ) {
-			return new HashSet<CGNode>();
-		} else {
-			return possibleTargets;
-		}
+		return possibleTargets;
 	}
 
 	public static int getMethodCount(String classname) {
@@ -176,7 +612,7 @@ public class ProgramInfo {
 	}
 
 	/* HELPER METHODS */
-	private static void generateCallgraph() throws IllegalArgumentException, CancelException{
+	private static void generateCallgraph(boolean zeroCFA) throws IllegalArgumentException, CancelException{
 		//entrypoints = Util.makeMainEntrypoints(analysisScope, cha);
 
 		entrypoints = new HashSet<Entrypoint>();
@@ -194,7 +630,9 @@ public class ProgramInfo {
 			((HashSet<Entrypoint>) entrypoints).add(e);
 		}*/
 		// generate callgraph
-		if (use0CFA) {
+		zeroCFACallgraph = zeroCFA;
+		applicationOnlyCallgraph = false;
+		if (zeroCFA) {
 			// Iterable<Entrypoint> entrypoints = Util.makeMainEntrypoints(scope, cha);
 			AnalysisOptions options = new AnalysisOptions(analysisScope, entrypoints);
 			options.setReflectionOptions(ReflectionOptions.NONE);
@@ -202,7 +640,10 @@ public class ProgramInfo {
 					analysisScope);
 			callgraph = builder.makeCallGraph(options, null);
 		} else { // use CHA
-			CHACallGraph cg = new CHACallGraph(cha);
+			// The first tier of a tiered analysis only needs the application nodes
+			// up front; the closure over the JDK takes about as long as 0-CFA.
+			applicationOnlyCallgraph = use0CFA && tieredCallgraph;
+			CHACallGraph cg = new CHACallGraph(cha, applicationOnlyCallgraph);
 			cg.init(entrypoints);
 			callgraph = cg;
 		}
@@ -210,68 +651,39 @@ public class ProgramInfo {
 
 	private static void setImportantInterfaces() {
 		for (IClass c : cha) {
-			if (c.getName().toString().equalsIgnoreCase("Ljava/io/Closeable")){
+			String classname = c.getName().toString();
+			if (classname.equalsIgnoreCase("Ljava/io/Closeable")){
 				closeableInterface = c;
 			}
-			if (c.getName().toString().equalsIgnoreCase("Ljava/lang/AutoCloseable")){
+			if (classname.equalsIgnoreCase("Ljava/lang/AutoCloseable")){
 				autoCloseableInterface = c;
 			}
-			if (c.getName().toString().equalsIgnoreCase("Ljava/util/Collection")){
+			if (classname.equalsIgnoreCase("Ljava/util/Collection")){
 				collectionInterface = c;
 			}
-			if (c.getName().toString().equalsIgnoreCase("Ljava/util/Map")){
+			if (classname.equalsIgnoreCase("Ljava/util/Map")){
 				mapInterface = c;
 			}
 		}
 
 		if (closeableInterface == null) {
 			System.out.println("ERROR: Closeable Interface not found");
-			System.exit(1);
+			throw new AnalysisException("Closeable Interface not found");
 		}
 		if (autoCloseableInterface == null) {
 			System.out.println("ERROR: AutoCloseable Interface not found");
-			System.exit(1);
+			throw new AnalysisException("AutoCloseable Interface not found");
 		}
 		if (collectionInterface == null) {
 			System.out.println("ERROR: Collection Interface not found");
-			System.exit(1);
+			throw new AnalysisException("Collection Interface not found");
 		}
 		if (mapInterface == null) {
-			System.out.println("ERROR: Collection Interface not found");
-			System.exit(1);
-		}
-	}
-
-	private static void populateCallersMap() {
-		callersMap = new HashMap<CGNode, ArrayList<Pair<CGNode, SSAInvokeInstruction>>>();
-		for (CGNode cgnode : callgraph) {
-			String classname = cgnode.getMethod().getDeclaringClass().getName().toString();
-			if (!appClassesMap.containsKey(classname) && SKIP_LIBRARY) {
-				continue;  // skip library stuff
-			}
-			if (cgnode.getIR() != null) {
-				cgnode.getIR().visitAllInstructions(new InvokeVisitor(cgnode));
-			}
+			System.out.println("ERROR: Map Interface not found");
+			throw new AnalysisException("Map Interface not found");
 		}
 	}
 
-	private static void populateAppMethodsMap() {
-		appMethodsMap = new HashMap<String, ArrayList<CGNode>>();
-		// fill in the methods for each class.
-		for (CGNode cgnode : callgraph) {
-			String classname = cgnode.getMethod().getDeclaringClass().getName().toString();
-			if (!appClassesMap.containsKey(classname)) {
-				continue;  // skip library stuff
-			}
-			if (!appMethodsMap.containsKey(classname)) {
-				appMethodsMap.put(classname, new ArrayList<CGNode>());
-			}
-			appMethodsMap.get(classname).add(cgnode);
-		}
-		// handle fake root
-		appMethodsMap.put(walaFakeRoot, new ArrayList<CGNode>());
-	}
-
 	private static void populateClassesMap() {
 		libClassesMap = new HashMap<String, IClass>();
 		for (IClass cl : cha) {
@@ -477,34 +889,20 @@ public class ProgramInfo {
 		reverseSrcFileClassMap.put(classname, filename);
 	}
 
-	private static class InvokeVisitor implements SSAInstruction.IVisitor {
+	private static class NodeIndex {
 		CGNode cgnode;
-
-		public InvokeVisitor(CGNode a) {
+		String classname;
+		int methodId;
+		boolean isApp;
+		// (callee, call-site-instruction) pairs going out of this node
+		ArrayList<Pair<CGNode, SSAInvokeInstruction>> callEdges = new ArrayList<Pair<CGNode, SSAInvokeInstruction>>();
+		ArrayList<String> fieldWrites = new ArrayList<String>();
+		// callees of call sites with several targets
+		ArrayList<CGNode> ambiguousCallees = new ArrayList<CGNode>();
+
+		NodeIndex(CGNode a) {
 			cgnode = a;
 		}
-
-		@Override
-		public void visitInvoke(SSAInvokeInstruction ins) {
-			for (CGNode target : getTargets(cgnode, ins.getCallSite())) {
-				if (!callersMap.containsKey(target)) {
-					callersMap.put(target, new ArrayList<Pair<CGNode, SSAInvokeInstruction>>());
-				}
-				Pair<CGNode, SSAInvokeInstruction> caller = new Pair<CGNode, SSAInvokeInstruction>(cgnode, ins);
-				callersMap.get(target).add(caller);
-			}
-		}
-	}
-
-	private static class RecordFieldWriteCounts implements SSAInstruction.IVisitor {
-		@Override
-		public void visitPut(SSAPutInstruction ins) {
-			String fieldSignature = ins.getDeclaredField().getSignature();
-			if (!fieldWritesCount.containsKey(fieldSignature)) {
-				fieldWritesCount.put(fieldSignature, 0);
-			}
-			fieldWritesCount.put(fieldSignature, fieldWritesCount.get(fieldSignature)+1);
-		}
 	}
 }
 
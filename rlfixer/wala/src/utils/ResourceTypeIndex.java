@@ -0,0 +1,373 @@
+package utils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.TreeSet;
+
+import com.ibm.wala.classLoader.IClass;
+import com.ibm.wala.classLoader.IMethod;
+import com.ibm.wala.classLoader.JarFileModule;
+import com.ibm.wala.classLoader.Module;
+import com.ibm.wala.classLoader.ModuleEntry;
+import com.ibm.wala.classLoader.ShrikeClass;
+import com.ibm.wala.ipa.callgraph.AnalysisScope;
+import com.ibm.wala.ipa.cha.ClassHierarchy;
+import com.ibm.wala.shrikeCT.ClassReader;
+import com.ibm.wala.shrikeCT.InvalidClassFileException;
+import com.ibm.wala.types.ClassLoaderReference;
+import com.ibm.wala.types.TypeReference;
+
+/*
+ * A prebuilt index of the resource types in the JDK and library jars.
+ * Whether a library type implements Closeable/AutoCloseable or has a close()
+ * method only depends on the classes in its hierarchy, so it is computed once
+ * and cached in <indexDir>/<key>.v<VERSION>.idx. The key is a hash of the
+ * jar and of the JDK jars, since a library class can get its Closeable from
+ * a JDK supertype. Only the classes whose whole hierarchy is in that jar or
+ * in the JDK are indexed: a class with a supertype in another jar (or a
+ * missing one) can be a resource in one project and not in another, so it is
+ * left to the class hierarchy. Each line of an index file is "R <classname>"
+ * or "N <classname>", where the classname is in the bytecode format
+ * (e.g. Ljava/io/FileInputStream).
+ *
+ * The index is computed without the finalizer mappings of the CF inference:
+ * a method counts as close() only by its name. The project specific parts
+ * (finalizers and pseudo-resources) are checked on top of the index by
+ * CommonUtils.checkIfResourceClass. Library classes that inherit a finalizer
+ * get it in FinalizerMappingLoader.propagateToSubclasses, so that check sees
+ * them too.
+ *
+ * Hashing the JDK and lib jars on every run would cost about as much as it
+ * saves, so the hash of each jar is recorded in <indexDir>/hashes.tsv with
+ * the size and modification time it was computed for, and reused while they
+ * don't change.
+ */
+public class ResourceTypeIndex {
+	// Bump this whenever the meaning of an index entry changes.
+	public static final int VERSION = 2;
+	private static final String HEADER = "# rlfixer resource type index v" + VERSION;
+	private static final String HASHES_FILE = "hashes.tsv";
+
+	// Key: classname. Value: whether it is a resource.
+	private static HashMap<String, Boolean> index = new HashMap<String, Boolean>();
+	// Key: absolute path of a jar. Value: its size, modification time and sha1 (see HASHES_FILE).
+	private static HashMap<String, String[]> jarHashes = null;
+	private static String jarHashesDir = null;
+
+	public static void reset() {
+		index = new HashMap<String, Boolean>();
+	}
+
+	/*
+	 * Returns true/false if the class is in the index, and null if we
+	 * don't know about it (then the class hierarchy has to be used).
+	 */
+	public static Boolean lookup(String classname) {
+		return index.get(classname);
+	}
+
+	public static int size() {
+		return index.size();
+	}
+
+	/*
+	 * Loads the index files for all the jars of the primordial (JDK) and
+	 * extension (lib/) loaders. If an index file is missing and generateMissing
+	 * is set, it is computed from the class hierarchy and written to indexDir.
+	 */
+	public static void load(AnalysisScope scope, ClassHierarchy cha, String indexDir, boolean generateMissing) {
+		if (indexDir == null) {
+			return;
+		}
+		File dir = new File(indexDir);
+		if (generateMissing && !dir.exists()) {
+			dir.mkdirs();
+		}
+		loadJarHashes(dir);
+		try {
+			String jdkHash = jdkHash(scope);
+			for (ClassLoaderReference loader : new ClassLoaderReference[] {ClassLoaderReference.Primordial, ClassLoaderReference.Extension}) {
+				for (Module m : scope.getModules(loader)) {
+					if (!(m instanceof JarFileModule)) {
+						continue; // only jars have a stable identity
+					}
+					JarFileModule jar = (JarFileModule) m;
+					try {
+						String key = sha1(jarHash(new File(jar.getAbsolutePath())) + "\n" + jdkHash);
+						File indexFile = new File(dir, key + ".v" + VERSION + ".idx");
+						HashMap<String, Boolean> entries = indexFile.exists() ? readIndexFile(indexFile) : null;
+						if (entries == null && generateMissing) {
+							entries = computeIndex(jar, loader, cha);
+							writeIndexFile(indexFile, entries);
+						}
+						if (entries != null) {
+							index.putAll(entries);
+						}
+					} catch (IOException e) {
+						System.out.println("WARNING: Could not use resource index for " + jar.getAbsolutePath() + ": " + e.getMessage());
+					}
+				}
+			}
+		} catch (IOException e) {
+			System.out.println("WARNING: Could not use resource index: " + e.getMessage());
+		} finally {
+			saveJarHashes();
+		}
+	}
+
+	/*
+	 * The hierarchy part of CommonUtils.checkIfResourceClass.
+	 */
+	public static boolean isResourceInHierarchy(IClass c, IClass closeable, IClass autoCloseable) {
+		if (c.getAllImplementedInterfaces().contains(closeable) ||
+				c.getAllImplementedInterfaces().contains(autoCloseable)) {
+			return true;
+		}
+		for (IMethod m : c.getAllMethods()) {
+			if (CommonUtils.isCloseMethod(m.getReference())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/*
+	 * isResourceInHierarchy without any finalizer mappings: with none,
+	 * CommonUtils.isCloseMethod accepts every method named close.
+	 */
+	private static boolean isIntrinsicResource(IClass c, IClass closeable, IClass autoCloseable) {
+		if (c.getAllImplementedInterfaces().contains(closeable) ||
+				c.getAllImplementedInterfaces().contains(autoCloseable)) {
+			return true;
+		}
+		for (IMethod m : c.getAllMethods()) {
+			if (SymbolTable.name(m.getReference().getName()).equalsIgnoreCase("close")) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/*
+	 * The index entries of the classes of a jar whose hierarchy is complete
+	 * and only has classes of that jar or of the JDK. Doesn't touch the index.
+	 */
+	public static HashMap<String, Boolean> computeIndex(JarFileModule jar, ClassLoaderReference loader, ClassHierarchy cha) {
+		IClass closeable = cha.lookupClass(TypeReference.findOrCreate(ClassLoaderReference.Primordial, "Ljava/io/Closeable"));
+		IClass autoCloseable = cha.lookupClass(TypeReference.findOrCreate(ClassLoaderReference.Primordial, "Ljava/lang/AutoCloseable"));
+		HashSet<String> jarClasses = new HashSet<String>();
+		Iterator<ModuleEntry> it = jar.getEntries();
+		while (it.hasNext()) {
+			ModuleEntry e = it.next();
+			if (e.isClassFile()) {
+				jarClasses.add("L" + e.getClassName());
+			}
+		}
+		HashMap<String, Boolean> entries = new HashMap<String, Boolean>();
+		HashMap<IClass, Boolean> selfContained = new HashMap<IClass, Boolean>();
+		for (String classname : jarClasses) {
+			IClass c = cha.lookupClass(TypeReference.findOrCreate(loader, classname));
+			if (c == null) {
+				continue; // excluded or failed to load
+			}
+			if (!isSelfContained(c, jarClasses, selfContained)) {
+				continue; // depends on the other jars of the project
+			}
+			entries.put(classname, isIntrinsicResource(c, closeable, autoCloseable));
+		}
+		return entries;
+	}
+
+	/*
+	 * Whether all the supertypes of c could be loaded, and are JDK classes
+	 * or classes of the jar being indexed (jarClasses).
+	 */
+	private static boolean isSelfContained(IClass c, HashSet<String> jarClasses, HashMap<IClass, Boolean> memo) {
+		Boolean known = memo.get(c);
+		if (known != null) {
+			return known;
+		}
+		memo.put(c, false); // in case of a (broken) cyclic hierarchy
+		boolean result = isInJarOrJdk(c, jarClasses) && hasAllSupertypes(c);
+		if (result && c.getSuperclass() != null) {
+			result = isSelfContained(c.getSuperclass(), jarClasses, memo);
+		}
+		if (result) {
+			for (IClass i : c.getDirectInterfaces()) {
+				if (!isSelfContained(i, jarClasses, memo)) {
+					result = false;
+					break;
+				}
+			}
+		}
+		memo.put(c, result);
+		return result;
+	}
+
+	private static boolean isInJarOrJdk(IClass c, HashSet<String> jarClasses) {
+		return c.getClassLoader().getReference().equals(ClassLoaderReference.Primordial)
+				|| jarClasses.contains(c.getName().toString());
+	}
+
+	// WALA leaves out the supertypes it could not load.
+	private static boolean hasAllSupertypes(IClass c) {
+		if (!(c instanceof ShrikeClass)) {
+			return true;
+		}
+		try {
+			ClassReader reader = ((ShrikeClass) c).getReader();
+			if (reader.getSuperName() != null && c.getSuperclass() == null) {
+				return false;
+			}
+			return reader.getInterfaceCount() == c.getDirectInterfaces().size();
+		} catch (InvalidClassFileException e) {
+			return false;
+		}
+	}
+
+	public static void writeIndexFile(File indexFile, HashMap<String, Boolean> entries) throws IOException {
+		File tmp = Files.createTempFile(indexFile.getParentFile().toPath(), indexFile.getName(), ".tmp").toFile();
+		try (BufferedWriter writer = new BufferedWriter(new FileWriter(tmp))) {
+			writer.write(HEADER + "\n");
+			for (String classname : new TreeSet<String>(entries.keySet())) {
+				writer.write((entries.get(classname) ? "R " : "N ") + classname + "\n");
+			}
+		}
+		// Workers analyzing other projects may read it at the same time.
+		Files.move(tmp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	// Returns null if the file is from another version of the index.
+	private static HashMap<String, Boolean> readIndexFile(File indexFile) throws IOException {
+		HashMap<String, Boolean> entries = new HashMap<String, Boolean>();
+		try (BufferedReader reader = new BufferedReader(new FileReader(indexFile))) {
+			String line = reader.readLine();
+			if (line == null || !line.equals(HEADER)) {
+				return null;
+			}
+			for (line = reader.readLine(); line != null; line = reader.readLine()) {
+				if (line.length() < 3) {
+					continue;
+				}
+				entries.put(line.substring(2), line.charAt(0) == 'R');
+			}
+		}
+		return entries;
+	}
+
+	// A hash of all the JDK jars, in scope order.
+	private static String jdkHash(AnalysisScope scope) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		for (Module m : scope.getModules(ClassLoaderReference.Primordial)) {
+			if (m instanceof JarFileModule) {
+				sb.append(jarHash(new File(((JarFileModule) m).getAbsolutePath()))).append("\n");
+			}
+		}
+		return sha1(sb.toString());
+	}
+
+	/*
+	 * The sha1 of a jar, from HASHES_FILE if it was computed for the same
+	 * size and modification time.
+	 */
+	private static String jarHash(File jar) throws IOException {
+		String path = jar.getAbsolutePath();
+		String size = Long.toString(jar.length());
+		String mtime = Long.toString(jar.lastModified());
+		String[] known = jarHashes.get(path);
+		if (known != null && known[0].equals(size) && known[1].equals(mtime)) {
+			return known[2];
+		}
+		String hash = sha1(jar);
+		jarHashes.put(path, new String[] {size, mtime, hash});
+		return hash;
+	}
+
+	// Each line of HASHES_FILE is "<sha1> <size> <mtime> <path>".
+	private static void loadJarHashes(File dir) {
+		if (jarHashes != null && dir.getPath().equals(jarHashesDir)) {
+			return; // already loaded by an earlier project of this JVM
+		}
+		jarHashes = new HashMap<String, String[]>();
+		jarHashesDir = dir.getPath();
+		File file = new File(dir, HASHES_FILE);
+		if (!file.exists()) {
+			return;
+		}
+		try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+			for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+				String[] fields = line.split(" ", 4);
+				if (fields.length == 4) {
+					jarHashes.put(fields[3], new String[] {fields[1], fields[2], fields[0]});
+				}
+			}
+		} catch (IOException e) {
+			System.out.println("WARNING: Could not read " + file + ": " + e.getMessage());
+		}
+	}
+
+	private static void saveJarHashes() {
+		File dir = new File(jarHashesDir);
+		if (!dir.isDirectory()) {
+			return;
+		}
+		File file = new File(dir, HASHES_FILE);
+		try {
+			File tmp = Files.createTempFile(dir.toPath(), HASHES_FILE, ".tmp").toFile();
+			try (BufferedWriter writer = new BufferedWriter(new FileWriter(tmp))) {
+				for (String path : new TreeSet<String>(jarHashes.keySet())) {
+					String[] known = jarHashes.get(path);
+					writer.write(known[2] + " " + known[0] + " " + known[1] + " " + path + "\n");
+				}
+			}
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			System.out.println("WARNING: Could not write " + file + ": " + e.getMessage());
+		}
+	}
+
+	private static String sha1(String s) throws IOException {
+		return hex(newSha1().digest(s.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	public static String sha1(File f) throws IOException {
+		MessageDigest digest = newSha1();
+		try (InputStream in = new FileInputStream(f)) {
+			byte[] buffer = new byte[1 << 16];
+			for (int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+				digest.update(buffer, 0, n);
+			}
+		}
+		return hex(digest.digest());
+	}
+
+	private static MessageDigest newSha1() throws IOException {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+	}
+
+	private static String hex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder();
+		for (byte b : bytes) {
+			sb.append(String.format("%02x", b));
+		}
+		return sb.toString();
+	}
+}
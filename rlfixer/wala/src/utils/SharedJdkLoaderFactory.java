@@ -0,0 +1,167 @@
+package utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+
+import com.ibm.wala.classLoader.ClassLoaderFactoryImpl;
+import com.ibm.wala.classLoader.ClassLoaderImpl;
+import com.ibm.wala.classLoader.IClassLoader;
+import com.ibm.wala.classLoader.JarFileModule;
+import com.ibm.wala.classLoader.Module;
+import com.ibm.wala.classLoader.ModuleEntry;
+import com.ibm.wala.ipa.callgraph.AnalysisScope;
+import com.ibm.wala.ipa.cha.IClassHierarchy;
+import com.ibm.wala.types.ClassLoaderReference;
+import com.ibm.wala.util.config.SetOfClasses;
+
+/*
+ * A class loader factory that reads the JDK jars once per JVM. Every class
+ * hierarchy built afterwards (see BatchMain) gets its own primordial loader,
+ * with its own ShrikeClass objects pointing to that hierarchy, but the loader
+ * reads the class files from memory instead of unzipping the JDK jars again.
+ *
+ * The loaders themselves can't be shared: WALA classes keep a reference to
+ * the hierarchy that loaded them (IClass.getClassHierarchy), and resolve
+ * their supertypes in it.
+ *
+ * The class files of the JDK jars stay in memory for the life of the JVM
+ * (about the uncompressed size of the jars, e.g. 60MB for a Java 8 rt.jar).
+ */
+public class SharedJdkLoaderFactory extends ClassLoaderFactoryImpl {
+	// Key: absolute path of a JDK jar. Value: its class files.
+	private static final HashMap<String, InMemoryModule> jdkModules = new HashMap<String, InMemoryModule>();
+
+	public SharedJdkLoaderFactory(SetOfClasses exclusions) {
+		super(exclusions);
+	}
+
+	@Override
+	protected IClassLoader makeNewClassLoader(ClassLoaderReference classLoaderReference, IClassHierarchy cha,
+			IClassLoader parent, AnalysisScope scope) throws IOException {
+		if (!classLoaderReference.equals(ClassLoaderReference.Primordial) || scope.getLoaderImpl(classLoaderReference) != null) {
+			return super.makeNewClassLoader(classLoaderReference, cha, parent, scope);
+		}
+		// What ClassLoaderFactoryImpl does, with the in-memory modules.
+		ClassLoaderImpl cl = new ClassLoaderImpl(classLoaderReference, scope.getArrayClassLoader(), parent, getExclusions(), cha);
+		cl.init(sharedModules(scope.getModules(classLoaderReference)));
+		return cl;
+	}
+
+	private static List<Module> sharedModules(List<Module> modules) throws IOException {
+		List<Module> shared = new ArrayList<Module>();
+		synchronized (jdkModules) {
+			for (Module m : modules) {
+				if (!(m instanceof JarFileModule)) {
+					shared.add(m);
+					continue;
+				}
+				String path = ((JarFileModule) m).getAbsolutePath();
+				InMemoryModule module = jdkModules.get(path);
+				if (module == null) {
+					module = new InMemoryModule((JarFileModule) m);
+					jdkModules.put(path, module);
+				}
+				shared.add(module);
+			}
+		}
+		return shared;
+	}
+
+	// The class files of a jar, read once. Other entries are left out.
+	private static class InMemoryModule implements Module {
+		private final ArrayList<ModuleEntry> entries = new ArrayList<ModuleEntry>();
+		private final String path;
+
+		InMemoryModule(JarFileModule jar) throws IOException {
+			path = jar.getAbsolutePath();
+			Iterator<ModuleEntry> it = jar.getEntries();
+			while (it.hasNext()) {
+				ModuleEntry e = it.next();
+				if (e.isClassFile()) {
+					entries.add(new InMemoryEntry(this, e.getName(), e.getClassName(), readAll(e.getInputStream())));
+				}
+			}
+		}
+
+		@Override
+		public Iterator<ModuleEntry> getEntries() {
+			return entries.iterator();
+		}
+
+		@Override
+		public String toString() {
+			return "InMemoryModule:" + path;
+		}
+	}
+
+	private static class InMemoryEntry implements ModuleEntry {
+		private final Module container;
+		private final String name;
+		private final String className;
+		private final byte[] contents;
+
+		InMemoryEntry(Module container, String name, String className, byte[] contents) {
+			this.container = container;
+			this.name = name;
+			this.className = className;
+			this.contents = contents;
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public boolean isClassFile() {
+			return true;
+		}
+
+		@Override
+		public boolean isSourceFile() {
+			return false;
+		}
+
+		@Override
+		public InputStream getInputStream() {
+			return new ByteArrayInputStream(contents);
+		}
+
+		@Override
+		public boolean isModuleFile() {
+			return false;
+		}
+
+		@Override
+		public Module asModule() {
+			return null;
+		}
+
+		@Override
+		public String getClassName() {
+			return className;
+		}
+
+		@Override
+		public Module getContainer() {
+			return container;
+		}
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		try (InputStream s = in) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[1 << 16];
+			for (int n = s.read(buffer); n != -1; n = s.read(buffer)) {
+				out.write(buffer, 0, n);
+			}
+			return out.toByteArray();
+		}
+	}
+}
@@ -0,0 +1,120 @@
+package utils;
+
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.ibm.wala.classLoader.IClass;
+import com.ibm.wala.classLoader.IMethod;
+import com.ibm.wala.ipa.callgraph.CGNode;
+import com.ibm.wala.types.FieldReference;
+import com.ibm.wala.types.MethodReference;
+import com.ibm.wala.types.TypeName;
+import com.ibm.wala.types.TypeReference;
+import com.ibm.wala.util.strings.Atom;
+
+/*
+ * Interns the class names, method signatures and variable ids that the
+ * analysis uses as map keys. WALA builds a new String for every
+ * getName().toString() and getSignature() call, so the same names were
+ * allocated over and over on the hot paths, and every map and visited set
+ * kept its own copies. Here each of them is computed once, methods also
+ * get an int id (see methodId), and the same String instance is returned
+ * from then on. Classes get no int id: the maps keyed by class (e.g.
+ * ProgramInfo.appClassesMap and appMethodsMap) are looked up by name all
+ * over the analysis, so they share the interned name instead.
+ *
+ * Keyed by WALA's TypeName, MethodReference, FieldReference and Atom, which
+ * WALA already interns. Two method references with the same signature (e.g.
+ * from different class loaders) get the same id. Thread safe, since
+ * ProgramInfo indexes the callgraph in parallel; only creating a symbol locks.
+ */
+public class SymbolTable {
+	private static class Symbol {
+		final int id;
+		final String name;
+
+		Symbol(int id, String name) {
+			this.id = id;
+			this.name = name;
+		}
+	}
+
+	private static ConcurrentHashMap<TypeName, String> classNames = new ConcurrentHashMap<TypeName, String>();
+	private static ConcurrentHashMap<MethodReference, Symbol> methods = new ConcurrentHashMap<MethodReference, Symbol>();
+	private static HashMap<String, Symbol> methodsBySignature = new HashMap<String, Symbol>();
+	private static ConcurrentHashMap<FieldReference, String> fieldSignatures = new ConcurrentHashMap<FieldReference, String>();
+	private static ConcurrentHashMap<Atom, String> names = new ConcurrentHashMap<Atom, String>();
+	// Key: (method id << 32) | variable number. Value: "method-signature#variableNumber"
+	private static ConcurrentHashMap<Long, String> variableIds = new ConcurrentHashMap<Long, String>();
+
+	// Drops the symbols of the previous project.
+	public static synchronized void reset() {
+		classNames = new ConcurrentHashMap<TypeName, String>();
+		methods = new ConcurrentHashMap<MethodReference, Symbol>();
+		methodsBySignature = new HashMap<String, Symbol>();
+		fieldSignatures = new ConcurrentHashMap<FieldReference, String>();
+		names = new ConcurrentHashMap<Atom, String>();
+		variableIds = new ConcurrentHashMap<Long, String>();
+	}
+
+	// The class name in the bytecode format, e.g. Ljava/io/FileInputStream
+	public static String className(TypeName t) {
+		String name = classNames.get(t);
+		return name != null ? name : classNames.computeIfAbsent(t, TypeName::toString);
+	}
+
+	public static String className(TypeReference t) {
+		return className(t.getName());
+	}
+
+	public static String className(IClass c) {
+		return className(c.getName());
+	}
+
+	private static Symbol methodSymbol(MethodReference m) {
+		Symbol s = methods.get(m);
+		return s != null ? s : newMethodSymbol(m);
+	}
+
+	private static synchronized Symbol newMethodSymbol(MethodReference m) {
+		Symbol s = methods.get(m);
+		if (s == null) {
+			String signature = m.getSignature();
+			s = methodsBySignature.get(signature);
+			if (s == null) {
+				s = new Symbol(methodsBySignature.size(), signature);
+				methodsBySignature.put(signature, s);
+			}
+			methods.put(m, s);
+		}
+		return s;
+	}
+
+	public static int methodId(IMethod m) {
+		return methodSymbol(m.getReference()).id;
+	}
+
+	// Same as m.getSignature()
+	public static String methodSignature(IMethod m) {
+		return methodSymbol(m.getReference()).name;
+	}
+
+	public static String fieldSignature(FieldReference f) {
+		String signature = fieldSignatures.get(f);
+		return signature != null ? signature : fieldSignatures.computeIfAbsent(f, FieldReference::getSignature);
+	}
+
+	// Method and field names
+	public static String name(Atom a) {
+		String name = names.get(a);
+		return name != null ? name : names.computeIfAbsent(a, Atom::toString);
+	}
+
+	// See CommonUtils.getVariableId
+	public static String variableId(CGNode cgnode, int variableNumber) {
+		Symbol method = methodSymbol(cgnode.getMethod().getReference());
+		long key = ((long) method.id << 32) | (variableNumber & 0xffffffffL);
+		String variableId = variableIds.get(key);
+		return variableId != null ? variableId : variableIds.computeIfAbsent(key, k -> method.name + "#" + variableNumber);
+	}
+}
@@ -72,9 +72,9 @@ public class Warning {
 		escapeTypes = new HashSet<ResourceEscapeType>();
 		sourceLevelFixes = new ArrayList<String>();
 		unfixable = false;
-		sourceFilename = ProgramInfo.reverseSrcFileClassMap.get(matchedClass.getName().toString());
+		sourceFilename = ProgramInfo.reverseSrcFileClassMap.get(SymbolTable.className(matchedClass));
 		if (sourceFilename == null) {  // happens for lambda classes
-			String reducedClassname = (matchedClass.getName().toString().split("\\$"))[0];
+			String reducedClassname = (SymbolTable.className(matchedClass).split("\\$"))[0];
 			sourceFilename = ProgramInfo.reverseSrcFileClassMap.get(reducedClassname);
 		}
 		comments = "";
@@ -174,7 +174,7 @@ public class Warning {
 						String type = "";
 						if (ins instanceof SSANewInstruction) {
 							TypeReference insType = ((SSANewInstruction) ins).getConcreteType();
-							type = insType.getName().toString();
+							type = SymbolTable.className(insType);
 						}
 						if (CommonUtils.isNewResourceStatement(ins) && (lineNo != 38 || type.contains("GraphWriter"))) {
 							setMatches(iclassObject, cgnode, ins, false, false);
@@ -205,7 +205,7 @@ public class Warning {
 						// We can't be sure that this is the correct line.
 					}
 					TypeReference targetClass = invokeIns.getDeclaredTarget().getDeclaringClass();
-					boolean invokeToAppClass = ProgramInfo.appClassesMap.containsKey(targetClass.getName().toString());
+					boolean invokeToAppClass = ProgramInfo.appClassesMap.containsKey(SymbolTable.className(targetClass));
 					setMatches(m.fst, m.snd, m.third, true, !invokeToAppClass);
 					if (ProgramInfo.debugParsing) {
 					}
@@ -236,11 +236,11 @@ public class Warning {
 	public String getQualifiedResourceName() {
 		if (matchedInstruction instanceof SSANewInstruction) {
 			TypeReference t = ((SSANewInstruction) matchedInstruction).getConcreteType();
-			return t.getName().toString();
+			return SymbolTable.className(t);
 		}
 		else if (matchedInstruction instanceof SSAInvokeInstruction) {
 			TypeReference t = ((SSAInvokeInstruction) matchedInstruction).getDeclaredResultType();
-			return t.getName().toString();
+			return SymbolTable.className(t);
 		}
 		return null;
 	}
@@ -76,7 +76,9 @@ def clean_up_current():
 def run_rlfixer(source_project_name, results_folder, source_project_path):
     """Run RLFixer if applicable."""
     logging.info(f"Running RLFixer for {source_project_name}...")
-    SourceProjectCompiler.compile_benchmark_if_patched(source_project_path)
+    if not SourceProjectCompiler.compile_benchmark_if_patched(source_project_path):
+        logging.error(f"Skipping RLFixer for {source_project_name}: the benchmark does not compile.")
+        return
 
     rlfixer_output_fixes_folder = f"{Constants.RLFIXER_RESULTS_FOLDER}/fixes"
     rlfixer_output_debug_folder = f"{Constants.RLFIXER_RESULTS_FOLDER}/debug"